@@ -279,6 +279,13 @@ abstract class AbstractWagon implements Wagon {
         this.connectionTimeout = timeout;
     }
 
+    /**
+     * Tell the session listeners about something that went wrong outside of a transfer
+     */
+    protected final void fireSessionError(Exception exception) {
+        this.sessionListenerSupport.fireSessionError(exception);
+    }
+
     protected abstract void connectToRepository(Repository repository, AuthenticationInfo authenticationInfo,
                                                 ProxyInfoProvider proxyInfoProvider) throws ConnectionException,
             AuthenticationException;
@@ -0,0 +1,154 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+
+/**
+ * A host-wide directory of downloaded objects named for their content, the CRC32C, MD5 and size GCS reports for them,
+ * so that every build on the host, whatever local repository it downloads into, downloads an object only once.
+ * <p/>
+ * Objects are copied into and out of the store rather than linked, so that nothing that writes to a file of a local
+ * repository in place can change what the store holds, and so that the modification time of a stored file, which
+ * eviction goes by, is only ever that of its last use. A download is only stored once the copy of it has been checked
+ * against the checksums it is named for, so a store shared by concurrent processes never holds anything but what its
+ * names say. Once the store holds more than the maximum number of bytes, the least recently used files are deleted.
+ */
+final class BlobStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BlobStore.class);
+
+  private static final String SUFFIX = ".blob";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Path directory;
+  private final long maxBytes;
+  private final EvictionBudget budget;
+
+  BlobStore(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.budget = new EvictionBudget(directory, "*" + SUFFIX, maxBytes);
+  }
+
+  Path getDirectory() {
+    return directory;
+  }
+
+  long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Creates {@code destination} from the stored object with these checksums, if there is one
+   *
+   * @param md5 the object's MD5, or {@code null} for a composite object, which has none
+   * @return whether there was one
+   */
+  boolean get(String crc32c, String md5, long size, Path destination) {
+    Path file = getFile(crc32c, md5, size);
+    try {
+      if (Files.size(file) != size) {
+        return false;
+      }
+      Files.copy(file, destination, StandardCopyOption.REPLACE_EXISTING);
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    } catch (IOException e) {
+      LOG.debug("Cannot create '{}' from '{}'", destination, file, e);
+      return false;
+    }
+  }
+
+  /**
+   * Stores {@code source} as the object with these checksums, provided its content matches them
+   */
+  void put(String crc32c, String md5, long size, Path source) {
+    Path file = getFile(crc32c, md5, size);
+    if (Files.exists(file)) {
+      return;
+    }
+
+    Path temporary = null;
+    try {
+      Files.createDirectories(directory);
+      temporary = Files.createTempFile(directory, "gcs", ".tmp");
+      Files.copy(source, temporary, StandardCopyOption.REPLACE_EXISTING);
+      // the copy is what gets stored, so it is the copy that is checked
+      if (!matches(temporary, crc32c, md5, size)) {
+        LOG.debug("Not storing '{}', whose content does not match its checksums", source);
+        return;
+      }
+      try {
+        Files.move(temporary, file);
+        temporary = null;
+      } catch (FileAlreadyExistsException e) {
+        // stored by another process in the meantime
+        return;
+      }
+    } catch (IOException e) {
+      LOG.debug("Cannot store '{}'", source, e);
+      return;
+    } finally {
+      if (temporary != null) {
+        temporary.toFile().delete();
+      }
+    }
+    budget.added(size);
+  }
+
+  private static boolean matches(Path source, String crc32c, String md5, long size) throws IOException {
+    Hasher crc = Hashing.crc32c().newHasher();
+    MessageDigest digest = md5 == null ? null : newMd5();
+    long length = 0;
+    try (InputStream in = Files.newInputStream(source)) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        crc.putBytes(buffer, 0, read);
+        if (digest != null) {
+          digest.update(buffer, 0, read);
+        }
+        length += read;
+      }
+    }
+    // GCS reports the CRC32C big-endian
+    return length == size
+        && crc.hash().asInt() == Ints.fromByteArray(BaseEncoding.base64().decode(crc32c))
+        && (digest == null || MessageDigest.isEqual(digest.digest(), BaseEncoding.base64().decode(md5)));
+  }
+
+  private static MessageDigest newMd5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private Path getFile(String crc32c, String md5, long size) {
+    BaseEncoding hex = BaseEncoding.base16().lowerCase();
+    String name = hex.encode(BaseEncoding.base64().decode(crc32c))
+        + "-" + (md5 == null ? "" : hex.encode(BaseEncoding.base64().decode(md5)))
+        + "-" + size;
+    return directory.resolve(name + SUFFIX);
+  }
+}
@@ -0,0 +1,53 @@
+package org.springframework.build.gcs.maven;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A JVM-wide pool of the transfer buffers that data moves through between GCS channels and files, so that each
+ * transfer does not allocate and throw away megabytes of buffer.
+ * <p/>
+ * The buffers are heap buffers: {@link TransferProgress#notify} takes a {@code byte[]}, so a batch of progress can be
+ * reported straight from the buffer's backing array without copying it out.
+ */
+final class BufferPool {
+
+  static final int BUFFER_SIZE = 2 * 1024 * 1024;
+
+  private static final int MAX_POOLED_BUFFERS = 16;
+
+  private static final Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+  private static final AtomicInteger POOLED = new AtomicInteger();
+
+  private BufferPool() {
+  }
+
+  /**
+   * Take a cleared buffer of {@link #BUFFER_SIZE} bytes from the pool, allocating one if the pool is empty
+   */
+  static ByteBuffer acquire() {
+    ByteBuffer buffer = POOL.poll();
+    if (buffer == null) {
+      return ByteBuffer.allocate(BUFFER_SIZE);
+    }
+    POOLED.decrementAndGet();
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Return a buffer from {@link #acquire} to the pool. The caller must not use it afterwards.
+   */
+  static void release(ByteBuffer buffer) {
+    if (buffer.capacity() != BUFFER_SIZE) {
+      return;
+    }
+    if (POOLED.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+      POOL.offer(buffer);
+    } else {
+      POOLED.decrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package org.springframework.build.gcs.maven;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.build.gcs.maven.CircuitStateChangeException.State;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Stops sending requests to a bucket that is failing most of them, so that a build fails in seconds instead of taking
+ * every transfer through its retries.
+ * <p/>
+ * A breaker is closed while the share of failures among the most recent attempts stays below a threshold. Once it
+ * reaches the threshold the breaker opens, and attempts are refused until the open period has passed. The next attempt
+ * after that is let through as a probe, with every other attempt refused until it finishes: a successful probe closes
+ * the breaker and a failed one opens it again. The outcome of an attempt let through before the last change of state,
+ * such as one that started before the breaker opened, is ignored.
+ * <p/>
+ * Breakers are shared by every wagon in the JVM, one per bucket, and take their settings from the first wagon to use
+ * the bucket.
+ */
+final class CircuitBreaker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  private static final Map<String, CircuitBreaker> BREAKERS = new HashMap<>();
+
+  /**
+   * Told when a breaker changes state
+   */
+  interface Listener {
+    void stateChanged(String bucket, State from, State to);
+  }
+
+  private final String bucket;
+  private final double failureRate;
+  private final int minimumAttempts;
+  private final long openNanos;
+  private final Ticker ticker;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  // the outcomes of the most recent attempts, true for a failure
+  private final boolean[] outcomes;
+  private int recorded;
+  private int next;
+  private int failures;
+
+  private State state = State.CLOSED;
+  private long openedAt;
+  private boolean probing;
+  // counts changes of state, so that outcomes can be told from ones of attempts let through before the last of them
+  private long epoch;
+
+  /**
+   * @param failureRate the share of failures, between 0 and 1, among the most recent {@code window} attempts at which
+   * the breaker opens
+   * @param minimumAttempts the number of attempts that must have been made before the breaker can open
+   */
+  CircuitBreaker(String bucket, double failureRate, int window, int minimumAttempts, long openMillis, Ticker ticker) {
+    this.bucket = bucket;
+    this.failureRate = failureRate;
+    this.outcomes = new boolean[Math.max(1, window)];
+    this.minimumAttempts = Math.max(1, Math.min(minimumAttempts, outcomes.length));
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    this.ticker = ticker;
+  }
+
+  /**
+   * Returns the breaker for {@code bucket}, creating one with these settings if there is none
+   */
+  static CircuitBreaker forBucket(String bucket, double failureRate, int window, int minimumAttempts,
+                                  long openMillis) {
+    synchronized (BREAKERS) {
+      CircuitBreaker breaker = BREAKERS.get(bucket);
+      if (breaker == null) {
+        breaker = new CircuitBreaker(bucket, failureRate, window, minimumAttempts, openMillis,
+                                     Ticker.systemTicker());
+        BREAKERS.put(bucket, breaker);
+      }
+      return breaker;
+    }
+  }
+
+  /**
+   * Forget every breaker, closing them all
+   */
+  static void clear() {
+    synchronized (BREAKERS) {
+      BREAKERS.clear();
+    }
+  }
+
+  void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  String getBucket() {
+    return bucket;
+  }
+
+  synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * Returns a permit for an attempt, or {@code null} if none may be made now. Every attempt that is allowed must have
+   * its outcome recorded with its permit.
+   */
+  Permit tryAcquire() {
+    Permit permit;
+    synchronized (this) {
+      switch (state) {
+        case CLOSED:
+          return new Permit(epoch);
+        case OPEN:
+          if (ticker.read() - openedAt < openNanos) {
+            return null;
+          }
+          state = State.HALF_OPEN;
+          epoch++;
+          probing = true;
+          permit = new Permit(epoch);
+          break;
+        default:
+          if (probing) {
+            return null;
+          }
+          probing = true;
+          return new Permit(epoch);
+      }
+    }
+    transition(State.OPEN, State.HALF_OPEN);
+    return permit;
+  }
+
+  /**
+   * Returns how long, in milliseconds, until an open breaker lets a probe through
+   */
+  synchronized long getRetryAfterMillis() {
+    if (state != State.OPEN) {
+      return 0;
+    }
+    return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openNanos - (ticker.read() - openedAt)));
+  }
+
+  void recordSuccess(Permit permit) {
+    State from;
+    synchronized (this) {
+      if (permit.epoch != epoch) {
+        return;
+      }
+      from = state;
+      if (state == State.HALF_OPEN) {
+        reset();
+      } else {
+        record(false);
+        return;
+      }
+    }
+    transition(from, State.CLOSED);
+  }
+
+  void recordFailure(Permit permit) {
+    State from;
+    synchronized (this) {
+      if (permit.epoch != epoch) {
+        return;
+      }
+      from = state;
+      if (state == State.CLOSED) {
+        record(true);
+        if (recorded < minimumAttempts || failures < failureRate * recorded) {
+          return;
+        }
+      }
+      state = State.OPEN;
+      epoch++;
+      openedAt = ticker.read();
+      probing = false;
+    }
+    transition(from, State.OPEN);
+  }
+
+  private void record(boolean failure) {
+    if (recorded == outcomes.length && outcomes[next]) {
+      failures--;
+    }
+    outcomes[next] = failure;
+    if (failure) {
+      failures++;
+    }
+    next = (next + 1) % outcomes.length;
+    recorded = Math.min(outcomes.length, recorded + 1);
+  }
+
+  private void reset() {
+    state = State.CLOSED;
+    epoch++;
+    probing = false;
+    recorded = 0;
+    next = 0;
+    failures = 0;
+  }
+
+  /**
+   * Lets one attempt through. A half-open breaker only ever hands out the probe's.
+   */
+  static final class Permit {
+
+    private final long epoch;
+
+    private Permit(long epoch) {
+      this.epoch = epoch;
+    }
+  }
+
+  // Listeners are told outside the lock, since they may call back into the breaker
+  private void transition(State from, State to) {
+    if (to == State.OPEN) {
+      LOG.warn("GCS bucket '{}' is failing, refusing transfers for {} ms", bucket,
+               TimeUnit.NANOSECONDS.toMillis(openNanos));
+    } else {
+      LOG.info("GCS bucket '{}' circuit is now {}", bucket, to);
+    }
+    for (Listener listener : listeners) {
+      listener.stateChanged(bucket, from, to);
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package org.springframework.build.gcs.maven;
+
+/**
+ * Reported to the session listeners of every wagon using a bucket when the circuit breaker for the bucket changes
+ * state. An {@link State#OPEN} breaker fails transfers to the bucket without trying them.
+ */
+public final class CircuitStateChangeException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The states of a circuit breaker
+   */
+  public enum State {
+
+    /**
+     * Transfers are attempted
+     */
+    CLOSED,
+
+    /**
+     * Transfers fail without being attempted
+     */
+    OPEN,
+
+    /**
+     * A single transfer is attempted to find out whether the bucket has recovered
+     */
+    HALF_OPEN
+  }
+
+  private final String bucket;
+  private final State from;
+  private final State to;
+
+  CircuitStateChangeException(String bucket, State from, State to) {
+    super(String.format("Circuit breaker for GCS bucket '%s' changed from %s to %s", bucket, from, to));
+    this.bucket = bucket;
+    this.from = from;
+    this.to = to;
+  }
+
+  public String getBucket() {
+    return bucket;
+  }
+
+  public State getFrom() {
+    return from;
+  }
+
+  public State getTo() {
+    return to;
+  }
+}
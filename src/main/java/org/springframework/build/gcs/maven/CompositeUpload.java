@@ -0,0 +1,248 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.ComposeRequest;
+import com.google.cloud.storage.StorageException;
+
+/**
+ * Uploads a file as a set of parts that are written concurrently to temporary objects and then composed into the
+ * target object. The temporary objects are always deleted, whether or not the upload succeeds, once no part is still
+ * being written.
+ * <p/>
+ * GCS composes at most {@value #MAX_COMPOSE_SOURCES} objects per request, so the part size grows as needed to keep a
+ * file within a single compose.
+ */
+final class CompositeUpload {
+
+  static final int MAX_COMPOSE_SOURCES = 32;
+
+  private static final Logger LOG = LoggerFactory.getLogger(CompositeUpload.class);
+
+  /**
+   * Runs a single GCS operation that is one step of the composite upload
+   */
+  interface PartRunner {
+    <T> T run(Callable<T> part) throws Exception;
+  }
+
+  private final Storage storage;
+  private final ExecutorService executor;
+  private final GcsMetrics metrics;
+  private final long partSize;
+  private final PartRunner partRunner;
+
+  CompositeUpload(Storage storage, ExecutorService executor, GcsMetrics metrics, long partSize, PartRunner partRunner) {
+    this.storage = storage;
+    this.executor = executor;
+    this.metrics = metrics;
+    this.partSize = Math.max(1, partSize);
+    this.partRunner = partRunner;
+  }
+
+  Blob upload(File source, BlobInfo target, TransferProgress transferProgress) throws IOException {
+    try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      long effectivePartSize = Math.max(partSize, (size + MAX_COMPOSE_SOURCES - 1) / MAX_COMPOSE_SOURCES);
+      String partPrefix = String.format("%s.part-%s-", target.getName(), UUID.randomUUID());
+
+      List<BlobId> parts = new ArrayList<>();
+      List<PartTask> tasks = new ArrayList<>();
+      List<Future<Void>> uploads = new ArrayList<>();
+      try {
+        for (long position = 0; position < size || parts.isEmpty(); position += effectivePartSize) {
+          BlobInfo part = BlobInfo.newBuilder(target.getBucket(), partPrefix + parts.size())
+              .setContentType(target.getContentType())
+              .build();
+          parts.add(part.getBlobId());
+          PartTask task = new PartTask(channel, part, position, Math.min(effectivePartSize, size - position));
+          tasks.add(task);
+          uploads.add(executor.submit(task));
+        }
+
+        long position = 0;
+        for (Future<Void> upload : uploads) {
+          await(upload);
+          long length = Math.min(effectivePartSize, size - position);
+          IoUtils.notifyProgress(channel, position, length, transferProgress);
+          position += length;
+        }
+
+        return compose(parts, target);
+      } finally {
+        for (PartTask task : tasks) {
+          task.cancel();
+        }
+        for (Future<Void> upload : uploads) {
+          upload.cancel(true);
+        }
+        // a part being written when it is cancelled can still be committed, so nothing is deleted until none can be
+        for (PartTask task : tasks) {
+          task.awaitFinished();
+        }
+        deleteQuietly(parts);
+      }
+    }
+  }
+
+  private Blob compose(final List<BlobId> parts, final BlobInfo target) throws IOException {
+    final ComposeRequest.Builder request = ComposeRequest.newBuilder().setTarget(target);
+    for (BlobId part : parts) {
+      request.addSource(part.getName());
+    }
+
+    return run(new Callable<Blob>() {
+
+      @Override
+      public Blob call() {
+        metrics.increment(GcsMetrics.Counter.WRITE_REQUESTS);
+        return storage.compose(request.build());
+      }
+    });
+  }
+
+  private void deleteQuietly(List<BlobId> parts) {
+    try {
+      metrics.increment(GcsMetrics.Counter.WRITE_REQUESTS);
+      storage.delete(parts);
+    } catch (StorageException e) {
+      LOG.warn("Could not delete {} temporary parts of composite upload", parts.size(), e);
+    }
+  }
+
+  private <T> T run(Callable<T> part) throws IOException {
+    try {
+      return partRunner.run(part);
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Composite upload step failed", e);
+    }
+  }
+
+  private static void await(Future<Void> upload) throws IOException {
+    try {
+      upload.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for upload part");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw new IOException("Upload part failed", cause);
+      }
+    }
+  }
+
+  private final class PartTask implements Callable<Void> {
+
+    private final FileChannel channel;
+    private final BlobInfo part;
+    private final long start;
+    private final long length;
+
+    private boolean cancelled;
+    private boolean running;
+
+    private PartTask(FileChannel channel, BlobInfo part, long start, long length) {
+      this.channel = channel;
+      this.part = part;
+      this.start = start;
+      this.length = length;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      synchronized (this) {
+        if (cancelled) {
+          return null;
+        }
+        running = true;
+      }
+      try {
+        return run(new Callable<Void>() {
+
+          @Override
+          public Void call() throws IOException {
+            writePart();
+            return null;
+          }
+        });
+      } finally {
+        synchronized (this) {
+          running = false;
+          notifyAll();
+        }
+      }
+    }
+
+    // a part that has not started by now is never written
+    private synchronized void cancel() {
+      cancelled = true;
+    }
+
+    private synchronized void awaitFinished() {
+      boolean interrupted = false;
+      while (running) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void writePart() throws IOException {
+      ByteBuffer buffer = BufferPool.acquire();
+
+      metrics.increment(GcsMetrics.Counter.WRITE_REQUESTS);
+      try (WriteChannel writer = storage.writer(part)) {
+        long read = 0;
+        while (read < length) {
+          buffer.clear();
+          buffer.limit((int) Math.min(buffer.capacity(), length - read));
+
+          int count = channel.read(buffer, start + read);
+          if (count < 0) {
+            throw new IOException(String.format("Unexpected end of file at byte %d", start + read));
+          }
+          read += count;
+
+          buffer.flip();
+          while (buffer.hasRemaining()) {
+            writer.write(buffer);
+          }
+        }
+      } finally {
+        BufferPool.release(buffer);
+      }
+    }
+  }
+}
@@ -0,0 +1,226 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.api.services.storage.StorageScopes;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A JVM-wide cache of the credentials loaded from service account files, keyed by path and modification time so that
+ * a replaced file is loaded again.
+ * <p/>
+ * Each cached credential has its access token fetched in the background as soon as it is loaded, and again
+ * {@link #REFRESH_MARGIN_MILLIS} before the token expires, so that requests find a valid token instead of waiting for
+ * one to be minted. Credentials nobody has asked for in {@link #IDLE_TIMEOUT_MILLIS} stop being refreshed and are
+ * dropped.
+ */
+final class CredentialCache {
+
+  // Ahead of the five minutes before expiry at which the credentials would refresh on a request thread
+  static final long REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  static final long IDLE_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private static final Logger LOG = LoggerFactory.getLogger(CredentialCache.class);
+
+  private static final CredentialCache INSTANCE = new CredentialCache(new Loader() {
+
+    @Override
+    public GoogleCredentials load(Path path) throws IOException {
+      try (InputStream credentials = Files.newInputStream(path, StandardOpenOption.READ)) {
+        return GoogleCredentials
+            .fromStream(credentials)
+            .createScoped(StorageScopes.CLOUD_PLATFORM);
+      }
+    }
+  });
+
+  /**
+   * Reads credentials from a file
+   */
+  interface Loader {
+    GoogleCredentials load(Path path) throws IOException;
+  }
+
+  private final Loader loader;
+  private final Map<Path, Entry> credentials = new HashMap<>();
+
+  private final AtomicLong tokenFetches = new AtomicLong();
+  private final AtomicLong tokenFetchNanos = new AtomicLong();
+  private final AtomicLong lastTokenFetchNanos = new AtomicLong();
+
+  private ScheduledExecutorService refresher;
+
+  CredentialCache(Loader loader) {
+    this.loader = loader;
+  }
+
+  static CredentialCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the credentials in the file at {@code path}, loading them if the file is new or has changed since it was
+   * last loaded
+   */
+  synchronized GoogleCredentials get(Path path) throws IOException {
+    long modified = Files.getLastModifiedTime(path).toMillis();
+
+    Entry entry = credentials.get(path);
+    if (entry == null || entry.modified != modified) {
+      if (entry != null) {
+        entry.cancel();
+      }
+      LOG.debug("Loading GCS credentials from {}", path);
+      entry = new Entry(path, modified, loader.load(path));
+      credentials.put(path, entry);
+      entry.schedule(0);
+    }
+
+    entry.lastUsed = System.currentTimeMillis();
+    return entry.credentials;
+  }
+
+  /**
+   * Returns the number of access tokens fetched
+   */
+  long getTokenFetches() {
+    return tokenFetches.get();
+  }
+
+  /**
+   * Returns the total time spent fetching access tokens, in milliseconds
+   */
+  long getTokenFetchMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(tokenFetchNanos.get());
+  }
+
+  /**
+   * Returns the time the most recent access token took to fetch, in milliseconds
+   */
+  long getLastTokenFetchMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(lastTokenFetchNanos.get());
+  }
+
+  @Override
+  public String toString() {
+    long fetches = getTokenFetches();
+    return String.format("%d access tokens fetched, %d ms on average, %d ms for the last", fetches,
+                         fetches == 0 ? 0 : getTokenFetchMillis() / fetches, getLastTokenFetchMillis());
+  }
+
+  /**
+   * Drop every credential that has not been asked for since before {@code now - idleTimeout}
+   */
+  synchronized void evictIdle(long now) {
+    Iterator<Entry> iterator = credentials.values().iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (now - entry.lastUsed >= IDLE_TIMEOUT_MILLIS) {
+        LOG.debug("Evicting idle GCS credentials from {}", entry.path);
+        entry.cancel();
+        iterator.remove();
+      }
+    }
+
+    if (credentials.isEmpty() && refresher != null) {
+      refresher.shutdown();
+      refresher = null;
+    }
+  }
+
+  private synchronized ScheduledExecutorService getRefresher() {
+    if (refresher == null) {
+      refresher = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("gcs-credential-refresh-%d")
+              .build()
+      );
+    }
+    return refresher;
+  }
+
+  private final class Entry implements Runnable {
+
+    private final Path path;
+    private final long modified;
+    private final GoogleCredentials credentials;
+
+    private volatile long lastUsed;
+    private ScheduledFuture<?> refresh;
+
+    private Entry(Path path, long modified, GoogleCredentials credentials) {
+      this.path = path;
+      this.modified = modified;
+      this.credentials = credentials;
+    }
+
+    @Override
+    public void run() {
+      evictIdle(System.currentTimeMillis());
+      synchronized (CredentialCache.this) {
+        if (CredentialCache.this.credentials.get(path) != this) {
+          return;
+        }
+      }
+
+      long start = System.nanoTime();
+      try {
+        credentials.refresh();
+      } catch (IOException | RuntimeException e) {
+        LOG.warn("Could not refresh GCS access token for {}, retrying in {} seconds", path,
+                 TimeUnit.MILLISECONDS.toSeconds(RETRY_DELAY_MILLIS), e);
+        schedule(RETRY_DELAY_MILLIS);
+        return;
+      }
+
+      long elapsed = System.nanoTime() - start;
+      tokenFetches.incrementAndGet();
+      tokenFetchNanos.addAndGet(elapsed);
+      lastTokenFetchNanos.set(elapsed);
+      LOG.debug("Fetched GCS access token for {} in {} ms", path, TimeUnit.NANOSECONDS.toMillis(elapsed));
+
+      AccessToken token = credentials.getAccessToken();
+      Date expiration = token == null ? null : token.getExpirationTime();
+      if (expiration != null) {
+        schedule(Math.max(RETRY_DELAY_MILLIS,
+                          expiration.getTime() - REFRESH_MARGIN_MILLIS - System.currentTimeMillis()));
+      }
+    }
+
+    private void schedule(long delayMillis) {
+      synchronized (CredentialCache.this) {
+        if (CredentialCache.this.credentials.get(path) == this) {
+          refresh = getRefresher().schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+        }
+      }
+    }
+
+    private void cancel() {
+      if (refresh != null) {
+        refresh.cancel(false);
+      }
+    }
+  }
+}
@@ -0,0 +1,216 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * A directory of downloaded objects, each kept with the generation and metageneration it was downloaded at, that
+ * outlives the JVM so that a later build can revalidate what it has instead of downloading it again.
+ * <p/>
+ * Every entry is a single file, a header followed by the content, written to a temporary file and renamed into place,
+ * so processes that share the directory only ever see complete entries. Once the entries take up more than the
+ * maximum number of bytes, the least recently used are deleted by whichever process gets the directory's lock. The
+ * directory is only listed for that when an {@link EvictionBudget} says it may be full.
+ * <p/>
+ * The cache only ever saves requests, so failing to read or write it is logged and otherwise ignored.
+ */
+final class DiskCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DiskCache.class);
+
+  private static final String SUFFIX = ".entry";
+
+  private static final String LOCK = ".lock";
+
+  // the generation and metageneration in front of the content
+  private static final int HEADER_SIZE = 16;
+
+  private final Path directory;
+  private final long maxBytes;
+  private final EvictionBudget budget;
+
+  DiskCache(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.budget = new EvictionBudget(directory, "*" + SUFFIX, maxBytes);
+  }
+
+  Path getDirectory() {
+    return directory;
+  }
+
+  long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Returns the generation of the cached copy of an object, or {@code null} if there is none
+   */
+  Long getGeneration(String bucket, String key) {
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(getFile(bucket, key)))) {
+      return in.readLong();
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      LOG.debug("Cannot read cached '{}'", key, e);
+      return null;
+    }
+  }
+
+  /**
+   * Copies the cached copy of an object to {@code destination}, provided it is still of {@code generation}
+   *
+   * @return whether it was copied
+   */
+  boolean copy(String bucket, String key, long generation, Path destination) {
+    Path file = getFile(bucket, key);
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+      if (in.readLong() != generation) {
+        return false;
+      }
+      in.readLong();
+      Files.copy(in, destination, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      LOG.debug("Cannot copy cached '{}' to '{}'", key, destination, e);
+      return false;
+    }
+
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // evicted by another process since
+    }
+    return true;
+  }
+
+  /**
+   * Caches {@code source} as the copy of an object of {@code generation}, replacing any earlier one
+   */
+  void put(String bucket, String key, long generation, long metageneration, Path source) {
+    Path temporary = null;
+    long size;
+    try {
+      Files.createDirectories(directory);
+      temporary = Files.createTempFile(directory, "gcs", ".tmp");
+      try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporary));
+           InputStream in = Files.newInputStream(source)) {
+        out.writeLong(generation);
+        out.writeLong(metageneration);
+        IoUtils.copy(in, out);
+      }
+      size = HEADER_SIZE + Files.size(source);
+      move(temporary, getFile(bucket, key));
+      temporary = null;
+    } catch (IOException e) {
+      LOG.debug("Cannot cache '{}'", key, e);
+      return;
+    } finally {
+      if (temporary != null) {
+        temporary.toFile().delete();
+      }
+    }
+    budget.added(size);
+  }
+
+  /**
+   * Deletes the least recently used of the files in {@code directory} that match {@code glob} until the rest fit in
+   * {@code maxBytes}, unless another process holds the directory's lock
+   *
+   * @return the number of bytes the files left take up, or {@code -1} if another process holds the lock or the
+   * directory cannot be listed
+   */
+  static long evict(Path directory, String glob, long maxBytes) {
+    try (FileChannel channel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE);
+         FileLock lock = channel.tryLock()) {
+      if (lock == null) {
+        return -1;
+      }
+
+      List<CachedFile> files = new ArrayList<>();
+      long total = 0;
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, glob)) {
+        for (Path entry : entries) {
+          BasicFileAttributes attributes;
+          try {
+            attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+          } catch (NoSuchFileException e) {
+            continue;
+          }
+          files.add(new CachedFile(entry, attributes.size(), attributes.lastModifiedTime().toMillis()));
+          total += attributes.size();
+        }
+      }
+
+      Collections.sort(files, new Comparator<CachedFile>() {
+
+        @Override
+        public int compare(CachedFile a, CachedFile b) {
+          return Long.compare(a.used, b.used);
+        }
+      });
+      for (int i = 0; i < files.size() && total > maxBytes; i++) {
+        Files.deleteIfExists(files.get(i).path);
+        total -= files.get(i).size;
+      }
+      return total;
+    } catch (OverlappingFileLockException e) {
+      // another thread of this JVM is evicting
+      return -1;
+    } catch (IOException e) {
+      LOG.debug("Cannot evict from '{}'", directory, e);
+      return -1;
+    }
+  }
+
+  // Entries are named for a hash of their bucket and key, which may hold anything a file name cannot
+  private Path getFile(String bucket, String key) {
+    String name = Hashing.sha256().hashString(bucket + '\n' + key, StandardCharsets.UTF_8).toString();
+    return directory.resolve(name + SUFFIX);
+  }
+
+  private static void move(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static final class CachedFile {
+
+    private final Path path;
+    private final long size;
+    private final long used;
+
+    private CachedFile(Path path, long size, long used) {
+      this.path = path;
+      this.size = size;
+      this.used = used;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package org.springframework.build.gcs.maven;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a directory of files with a maximum size is worth listing to evict from, so that writing to it does not
+ * cost a listing of the whole directory every time.
+ * <p/>
+ * The directory is listed on the first write, and from then on keeps a running total of the bytes this process has
+ * added since. It is listed again once that total passes the maximum, or once {@link #RELIST_INTERVAL_MILLIS} have
+ * passed, so that what other processes sharing the directory have added is also accounted for.
+ */
+final class EvictionBudget {
+
+  static final long RELIST_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final Path directory;
+  private final String glob;
+  private final long maxBytes;
+
+  // bytes in the directory when it was last listed plus those added since, or -1 until it has been listed
+  private long total = -1;
+  private long listedAt;
+  private boolean listing;
+  private long addedWhileListing;
+
+  EvictionBudget(Path directory, String glob, long maxBytes) {
+    this.directory = directory;
+    this.glob = glob;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Account for {@code bytes} written to the directory, evicting from it if they may have taken it past its maximum
+   */
+  void added(long bytes) {
+    added(bytes, System.currentTimeMillis());
+  }
+
+  void added(long bytes, long now) {
+    synchronized (this) {
+      if (listing) {
+        addedWhileListing += bytes;
+        return;
+      }
+      if (total >= 0) {
+        total += bytes;
+        if (total <= maxBytes && now - listedAt < RELIST_INTERVAL_MILLIS) {
+          return;
+        }
+      }
+      listing = true;
+      addedWhileListing = 0;
+    }
+
+    long remaining = -1;
+    try {
+      remaining = DiskCache.evict(directory, glob, maxBytes);
+    } finally {
+      synchronized (this) {
+        listing = false;
+        // a directory another process is evicting from is listed again on the next write
+        total = remaining < 0 ? -1 : remaining + addedWhileListing;
+        listedAt = now;
+      }
+    }
+  }
+}
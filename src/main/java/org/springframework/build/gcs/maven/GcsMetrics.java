@@ -0,0 +1,81 @@
+package org.springframework.build.gcs.maven;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the requests a wagon makes to GCS so that the cost of a build can be checked against the number of resources
+ * it transferred
+ */
+public final class GcsMetrics {
+
+  public enum Counter {
+    METADATA_REQUESTS(true),
+    READ_REQUESTS(true),
+    WRITE_REQUESTS(true),
+    LIST_REQUESTS(true),
+    // hedges are also counted as the requests they are; these only record how hedging behaves
+    HEDGES_ISSUED(false),
+    HEDGES_WON(false),
+    // lookups and downloads answered by an identical one that another caller already had in flight
+    COALESCED(false),
+    // lookups answered from the metadata cache, the cache of objects that were not found, or a listing filter
+    CACHE_HITS(false),
+    MISSING_CACHE_HITS(false),
+    FILTER_HITS(false),
+    // lookups that had to ask GCS
+    CACHE_MISSES(false),
+    // downloads copied from the cache directory after GCS said the object had not changed
+    DISK_CACHE_HITS(false),
+    // downloads copied from the blob store
+    BLOB_STORE_HITS(false);
+
+    private final boolean request;
+
+    Counter(boolean request) {
+      this.request = request;
+    }
+  }
+
+  private final Map<Counter, AtomicLong> counters = new EnumMap<>(Counter.class);
+
+  GcsMetrics() {
+    for (Counter counter : Counter.values()) {
+      counters.put(counter, new AtomicLong());
+    }
+  }
+
+  public long get(Counter counter) {
+    return counters.get(counter).get();
+  }
+
+  public long getTotalRequests() {
+    long total = 0;
+    for (Map.Entry<Counter, AtomicLong> counter : counters.entrySet()) {
+      if (counter.getKey().request) {
+        total += counter.getValue().get();
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Returns the share of existence, update time and download checks that were answered without a request, or zero if
+   * there were none
+   */
+  public double getLookupHitRatio() {
+    long hits = get(Counter.CACHE_HITS) + get(Counter.MISSING_CACHE_HITS) + get(Counter.FILTER_HITS);
+    long lookups = hits + get(Counter.CACHE_MISSES);
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  void increment(Counter counter) {
+    counters.get(counter).incrementAndGet();
+  }
+
+  @Override
+  public String toString() {
+    return counters.toString();
+  }
+}
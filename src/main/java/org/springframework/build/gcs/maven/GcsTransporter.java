@@ -0,0 +1,180 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.apache.maven.wagon.ConnectionException;
+import org.apache.maven.wagon.ResourceDoesNotExistException;
+import org.apache.maven.wagon.authentication.AuthenticationException;
+import org.apache.maven.wagon.authentication.AuthenticationInfo;
+import org.apache.maven.wagon.repository.Repository;
+import org.eclipse.aether.spi.connector.transport.AbstractTransporter;
+import org.eclipse.aether.spi.connector.transport.GetTask;
+import org.eclipse.aether.spi.connector.transport.PeekTask;
+import org.eclipse.aether.spi.connector.transport.PutTask;
+import org.eclipse.aether.spi.connector.transport.TransportListener;
+import org.eclipse.aether.spi.connector.transport.TransportTask;
+import org.eclipse.aether.transfer.TransferCancelledException;
+
+import com.google.common.base.Throwables;
+
+/**
+ * A Maven Resolver transporter for one {@code gcs://} repository, which runs the peek, get and put tasks of any number
+ * of threads on a single connected wagon, so that every task shares its GCS client, caches and coalesced requests
+ * instead of connecting a wagon per lookup.
+ * <p/>
+ * A peek is the wagon's existence check, a metadata get limited to the fields it caches. Tasks whose data is held in
+ * memory rather than in a file, such as checksums, go through a temporary file.
+ */
+final class GcsTransporter extends AbstractTransporter {
+
+  // what a task held in memory reports through instead, since utilGet and utilPut report its bytes
+  private static final TransportListener NO_LISTENER = new TransportListener() {
+  };
+
+  private final SimpleStorageServiceWagon wagon;
+
+  GcsTransporter(SimpleStorageServiceWagon wagon) {
+    this.wagon = wagon;
+  }
+
+  /**
+   * Returns a transporter for {@code repository}, connected with the credentials in {@code authenticationInfo}
+   */
+  static GcsTransporter connect(Repository repository, AuthenticationInfo authenticationInfo)
+      throws ConnectionException, AuthenticationException {
+    SimpleStorageServiceWagon wagon = new RetryingSimpleStorageWagon();
+    wagon.connect(repository, authenticationInfo);
+    return new GcsTransporter(wagon);
+  }
+
+  @Override
+  public int classify(Throwable error) {
+    return error instanceof ResourceDoesNotExistException ? ERROR_NOT_FOUND : ERROR_OTHER;
+  }
+
+  @Override
+  protected void implPeek(PeekTask task) throws Exception {
+    String resourceName = getResourceName(task);
+    if (!wagon.doesRemoteResourceExist(resourceName)) {
+      throw new ResourceDoesNotExistException("Could not find resource: " + resourceName);
+    }
+  }
+
+  @Override
+  protected void implGet(GetTask task) throws Exception {
+    String resourceName = getResourceName(task);
+    File destination = task.getDataFile();
+    if (destination != null) {
+      task.getListener().transportStarted(0, -1);
+      try {
+        wagon.getResource(resourceName, destination, toProgress(task.getListener()));
+      } catch (Exception e) {
+        throw unwrap(e);
+      }
+      return;
+    }
+
+    File temporary = Files.createTempFile("gcs-transporter", ".download").toFile();
+    try {
+      wagon.getResource(resourceName, temporary, toProgress(NO_LISTENER));
+      utilGet(task, new FileInputStream(temporary), true, temporary.length(), false);
+    } finally {
+      temporary.delete();
+    }
+  }
+
+  @Override
+  protected void implPut(PutTask task) throws Exception {
+    String resourceName = getResourceName(task);
+    File source = task.getDataFile();
+    if (source != null) {
+      task.getListener().transportStarted(0, task.getDataLength());
+      try {
+        wagon.putResource(source, resourceName, toProgress(task.getListener()));
+      } catch (Exception e) {
+        throw unwrap(e);
+      }
+      return;
+    }
+
+    File temporary = Files.createTempFile("gcs-transporter", ".upload").toFile();
+    try {
+      utilPut(task, new FileOutputStream(temporary), true);
+      wagon.putResource(temporary, resourceName, toProgress(NO_LISTENER));
+    } finally {
+      temporary.delete();
+    }
+  }
+
+  @Override
+  protected void implClose() {
+    try {
+      wagon.disconnect();
+    } catch (ConnectionException e) {
+      // nothing is left to release
+    }
+  }
+
+  GcsMetrics getMetrics() {
+    return wagon.getMetrics();
+  }
+
+  // task locations are relative to the repository, as wagon resource names are
+  private static String getResourceName(TransportTask task) {
+    return task.getLocation().getPath();
+  }
+
+  /**
+   * Returns the cancellation behind {@code failure}, if the listener cancelled the transfer, or else the failure
+   */
+  private static Exception unwrap(Exception failure) {
+    for (Throwable cause : Throwables.getCausalChain(failure)) {
+      if (cause instanceof CancelledTransfer) {
+        return ((CancelledTransfer) cause).getCause();
+      }
+    }
+    return failure;
+  }
+
+  // reports each byte the wagon transfers to the listener once, however many attempts the wagon makes
+  private static TransferProgress toProgress(final TransportListener listener) {
+    return new RetryableTransferProgress(new TransferProgress() {
+
+      @Override
+      public void notify(byte[] buffer, int length) {
+        try {
+          listener.transportProgressed(ByteBuffer.wrap(buffer, 0, length));
+        } catch (TransferCancelledException e) {
+          throw new CancelledTransfer(e);
+        }
+      }
+
+      @Override
+      public void startTransferAttempt() {
+      }
+
+      @Override
+      public void resumeTransferAttempt(long position) {
+      }
+    });
+  }
+
+  // carries a cancellation through the wagon, whose progress callbacks cannot throw it
+  private static final class CancelledTransfer extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    CancelledTransfer(TransferCancelledException cause) {
+      super(cause);
+    }
+
+    @Override
+    public TransferCancelledException getCause() {
+      return (TransferCancelledException) super.getCause();
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package org.springframework.build.gcs.maven;
+
+import javax.inject.Named;
+
+import org.apache.maven.wagon.ConnectionException;
+import org.apache.maven.wagon.authentication.AuthenticationException;
+import org.apache.maven.wagon.authentication.AuthenticationInfo;
+import org.apache.maven.wagon.repository.Repository;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.AuthenticationContext;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.transport.Transporter;
+import org.eclipse.aether.spi.connector.transport.TransporterFactory;
+import org.eclipse.aether.transfer.NoTransporterException;
+
+/**
+ * Gives Maven Resolver a {@link GcsTransporter} for {@code gcs://} repositories, so that it runs its transfers on one
+ * shared wagon per repository rather than looking up a wagon for each one.
+ * <p/>
+ * The credentials are the {@code password} of the repository's {@code server}, the same path the wagon reads them
+ * from, and settings are taken from the parameters of the repository URL.
+ */
+@Named("gcs")
+public final class GcsTransporterFactory implements TransporterFactory {
+
+  // ahead of the wagon transporter, which would otherwise look up the gcs wagon for every transfer
+  private static final float PRIORITY = 5.0f;
+
+  @Override
+  public Transporter newInstance(RepositorySystemSession session, RemoteRepository repository)
+      throws NoTransporterException {
+    if (!"gcs".equals(repository.getProtocol())) {
+      throw new NoTransporterException(repository);
+    }
+
+    AuthenticationInfo authenticationInfo = new AuthenticationInfo();
+    AuthenticationContext authentication = AuthenticationContext.forRepository(session, repository);
+    try {
+      if (authentication != null) {
+        authenticationInfo.setUserName(authentication.get(AuthenticationContext.USERNAME));
+        authenticationInfo.setPassword(authentication.get(AuthenticationContext.PASSWORD));
+      }
+    } finally {
+      AuthenticationContext.close(authentication);
+    }
+    if (authenticationInfo.getPassword() == null) {
+      throw new NoTransporterException(repository, "No GCS credentials path is configured as the server's password");
+    }
+
+    try {
+      return GcsTransporter.connect(new Repository(repository.getId(), repository.getUrl()), authenticationInfo);
+    } catch (ConnectionException | AuthenticationException e) {
+      throw new NoTransporterException(repository, e);
+    }
+  }
+
+  @Override
+  public float getPriority() {
+    return PRIORITY;
+  }
+}
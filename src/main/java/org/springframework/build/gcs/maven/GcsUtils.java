@@ -16,11 +16,12 @@
 
 package org.springframework.build.gcs.maven;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.apache.maven.wagon.ResourceDoesNotExistException;
 import org.apache.maven.wagon.repository.Repository;
 
-import com.google.cloud.storage.Blob;
-
 final class GcsUtils {
 
     private GcsUtils() {
@@ -31,7 +32,12 @@ final class GcsUtils {
     }
 
     static String getBaseDirectory(Repository repository) {
-        StringBuilder sb = new StringBuilder(repository.getBasedir()).deleteCharAt(0);
+        String basedir = repository.getBasedir();
+        int query = basedir.indexOf('?');
+        if (query >= 0) {
+            basedir = basedir.substring(0, query);
+        }
+        StringBuilder sb = new StringBuilder(basedir).deleteCharAt(0);
 
         if ((sb.length() != 0) && (sb.charAt(sb.length() - 1) != '/')) {
             sb.append('/');
@@ -40,7 +46,33 @@ final class GcsUtils {
         return sb.toString();
     }
 
-    static void ensureBlobExists(Blob blob, String key) throws ResourceDoesNotExistException {
+    /**
+     * Returns the parameters in the query of the repository URL, such as {@code gs://bucket/path?name=value}, in the
+     * order they appear
+     */
+    static Map<String, String> getParameters(Repository repository) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        String url = repository.getUrl();
+        int query = url.indexOf('?');
+        if (query < 0) {
+            return parameters;
+        }
+
+        for (String parameter : url.substring(query + 1).split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+            int equals = parameter.indexOf('=');
+            if (equals < 0) {
+                parameters.put(parameter, "");
+            } else {
+                parameters.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+            }
+        }
+        return parameters;
+    }
+
+    static void ensureBlobExists(Object blob, String key) throws ResourceDoesNotExistException {
       if (blob == null) {
         throw new ResourceDoesNotExistException("Could not find key: " + key);
       }
@@ -0,0 +1,149 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.cloud.storage.StorageException;
+
+/**
+ * Runs small, idempotent requests with a hedge: when a request has not answered within a percentile of the latency of
+ * recent requests, an identical second request is started and whichever answers first is used.
+ * <p/>
+ * Until enough requests have been timed to know what slow is, requests run on the calling thread without a hedge. A
+ * failure of the first request to finish only counts if the other one fails as well.
+ */
+final class HedgedRequests {
+
+  // The latencies of this many of the most recent requests decide when to hedge
+  static final int WINDOW = 128;
+
+  static final int MIN_SAMPLES = 16;
+
+  private final ExecutorService executor;
+  private final GcsMetrics metrics;
+  private final double percentile;
+
+  private final long[] latencies = new long[WINDOW];
+  private int samples;
+  private int next;
+
+  /**
+   * @param percentile the percentile, between 0 and 100, of recent latency after which a hedge is started
+   */
+  HedgedRequests(ExecutorService executor, GcsMetrics metrics, double percentile) {
+    this.executor = executor;
+    this.metrics = metrics;
+    this.percentile = Math.max(0, Math.min(100, percentile));
+  }
+
+  <T> T call(Callable<T> request) {
+    long delay = getHedgeDelayNanos();
+    if (delay < 0) {
+      try {
+        return new TimedRequest<>(request).call();
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IllegalStateException("GCS request failed", e);
+      }
+    }
+
+    CompletionService<T> attempts = new ExecutorCompletionService<>(executor);
+    Future<T> primary = attempts.submit(new TimedRequest<>(request));
+    Future<T> hedge = null;
+    try {
+      Future<T> first = attempts.poll(delay, TimeUnit.NANOSECONDS);
+      if (first == null) {
+        metrics.increment(GcsMetrics.Counter.HEDGES_ISSUED);
+        hedge = attempts.submit(new TimedRequest<>(request));
+        first = attempts.take();
+      }
+
+      try {
+        return result(first, hedge);
+      } catch (ExecutionException e) {
+        if (hedge == null) {
+          throw e;
+        }
+        try {
+          return result(attempts.take(), hedge);
+        } catch (ExecutionException ignored) {
+          throw e;
+        }
+      }
+    } catch (ExecutionException e) {
+      throw unwrap(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException(new InterruptedIOException("Interrupted while waiting for GCS"));
+    } finally {
+      primary.cancel(true);
+      if (hedge != null) {
+        hedge.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Returns how long to wait for a request before hedging it, in nanoseconds, or -1 if too few requests have been timed
+   */
+  synchronized long getHedgeDelayNanos() {
+    if (samples < MIN_SAMPLES) {
+      return -1;
+    }
+    long[] sorted = Arrays.copyOf(latencies, samples);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  synchronized void recordLatency(long nanos) {
+    latencies[next] = nanos;
+    next = (next + 1) % WINDOW;
+    samples = Math.min(WINDOW, samples + 1);
+  }
+
+  private <T> T result(Future<T> attempt, Future<T> hedge) throws ExecutionException, InterruptedException {
+    T result = attempt.get();
+    if (attempt == hedge) {
+      metrics.increment(GcsMetrics.Counter.HEDGES_WON);
+    }
+    return result;
+  }
+
+  private static RuntimeException unwrap(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof RuntimeException) {
+      return (RuntimeException) cause;
+    } else if (cause instanceof Error) {
+      throw (Error) cause;
+    } else {
+      return new IllegalStateException("GCS request failed", cause);
+    }
+  }
+
+  // Only successful requests are timed, since a fast failure says nothing about how long an answer takes
+  private final class TimedRequest<T> implements Callable<T> {
+
+    private final Callable<T> request;
+
+    private TimedRequest(Callable<T> request) {
+      this.request = request;
+    }
+
+    @Override
+    public T call() throws Exception {
+      long start = System.nanoTime();
+      T result = request.call();
+      recordLatency(System.nanoTime() - start);
+      return result;
+    }
+  }
+}
@@ -19,6 +19,9 @@ package org.springframework.build.gcs.maven;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 
 final class IoUtils {
 
@@ -41,4 +44,108 @@ final class IoUtils {
         }
     }
 
+    /**
+     * Read from a channel until the buffer is full or the channel is exhausted
+     *
+     * @return {@code true} if the buffer was filled and the channel may have more to read, {@code false} if the end of
+     * the channel was reached
+     */
+    static boolean fill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read one buffer's worth of a channel and append it to a file, notifying the progress of what was read
+     *
+     * @return {@code true} if the buffer was filled and the channel may have more to read, {@code false} if the end of
+     * the channel was reached
+     */
+    static boolean transferBuffer(ReadableByteChannel in, ByteBuffer buffer, FileChannel out,
+                                  TransferProgress transferProgress) throws IOException {
+        buffer.clear();
+        boolean more = fill(in, buffer);
+        writeAndNotify(buffer, out, out.size(), transferProgress);
+        return more;
+    }
+
+    /**
+     * Write everything left in a channel to a file from {@code position} onwards, a pooled buffer at a time, notifying
+     * the progress once per buffer
+     *
+     * @return the position after the last byte written
+     */
+    static long transfer(ReadableByteChannel in, FileChannel out, long position, TransferProgress transferProgress)
+            throws IOException {
+        ByteBuffer buffer = BufferPool.acquire();
+        try {
+            long offset = position;
+            boolean more = true;
+            while (more) {
+                buffer.clear();
+                try {
+                    more = fill(in, buffer);
+                } catch (IOException | RuntimeException e) {
+                    // keep what was read before the failure, so that a resumed transfer does not read it again
+                    try {
+                        writeAndNotify(buffer, out, offset, transferProgress);
+                    } catch (IOException | RuntimeException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                    throw e;
+                }
+                offset = writeAndNotify(buffer, out, offset, transferProgress);
+            }
+            return offset;
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    private static long writeAndNotify(ByteBuffer buffer, FileChannel out, long position,
+                                       TransferProgress transferProgress) throws IOException {
+        buffer.flip();
+        int length = buffer.remaining();
+
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += out.write(buffer, offset);
+        }
+        if (length > 0) {
+            transferProgress.notify(buffer.array(), length);
+        }
+        return offset;
+    }
+
+    /**
+     * Report a region of a file that has already been transferred, reading it back so that listeners see the same bytes
+     * they would have seen had the region been streamed
+     */
+    static void notifyProgress(FileChannel channel, long position, long length, TransferProgress transferProgress)
+            throws IOException {
+        ByteBuffer buffer = BufferPool.acquire();
+        try {
+            long offset = position;
+            long end = position + length;
+            while (offset < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - offset));
+
+                int read = channel.read(buffer, offset);
+                if (read < 0) {
+                    throw new IOException(String.format("Unexpected end of file at byte %d", offset));
+                }
+
+                transferProgress.notify(buffer.array(), read);
+                offset += read;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
 }
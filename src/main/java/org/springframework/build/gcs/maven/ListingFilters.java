@@ -0,0 +1,174 @@
+package org.springframework.build.gcs.maven;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.common.hash.Hashing;
+
+/**
+ * A JVM-wide set of Bloom filters over the keys directly under a prefix, each built from one listing of the prefix, so
+ * that a lookup for a key the filter has never seen can be answered without a request. Maven looks for every artifact
+ * in every repository, and once a directory has been listed, every probe for a file it does not hold costs nothing.
+ * <p/>
+ * Like {@link MetadataCache}, filters are only used by lookups made with the client that listed them and for as long
+ * as the lookup's time to live allows, and the least recently used are evicted once there are too many. An upload
+ * through any wagon in the JVM adds its key to the filter for its prefix.
+ */
+final class ListingFilters {
+
+  // A directory with more keys than this is not worth filtering, and is not listed again until the filter expires
+  static final int MAX_KEYS = 10000;
+
+  private static final int MAX_FILTERS = 1000;
+
+  private static final double FALSE_POSITIVE_RATE = 0.01;
+
+  private static final ListingFilters INSTANCE = new ListingFilters(Ticker.systemTicker());
+
+  private final Ticker ticker;
+  private final LinkedHashMap<List<String>, Filter> filters = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long additions;
+
+  ListingFilters(Ticker ticker) {
+    this.ticker = ticker;
+  }
+
+  static ListingFilters getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the prefix whose filter covers {@code key}, which is everything up to its last {@code /}
+   */
+  static String getPrefix(String key) {
+    return key.substring(0, key.lastIndexOf('/') + 1);
+  }
+
+  /**
+   * Returns whether {@code key} may exist according to the filter for its prefix, or {@code null} if there is no filter
+   * listed with {@code client} no more than {@code ttlMillis} ago
+   */
+  synchronized Boolean mightContain(Object client, String bucket, String key, long ttlMillis) {
+    Filter filter = filters.get(Arrays.asList(bucket, getPrefix(key)));
+    if (filter == null || filter.client != client
+        || ticker.read() - filter.listedAt > TimeUnit.MILLISECONDS.toNanos(ttlMillis)) {
+      return null;
+    }
+    return filter.keys == null || filter.keys.mightContain(key);
+  }
+
+  /**
+   * Returns a mark to take before listing a prefix and pass to {@link #put}, so that a listing is not used if a key
+   * may have been uploaded while it was in flight
+   */
+  synchronized long mark() {
+    return additions;
+  }
+
+  /**
+   * Builds the filter for {@code prefix} from the keys that were listed under it, or {@code null} if there were more
+   * than {@link #MAX_KEYS}
+   */
+  synchronized void put(Object client, String bucket, String prefix, Collection<String> keys, long mark) {
+    if (mark != additions) {
+      return;
+    }
+    BloomFilter filter = null;
+    if (keys != null) {
+      filter = new BloomFilter(Math.max(keys.size(), 100), FALSE_POSITIVE_RATE);
+      for (String key : keys) {
+        filter.put(key);
+      }
+    }
+    filters.put(Arrays.asList(bucket, prefix), new Filter(client, filter, ticker.read()));
+
+    Iterator<Map.Entry<List<String>, Filter>> eldest = filters.entrySet().iterator();
+    while (filters.size() > MAX_FILTERS) {
+      eldest.next();
+      eldest.remove();
+    }
+  }
+
+  synchronized void add(String bucket, String key) {
+    additions++;
+    Filter filter = filters.get(Arrays.asList(bucket, getPrefix(key)));
+    if (filter != null && filter.keys != null) {
+      filter.keys.put(key);
+    }
+  }
+
+  synchronized void clear() {
+    additions++;
+    filters.clear();
+  }
+
+  private static final class Filter {
+
+    private final Object client;
+    private final BloomFilter keys;
+    private final long listedAt;
+
+    private Filter(Object client, BloomFilter keys, long listedAt) {
+      this.client = client;
+      this.keys = keys;
+      this.listedAt = listedAt;
+    }
+  }
+
+  /**
+   * A set of strings that can answer that one is definitely not in it, in a fraction of the space a set would take.
+   * Each string sets a few bits chosen by hashing it, and a string any of whose bits are clear was never added.
+   */
+  static final class BloomFilter {
+
+    private final BitSet bits;
+    private final int size;
+    private final int hashes;
+
+    BloomFilter(int expectedInsertions, double falsePositiveRate) {
+      double ln2 = Math.log(2);
+      size = (int) Math.max(64, Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (ln2 * ln2)));
+      hashes = (int) Math.max(1, Math.round((double) size / expectedInsertions * ln2));
+      bits = new BitSet(size);
+    }
+
+    void put(String value) {
+      long[] hash = hash(value);
+      for (int i = 0; i < hashes; i++) {
+        bits.set(index(hash, i));
+      }
+    }
+
+    boolean mightContain(String value) {
+      long[] hash = hash(value);
+      for (int i = 0; i < hashes; i++) {
+        if (!bits.get(index(hash, i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    // Two halves of one 128-bit hash, combined into as many indexes as are needed
+    private static long[] hash(String value) {
+      ByteBuffer hash = ByteBuffer.wrap(Hashing.murmur3_128().hashString(value, StandardCharsets.UTF_8).asBytes())
+          .order(ByteOrder.LITTLE_ENDIAN);
+      return new long[] {hash.getLong(), hash.getLong()};
+    }
+
+    private int index(long[] hash, int i) {
+      return (int) ((hash[0] + i * hash[1] & Long.MAX_VALUE) % size);
+    }
+  }
+}
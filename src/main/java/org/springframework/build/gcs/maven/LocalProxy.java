@@ -0,0 +1,486 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.wagon.ResourceDoesNotExistException;
+import org.apache.maven.wagon.TransferFailedException;
+import org.apache.maven.wagon.WagonException;
+import org.apache.maven.wagon.authentication.AuthenticationInfo;
+import org.apache.maven.wagon.authorization.AuthorizationException;
+import org.apache.maven.wagon.repository.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.cloud.storage.StorageException;
+import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP server on the loopback interface that makes the GCS requests of every Maven process on a host that
+ * points a wagon at it, so that they share one GCS client, with its connections and access token kept warm, one cache
+ * directory and one set of in-flight requests to coalesce into.
+ * <p/>
+ * It serves {@code HEAD} and {@code GET} of {@code /objects/<bucket>/<key>}, with the key URL encoded, and its own
+ * request count, hit ratio and latency at {@code /stats}. Requests for objects must be signed with the proxy's
+ * {@link LocalProxyToken}, and every answer to a signed request is signed in turn, so that neither side can be
+ * impersonated by another user of the host. The answer to a {@code GET} carries the size and CRC32C GCS reports for
+ * the object, for the client to check what it receives against. It only serves callers that name the credentials it
+ * was started with, and answers others with {@code 421} so that they go to GCS themselves.
+ * <p/>
+ * A wagon starts one in its own JVM when none is running, which serves other processes for as long as that JVM lives.
+ * Running {@link #main} keeps one up between builds.
+ */
+final class LocalProxy {
+
+  static final int DEFAULT_PORT = 18457;
+
+  static final String CREDENTIALS_HEADER = "X-Gcs-Credentials";
+
+  static final String NONCE_HEADER = "X-Gcs-Proxy-Nonce";
+
+  static final String SIGNATURE_HEADER = "X-Gcs-Proxy-Signature";
+
+  static final String UPDATE_TIME_HEADER = "X-Gcs-Update-Time";
+
+  static final String SIZE_HEADER = "X-Gcs-Size";
+
+  static final String CRC32C_HEADER = "X-Gcs-Crc32c";
+
+  static final int MISDIRECTED = 421;
+
+  static final String OBJECTS_PATH = "/objects/";
+
+  static final String STATS_PATH = "/stats";
+
+  private static final Logger LOG = LoggerFactory.getLogger(LocalProxy.class);
+
+  private static LocalProxy shared;
+
+  /**
+   * Connects the wagon the proxy makes its requests to a bucket through
+   */
+  interface WagonFactory {
+    SimpleStorageServiceWagon connect(String bucket) throws WagonException;
+  }
+
+  private final Path credentials;
+  private final Path temporaryDirectory;
+  private final WagonFactory wagonFactory;
+  private final HttpServer server;
+  private final LocalProxyToken token;
+  private final ExecutorService executor;
+  private final Map<String, SimpleStorageServiceWagon> wagons = new HashMap<>();
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  private LocalProxy(int port, Path credentials, Path tokenDirectory, WagonFactory wagonFactory) throws IOException {
+    this.credentials = credentials;
+    // the token directory is only this user's, so what is on its way to a client is too
+    this.temporaryDirectory = tokenDirectory;
+    this.wagonFactory = wagonFactory;
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    // only once the port is ours, so that a proxy that failed to start cannot replace the token of the one running
+    try {
+      this.token = LocalProxyToken.create(tokenDirectory, getPort());
+    } catch (IOException e) {
+      server.stop(0);
+      throw e;
+    }
+    this.executor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("gcs-proxy-%d")
+            .build()
+    );
+    server.setExecutor(executor);
+    server.createContext(OBJECTS_PATH, new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        serveObject(new Exchange(exchange, true));
+      }
+    });
+    server.createContext(STATS_PATH, new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          new Exchange(exchange, false).respond(200, getStats().getBytes(StandardCharsets.UTF_8));
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+  }
+
+  /**
+   * Starts a proxy on {@code port} of the loopback interface that makes requests with the credentials at
+   * {@code credentials}, keeps small objects in {@code cacheDirectory} and writes its token to {@code tokenDirectory}.
+   * Its wagons connect to {@code endpoint}, if it is not {@code null}, and take {@code parameters} as if they were
+   * given in the repository URL.
+   *
+   * @throws java.net.BindException if the port is taken, by a proxy another process started or otherwise
+   */
+  static LocalProxy start(int port, Path credentials, Path cacheDirectory, Path tokenDirectory, String endpoint,
+                          Map<String, String> parameters) throws IOException {
+    LocalProxyToken.createPrivateDirectory(cacheDirectory);
+    return start(port, credentials, tokenDirectory,
+                 new ConnectingWagonFactory(credentials, cacheDirectory, endpoint, parameters));
+  }
+
+  static LocalProxy start(int port, Path credentials, Path tokenDirectory, WagonFactory wagonFactory)
+      throws IOException {
+    final LocalProxy proxy = new LocalProxy(port, credentials, tokenDirectory, wagonFactory);
+    // the server's dispatcher thread takes after the thread that starts it, and must not keep a build's JVM alive
+    Thread starter = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        proxy.server.start();
+      }
+    }, "gcs-proxy-start");
+    starter.setDaemon(true);
+    starter.start();
+    try {
+      starter.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    LOG.info("GCS proxy listening on {}", proxy.server.getAddress());
+    return proxy;
+  }
+
+  /**
+   * Starts the proxy this JVM shares with the other processes on the host, unless it already has, with the settings of
+   * the wagon that needs it
+   */
+  static synchronized void startShared(int port, Path credentials, Path tokenDirectory, String endpoint,
+                                       Map<String, String> parameters) throws IOException {
+    if (shared == null) {
+      shared = start(port, credentials, getDefaultCacheDirectory(), tokenDirectory, endpoint, parameters);
+    }
+  }
+
+  // only this user may read what the proxy caches, as only this user may ask the proxy for it
+  static Path getDefaultCacheDirectory() {
+    return LocalProxyToken.getDefaultDirectory().resolve("proxy-cache");
+  }
+
+  int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+    synchronized (wagons) {
+      for (SimpleStorageServiceWagon wagon : wagons.values()) {
+        try {
+          wagon.disconnect();
+        } catch (WagonException e) {
+          LOG.debug("Cannot disconnect from '{}'", wagon.getBucketName(), e);
+        }
+      }
+      wagons.clear();
+    }
+  }
+
+  /**
+   * Returns the proxy's statistics, one {@code name=value} per line
+   */
+  String getStats() {
+    long hits = 0;
+    long lookups = 0;
+    long gcsRequests = 0;
+    synchronized (wagons) {
+      for (SimpleStorageServiceWagon wagon : wagons.values()) {
+        GcsMetrics metrics = wagon.getMetrics();
+        long wagonHits = metrics.get(GcsMetrics.Counter.CACHE_HITS)
+            + metrics.get(GcsMetrics.Counter.MISSING_CACHE_HITS)
+            + metrics.get(GcsMetrics.Counter.FILTER_HITS)
+            + metrics.get(GcsMetrics.Counter.COALESCED)
+            + metrics.get(GcsMetrics.Counter.DISK_CACHE_HITS);
+        hits += wagonHits;
+        lookups += wagonHits + metrics.get(GcsMetrics.Counter.CACHE_MISSES);
+        gcsRequests += metrics.getTotalRequests();
+      }
+    }
+    long served = requests.get();
+    return String.format(Locale.ROOT,
+                         "requests=%d%nfailures=%d%ngcsRequests=%d%nhitRatio=%.3f%nmeanLatencyMillis=%.3f%n"
+                         + "maxLatencyMillis=%.3f%n",
+                         served, failures.get(), gcsRequests, lookups == 0 ? 0 : (double) hits / lookups,
+                         served == 0 ? 0 : totalNanos.get() / 1e6 / served, maxNanos.get() / 1e6);
+  }
+
+  private void serveObject(Exchange exchange) throws IOException {
+    try {
+      if (!exchange.isSigned()) {
+        exchange.respond(401, new byte[0]);
+        return;
+      }
+      if (!credentials.toString().equals(exchange.getRequestHeader(CREDENTIALS_HEADER))) {
+        exchange.respond(MISDIRECTED, new byte[0]);
+        return;
+      }
+
+      String path = exchange.getRawPath().substring(OBJECTS_PATH.length());
+      int slash = path.indexOf('/');
+      if (slash < 0) {
+        exchange.respond(400, new byte[0]);
+        return;
+      }
+      SimpleStorageServiceWagon wagon = getWagon(decode(path.substring(0, slash)));
+      String key = decode(path.substring(slash + 1));
+
+      if ("HEAD".equals(exchange.getMethod())) {
+        head(exchange, wagon, key);
+      } else if ("GET".equals(exchange.getMethod())) {
+        get(exchange, wagon, key);
+      } else {
+        exchange.respond(405, new byte[0]);
+      }
+    } catch (ResourceDoesNotExistException e) {
+      exchange.respond(404, new byte[0]);
+    } catch (AuthorizationException e) {
+      exchange.respond(403, new byte[0]);
+    } catch (WagonException | StorageException e) {
+      LOG.debug("Cannot serve '{}'", exchange.getRawPath(), e);
+      failures.incrementAndGet();
+      exchange.respond(502, new byte[0]);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void head(Exchange exchange, SimpleStorageServiceWagon wagon, String key)
+      throws ResourceDoesNotExistException, TransferFailedException, AuthorizationException, IOException {
+    MetadataCache.Metadata metadata = getMetadata(wagon, key);
+    if (metadata.getUpdateTime() != null) {
+      exchange.setResponseHeader(UPDATE_TIME_HEADER, metadata.getUpdateTime().toString());
+    }
+    exchange.send(200, -1);
+  }
+
+  private void get(Exchange exchange, SimpleStorageServiceWagon wagon, String key)
+      throws WagonException, IOException {
+    MetadataCache.Metadata metadata = getMetadata(wagon, key);
+    if (metadata.getSize() == null || metadata.getCrc32c() == null) {
+      throw new TransferFailedException(String.format("GCS reports no size or CRC32C for '%s'", key));
+    }
+
+    Path file = Files.createTempFile(temporaryDirectory, "gcs-proxy", ".download");
+    try {
+      wagon.get(key, file.toFile());
+      // what GCS reports, not what was downloaded, so that the client finds out if either copy went wrong
+      exchange.setResponseHeader(SIZE_HEADER, metadata.getSize().toString());
+      exchange.setResponseHeader(CRC32C_HEADER, metadata.getCrc32c());
+      exchange.send(200, Files.size(file));
+      try (OutputStream out = exchange.getResponseBody()) {
+        Files.copy(file, out);
+      }
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private static MetadataCache.Metadata getMetadata(SimpleStorageServiceWagon wagon, String key)
+      throws ResourceDoesNotExistException, TransferFailedException, AuthorizationException {
+    MetadataCache.Metadata metadata;
+    try {
+      metadata = wagon.getMetadata(key);
+    } catch (StorageException e) {
+      throw GcsClientExceptions.propagateForAccess(e, key);
+    }
+    GcsUtils.ensureBlobExists(metadata, key);
+    return metadata;
+  }
+
+  private SimpleStorageServiceWagon getWagon(String bucket) throws WagonException {
+    synchronized (wagons) {
+      SimpleStorageServiceWagon wagon = wagons.get(bucket);
+      if (wagon == null) {
+        wagon = wagonFactory.connect(bucket);
+        wagons.put(bucket, wagon);
+      }
+      return wagon;
+    }
+  }
+
+  private void record(long nanos) {
+    requests.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    long max;
+    while ((max = maxNanos.get()) < nanos && !maxNanos.compareAndSet(max, nanos)) {
+      // another request raised it in the meantime
+    }
+  }
+
+  private static String decode(String value) throws UnsupportedEncodingException {
+    return URLDecoder.decode(value, "UTF-8");
+  }
+
+  /**
+   * A request being served, which checks the signature of the request, signs the answer and, for requests the proxy
+   * counts, records the time taken before the answer is sent so that a client that reads the stats after its answer
+   * arrives finds its request in them
+   */
+  private final class Exchange {
+
+    private final HttpExchange exchange;
+    private final boolean counted;
+    private final long start = System.nanoTime();
+    private final String nonce;
+    private final boolean signed;
+
+    private boolean recorded;
+
+    private Exchange(HttpExchange exchange, boolean counted) {
+      this.exchange = exchange;
+      this.counted = counted;
+      this.nonce = exchange.getRequestHeaders().getFirst(NONCE_HEADER);
+      this.signed = nonce != null
+          && token.verify(exchange.getRequestHeaders().getFirst(SIGNATURE_HEADER), "request", nonce,
+                          exchange.getRequestMethod(), exchange.getRequestURI().getRawPath());
+    }
+
+    boolean isSigned() {
+      return signed;
+    }
+
+    String getMethod() {
+      return exchange.getRequestMethod();
+    }
+
+    String getRawPath() {
+      return exchange.getRequestURI().getRawPath();
+    }
+
+    String getRequestHeader(String name) {
+      return exchange.getRequestHeaders().getFirst(name);
+    }
+
+    void setResponseHeader(String name, String value) {
+      exchange.getResponseHeaders().set(name, value);
+    }
+
+    OutputStream getResponseBody() {
+      return exchange.getResponseBody();
+    }
+
+    void respond(int status, byte[] body) throws IOException {
+      send(status, body.length == 0 ? -1 : body.length);
+      if (body.length > 0) {
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+    }
+
+    void send(int status, long length) throws IOException {
+      record();
+      if (signed) {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set(SIGNATURE_HEADER, token.sign("response", nonce, status, headers.getFirst(SIZE_HEADER),
+                                                 headers.getFirst(CRC32C_HEADER),
+                                                 headers.getFirst(UPDATE_TIME_HEADER)));
+      }
+      exchange.sendResponseHeaders(status, length);
+    }
+
+    void close() {
+      // a request that failed before it could be answered still counts
+      record();
+      exchange.close();
+    }
+
+    private void record() {
+      if (counted && !recorded) {
+        recorded = true;
+        LocalProxy.this.record(System.nanoTime() - start);
+      }
+    }
+  }
+
+  /**
+   * Connects a retrying wagon to a bucket with the credentials and settings the proxy was started with
+   */
+  private static final class ConnectingWagonFactory implements WagonFactory {
+
+    private final Path credentials;
+    private final Path cacheDirectory;
+    private final String endpoint;
+    private final String query;
+
+    private ConnectingWagonFactory(Path credentials, Path cacheDirectory, String endpoint,
+                                   Map<String, String> parameters) {
+      this.credentials = credentials;
+      this.cacheDirectory = cacheDirectory;
+      this.endpoint = endpoint;
+      this.query = Joiner.on('&').withKeyValueSeparator("=").join(parameters);
+    }
+
+    @Override
+    public SimpleStorageServiceWagon connect(String bucket) throws WagonException {
+      SimpleStorageServiceWagon wagon = new RetryingSimpleStorageWagon();
+      wagon.setCacheDirectory(cacheDirectory.toString());
+      if (endpoint != null) {
+        wagon.setEndpoint(endpoint);
+      }
+      AuthenticationInfo authenticationInfo = new AuthenticationInfo();
+      authenticationInfo.setPassword(credentials.toString());
+      String url = "gs://" + bucket + "/" + (query.isEmpty() ? "" : "?" + query);
+      wagon.connect(new Repository("gcs-proxy", url), authenticationInfo);
+      return wagon;
+    }
+  }
+
+  /**
+   * Runs a proxy until the process is stopped: {@code LocalProxy <credentials> [port] [cache directory]}
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: LocalProxy <credentials> [port] [cache directory]");
+      System.exit(1);
+    }
+    int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+    Path cacheDirectory = args.length > 2 ? Paths.get(args[2]) : getDefaultCacheDirectory();
+    final LocalProxy proxy = start(port, Paths.get(args[0]).toAbsolutePath().normalize(), cacheDirectory,
+                                   LocalProxyToken.getDefaultDirectory(), null, Collections.<String, String>emptyMap());
+
+    final CountDownLatch stopped = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        proxy.stop();
+        stopped.countDown();
+      }
+    }, "gcs-proxy-stop"));
+    stopped.await();
+  }
+}
@@ -0,0 +1,212 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.apache.maven.wagon.ResourceDoesNotExistException;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.MoreFiles;
+import com.google.common.primitives.Ints;
+
+/**
+ * Makes a wagon's reads through a {@link LocalProxy}. Requests are signed with the proxy's {@link LocalProxyToken} and
+ * only answers the proxy signed are believed, and a download is only kept once its size and CRC32C match what GCS
+ * reports. Anything that keeps the proxy from answering, including a proxy started with other credentials or something
+ * other than the proxy on its port, is an {@link IOException}, after which the wagon goes to GCS itself.
+ */
+final class LocalProxyClient {
+
+  private static final int CONNECT_TIMEOUT = 1000;
+
+  private final String base;
+  private final int port;
+  private final String credentials;
+  private final LocalProxyToken token;
+  private final int readTimeout;
+
+  LocalProxyClient(int port, Path credentials, LocalProxyToken token, int readTimeout) {
+    this.base = "http://127.0.0.1:" + port;
+    this.port = port;
+    this.credentials = credentials.toString();
+    this.token = token;
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   * Returns a client of the proxy on {@code port}, starting one in this JVM if none is running, whose wagons connect to
+   * {@code endpoint} and take {@code parameters} as if they were given in the repository URL
+   */
+  static LocalProxyClient attach(int port, Path credentials, Path tokenDirectory, int readTimeout, String endpoint,
+                                 Map<String, String> parameters) throws IOException {
+    LocalProxyClient client = connect(port, credentials, tokenDirectory, readTimeout);
+    if (client == null) {
+      try {
+        LocalProxy.startShared(port, credentials, tokenDirectory, endpoint, parameters);
+      } catch (BindException e) {
+        // another process started one in the meantime
+      }
+      client = connect(port, credentials, tokenDirectory, readTimeout);
+      if (client == null) {
+        throw new IOException(String.format("No GCS proxy this user started is answering on port %d", port));
+      }
+    }
+    return client;
+  }
+
+  // A client of the proxy on the port, if it is one that wrote its token where this user can read it
+  private static LocalProxyClient connect(int port, Path credentials, Path tokenDirectory, int readTimeout)
+      throws IOException {
+    LocalProxyToken token;
+    try {
+      token = LocalProxyToken.read(tokenDirectory, port);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    LocalProxyClient client = new LocalProxyClient(port, credentials, token, readTimeout);
+    return client.isRunning() ? client : null;
+  }
+
+  boolean isRunning() {
+    try {
+      Call call = open(LocalProxy.STATS_PATH, "GET");
+      try {
+        call.check(LocalProxy.STATS_PATH);
+        return true;
+      } finally {
+        call.connection.disconnect();
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  boolean exists(String bucket, String key) throws IOException {
+    Call call = openObject(bucket, key, "HEAD");
+    try {
+      return call.check(key) == 200;
+    } finally {
+      call.connection.disconnect();
+    }
+  }
+
+  /**
+   * Returns the time the object was last updated, or {@code null} if GCS does not know
+   */
+  Long getUpdateTime(String bucket, String key) throws IOException, ResourceDoesNotExistException {
+    Call call = openObject(bucket, key, "HEAD");
+    try {
+      if (call.check(key) == 404) {
+        throw new ResourceDoesNotExistException("Could not find key: " + key);
+      }
+      String updateTime = call.connection.getHeaderField(LocalProxy.UPDATE_TIME_HEADER);
+      return updateTime == null ? null : Long.valueOf(updateTime);
+    } finally {
+      call.connection.disconnect();
+    }
+  }
+
+  void download(String bucket, String key, File destination, TransferProgress transferProgress)
+      throws IOException, ResourceDoesNotExistException {
+    Call call = openObject(bucket, key, "GET");
+    try {
+      if (call.check(key) == 404) {
+        throw new ResourceDoesNotExistException("Could not find key: " + key);
+      }
+      String size = call.connection.getHeaderField(LocalProxy.SIZE_HEADER);
+      String crc32c = call.connection.getHeaderField(LocalProxy.CRC32C_HEADER);
+      if (size == null || crc32c == null) {
+        throw new IOException(String.format("GCS proxy sent no size or CRC32C for '%s'", key));
+      }
+
+      // kept apart and unreported until it is checked, so that the listeners of a download that goes to GCS after all
+      // only see the bytes GCS sends
+      Path temporary = Files.createTempFile("gcs-proxy", ".download");
+      try {
+        try (InputStream in = call.connection.getInputStream();
+             OutputStream out = Files.newOutputStream(temporary)) {
+          IoUtils.copy(in, out);
+        }
+
+        // GCS reports the CRC32C big-endian
+        if (Files.size(temporary) != Long.parseLong(size)
+            || MoreFiles.asByteSource(temporary).hash(Hashing.crc32c()).asInt()
+               != Ints.fromByteArray(BaseEncoding.base64().decode(crc32c))) {
+          throw new IOException(String.format("Download of '%s' through the GCS proxy does not match its checksum",
+                                              key));
+        }
+
+        transferProgress.startTransferAttempt();
+        try (InputStream in = Files.newInputStream(temporary);
+             OutputStream out = new TransferProgressFileOutputStream(destination, transferProgress)) {
+          IoUtils.copy(in, out);
+        }
+      } finally {
+        Files.deleteIfExists(temporary);
+      }
+    } catch (IllegalArgumentException e) {
+      throw new IOException(String.format("GCS proxy sent a malformed size or CRC32C for '%s'", key), e);
+    } finally {
+      call.connection.disconnect();
+    }
+  }
+
+  private Call openObject(String bucket, String key, String method) throws IOException {
+    return open(LocalProxy.OBJECTS_PATH + URLEncoder.encode(bucket, "UTF-8") + "/" + URLEncoder.encode(key, "UTF-8"),
+                method);
+  }
+
+  private Call open(String path, String method) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+    connection.setRequestMethod(method);
+    connection.setConnectTimeout(CONNECT_TIMEOUT);
+    connection.setReadTimeout(readTimeout);
+    connection.setUseCaches(false);
+    connection.setRequestProperty(LocalProxy.CREDENTIALS_HEADER, credentials);
+    String nonce = LocalProxyToken.newNonce();
+    connection.setRequestProperty(LocalProxy.NONCE_HEADER, nonce);
+    connection.setRequestProperty(LocalProxy.SIGNATURE_HEADER, token.sign("request", nonce, method, path));
+    return new Call(connection, nonce);
+  }
+
+  /**
+   * A request to the proxy, with the nonce its answer must be signed with
+   */
+  private final class Call {
+
+    private final HttpURLConnection connection;
+    private final String nonce;
+
+    private Call(HttpURLConnection connection, String nonce) {
+      this.connection = connection;
+      this.nonce = nonce;
+    }
+
+    // Returns 200 or 404 from the proxy, and turns anything else, or an answer it did not sign, into an IOException,
+    // so that the wagon finds out what it is itself
+    int check(String key) throws IOException {
+      int status = connection.getResponseCode();
+      if (!token.verify(connection.getHeaderField(LocalProxy.SIGNATURE_HEADER), "response", nonce, status,
+                        connection.getHeaderField(LocalProxy.SIZE_HEADER),
+                        connection.getHeaderField(LocalProxy.CRC32C_HEADER),
+                        connection.getHeaderField(LocalProxy.UPDATE_TIME_HEADER))) {
+        throw new IOException(String.format("No answer signed by this user's GCS proxy on port %d", port));
+      }
+      if (status != 200 && status != 404) {
+        throw new IOException(String.format("GCS proxy answered %d for '%s'", status, key));
+      }
+      return status;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Set;
+
+import com.google.common.base.Joiner;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * The secret that a {@link LocalProxy} and its clients prove to each other they know, so that the proxy only serves
+ * processes of the user who started it, and clients only trust that proxy rather than whatever else holds its port.
+ * <p/>
+ * Once the proxy is listening, it writes a random token to {@code proxy-<port>.token} in a directory only the user can
+ * read. Neither side ever sends the token itself. Each request carries a fresh nonce and a signature over the nonce,
+ * method and path. The response carries a signature over the nonce, its status and what it says about the object.
+ */
+final class LocalProxyToken {
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private static final int TOKEN_BYTES = 32;
+
+  private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+  private static final Set<PosixFilePermission> OWNER_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+
+  private static final Set<PosixFilePermission> OWNER_FILE = PosixFilePermissions.fromString("rw-------");
+
+  private final HashFunction hmac;
+
+  private LocalProxyToken(byte[] secret) {
+    this.hmac = Hashing.hmacSha256(secret);
+  }
+
+  static Path getDefaultDirectory() {
+    return Paths.get(System.getProperty("user.home"), ".gcs-maven");
+  }
+
+  /**
+   * Writes a new token for the proxy on {@code port}, replacing the one a proxy that listened there before left
+   */
+  static LocalProxyToken create(Path directory, int port) throws IOException {
+    byte[] secret = new byte[TOKEN_BYTES];
+    RANDOM.nextBytes(secret);
+
+    createPrivateDirectory(directory);
+    Path temporary;
+    if (isPosix()) {
+      temporary = Files.createTempFile(directory, "proxy", ".tmp", PosixFilePermissions.asFileAttribute(OWNER_FILE));
+    } else {
+      temporary = Files.createTempFile(directory, "proxy", ".tmp");
+    }
+    try {
+      Files.write(temporary, HEX.encode(secret).getBytes(StandardCharsets.US_ASCII));
+      try {
+        Files.move(temporary, getFile(directory, port), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, getFile(directory, port), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    return new LocalProxyToken(secret);
+  }
+
+  /**
+   * Creates {@code directory}, if it does not exist, so that only the user can list or read what is in it
+   */
+  static void createPrivateDirectory(Path directory) throws IOException {
+    if (isPosix()) {
+      Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(OWNER_DIRECTORY));
+    } else {
+      // the user's home directory is what keeps it private
+      Files.createDirectories(directory);
+    }
+  }
+
+  /**
+   * Reads the token of the proxy on {@code port}
+   *
+   * @throws java.nio.file.NoSuchFileException if no proxy has listened there
+   */
+  static LocalProxyToken read(Path directory, int port) throws IOException {
+    String token = new String(Files.readAllBytes(getFile(directory, port)), StandardCharsets.US_ASCII).trim();
+    try {
+      return new LocalProxyToken(HEX.decode(token));
+    } catch (IllegalArgumentException e) {
+      throw new IOException(String.format("Malformed GCS proxy token for port %d", port), e);
+    }
+  }
+
+  static String newNonce() {
+    byte[] nonce = new byte[16];
+    RANDOM.nextBytes(nonce);
+    return HEX.encode(nonce);
+  }
+
+  String sign(Object... parts) {
+    return hmac.hashString(Joiner.on('\n').useForNull("").join(parts), StandardCharsets.UTF_8).toString();
+  }
+
+  boolean verify(String signature, Object... parts) {
+    return signature != null
+        && MessageDigest.isEqual(sign(parts).getBytes(StandardCharsets.US_ASCII),
+                                 signature.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static boolean isPosix() {
+    return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+  }
+
+  private static Path getFile(Path directory, int port) {
+    return directory.resolve("proxy-" + port + ".token");
+  }
+}
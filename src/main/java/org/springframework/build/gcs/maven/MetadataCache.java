@@ -0,0 +1,192 @@
+package org.springframework.build.gcs.maven;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.cloud.storage.Blob;
+import com.google.common.base.Ticker;
+
+/**
+ * A JVM-wide cache of the metadata of objects, keyed by bucket and key, so that the existence and update time checks
+ * Maven makes over and over for the same resources cost one request each. Objects that were not found are cached too,
+ * since Maven looks for every artifact in every repository.
+ * <p/>
+ * Entries are only returned to lookups made with the client that fetched them, and for as long as the lookup's time to
+ * live allows. The least recently used entries are evicted once the cache is full. An upload through any wagon in the
+ * JVM invalidates the entry for its key.
+ */
+final class MetadataCache {
+
+  static final int DEFAULT_MAX_ENTRIES = 10000;
+
+  private static final MetadataCache INSTANCE = new MetadataCache(DEFAULT_MAX_ENTRIES, Ticker.systemTicker());
+
+  /**
+   * What is known about an object that exists
+   */
+  static final class Metadata {
+
+    private final Long generation;
+    private final Long size;
+    private final Long updateTime;
+    private final String md5;
+    private final String crc32c;
+
+    Metadata(Long generation, Long size, Long updateTime, String md5, String crc32c) {
+      this.generation = generation;
+      this.size = size;
+      this.updateTime = updateTime;
+      this.md5 = md5;
+      this.crc32c = crc32c;
+    }
+
+    static Metadata of(Blob blob) {
+      return new Metadata(blob.getGeneration(), blob.getSize(), blob.getUpdateTime(), blob.getMd5(),
+                          blob.getCrc32c());
+    }
+
+    Long getGeneration() {
+      return generation;
+    }
+
+    Long getSize() {
+      return size;
+    }
+
+    Long getUpdateTime() {
+      return updateTime;
+    }
+
+    String getMd5() {
+      return md5;
+    }
+
+    String getCrc32c() {
+      return crc32c;
+    }
+  }
+
+  private final Ticker ticker;
+  private final LinkedHashMap<List<String>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private int maxEntries;
+  private long invalidations;
+  private long hits;
+  private long missingHits;
+  private long misses;
+
+  MetadataCache(int maxEntries, Ticker ticker) {
+    this.maxEntries = Math.max(1, maxEntries);
+    this.ticker = ticker;
+  }
+
+  static MetadataCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Sets the most entries the cache holds, evicting the least recently used ones beyond it
+   */
+  synchronized void setMaxEntries(int maxEntries) {
+    this.maxEntries = Math.max(1, maxEntries);
+    evict();
+  }
+
+  /**
+   * Returns the metadata of an object fetched with {@code client} no more than {@code ttlMillis} ago, or {@code null}
+   */
+  synchronized Metadata get(Object client, String bucket, String key, long ttlMillis) {
+    Entry entry = getEntry(client, bucket, key, ttlMillis);
+    if (entry == null || entry.metadata == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry.metadata;
+  }
+
+  /**
+   * Returns whether an object was found not to exist, with {@code client}, no more than {@code ttlMillis} ago
+   */
+  synchronized boolean isMissing(Object client, String bucket, String key, long ttlMillis) {
+    Entry entry = getEntry(client, bucket, key, ttlMillis);
+    if (entry == null || entry.metadata != null) {
+      return false;
+    }
+    missingHits++;
+    return true;
+  }
+
+  /**
+   * Returns a mark to take before fetching metadata and pass to {@link #put}, so that what was fetched is not cached if
+   * the object may have been uploaded while it was in flight
+   */
+  synchronized long mark() {
+    return invalidations;
+  }
+
+  /**
+   * Caches the metadata of an object, or {@code null} for an object that does not exist
+   */
+  synchronized void put(Object client, String bucket, String key, Metadata metadata, long mark) {
+    if (mark != invalidations) {
+      return;
+    }
+    entries.put(Arrays.asList(bucket, key), new Entry(client, metadata, ticker.read()));
+    evict();
+  }
+
+  synchronized void invalidate(String bucket, String key) {
+    invalidations++;
+    entries.remove(Arrays.asList(bucket, key));
+  }
+
+  synchronized void clear() {
+    invalidations++;
+    entries.clear();
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("{entries=%d, hits=%d, missingHits=%d, misses=%d}", entries.size(), hits, missingHits,
+                         misses);
+  }
+
+  private Entry getEntry(Object client, String bucket, String key, long ttlMillis) {
+    Entry entry = entries.get(Arrays.asList(bucket, key));
+    if (entry == null || entry.client != client
+        || ticker.read() - entry.fetchedAt > TimeUnit.MILLISECONDS.toNanos(ttlMillis)) {
+      return null;
+    }
+    return entry;
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<List<String>, Entry>> eldest = entries.entrySet().iterator();
+    while (entries.size() > maxEntries) {
+      eldest.next();
+      eldest.remove();
+    }
+  }
+
+  private static final class Entry {
+
+    private final Object client;
+    private final Metadata metadata;
+    private final long fetchedAt;
+
+    private Entry(Object client, Metadata metadata, long fetchedAt) {
+      this.client = client;
+      this.metadata = metadata;
+      this.fetchedAt = fetchedAt;
+    }
+  }
+}
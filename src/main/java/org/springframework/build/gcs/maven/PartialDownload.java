@@ -0,0 +1,117 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.google.cloud.storage.Blob;
+
+/**
+ * The state of a download that is written to a temporary file next to its destination and only renamed into place
+ * once complete. The bytes reported to the {@link TransferProgress} returned by {@link #track} are known to be on disk,
+ * so a later attempt can continue from there instead of from the start of the object.
+ */
+final class PartialDownload {
+
+  private static final String SUFFIX = ".gcs-partial";
+
+  private final File destination;
+  private final File file;
+
+  private volatile Long generation;
+  private volatile long length;
+
+  PartialDownload(File destination) {
+    this.destination = destination;
+    this.file = new File(destination.getPath() + SUFFIX);
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  Long getGeneration() {
+    return generation;
+  }
+
+  void setGeneration(Long generation) {
+    this.generation = generation;
+  }
+
+  /**
+   * Returns the number of bytes of the object that have been written to the temporary file
+   */
+  long getLength() {
+    return length;
+  }
+
+  /**
+   * Prepare to continue from the bytes already on disk, provided they came from the generation of the object that is
+   * in GCS now. When the generation of the earlier attempt is not known, nothing says the bytes on disk belong to the
+   * object in GCS now, so the download starts over.
+   *
+   * @return the position to continue the download from
+   */
+  long resume(Blob blob) throws IOException {
+    boolean unchanged = generation != null && generation.equals(blob.getGeneration());
+
+    generation = blob.getGeneration();
+    if (!unchanged) {
+      length = 0;
+    }
+
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      channel.truncate(length);
+    }
+    return length;
+  }
+
+  /**
+   * Wrap a {@link TransferProgress} so that the bytes it is notified of are counted as written to the temporary file
+   */
+  TransferProgress track(final TransferProgress transferProgress) {
+    return new TransferProgress() {
+
+      @Override
+      public void notify(byte[] buffer, int length) {
+        PartialDownload.this.length += length;
+        transferProgress.notify(buffer, length);
+      }
+
+      @Override
+      public void startTransferAttempt() {
+        length = 0;
+        transferProgress.startTransferAttempt();
+      }
+
+      @Override
+      public void resumeTransferAttempt(long position) {
+        length = position;
+        transferProgress.resumeTransferAttempt(position);
+      }
+    };
+  }
+
+  /**
+   * Move the completed download into place
+   */
+  void complete() throws IOException {
+    try {
+      Files.move(file.toPath(), destination.toPath(),
+                 StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(file.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Delete whatever is left of the temporary file
+   */
+  void discard() {
+    file.delete();
+  }
+}
@@ -0,0 +1,218 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.util.StreamingContent;
+
+/**
+ * An {@link HttpTransport} that sends requests through an Apache HTTP client and its pool of connections, built with
+ * the client's current API rather than the one google-http-client's own Apache transport is written against.
+ * <p/>
+ * Retries, redirects and content decoding are left to google-http-client, as they are with its other transports.
+ */
+final class PooledHttpTransport extends HttpTransport {
+
+  private final CloseableHttpClient client;
+  private final PoolingHttpClientConnectionManager connections;
+
+  PooledHttpTransport(CloseableHttpClient client, PoolingHttpClientConnectionManager connections) {
+    this.client = client;
+    this.connections = connections;
+  }
+
+  PoolingHttpClientConnectionManager getConnectionManager() {
+    return connections;
+  }
+
+  @Override
+  public boolean supportsMethod(String method) {
+    return true;
+  }
+
+  @Override
+  protected LowLevelHttpRequest buildRequest(String method, String url) {
+    return new Request(new Method(method, url));
+  }
+
+  /**
+   * Closes every pooled connection
+   */
+  @Override
+  public void shutdown() throws IOException {
+    client.close();
+  }
+
+  private static final class Method extends HttpEntityEnclosingRequestBase {
+
+    private final String method;
+
+    private Method(String method, String url) {
+      this.method = method;
+      setURI(URI.create(url));
+    }
+
+    @Override
+    public String getMethod() {
+      return method;
+    }
+  }
+
+  private final class Request extends LowLevelHttpRequest {
+
+    private final Method method;
+
+    private Request(Method method) {
+      this.method = method;
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+      method.addHeader(name, value);
+    }
+
+    @Override
+    public void setTimeout(int connectTimeout, int readTimeout) {
+      method.setConfig(RequestConfig.custom()
+                           .setConnectTimeout(connectTimeout)
+                           .setSocketTimeout(readTimeout)
+                           .build());
+    }
+
+    @Override
+    public LowLevelHttpResponse execute() throws IOException {
+      StreamingContent content = getStreamingContent();
+      if (content != null) {
+        Entity entity = new Entity(content, getContentLength());
+        entity.setContentType(getContentType());
+        entity.setContentEncoding(getContentEncoding());
+        method.setEntity(entity);
+      }
+      return new Response(client.execute(method));
+    }
+  }
+
+  private static final class Entity extends AbstractHttpEntity {
+
+    private final StreamingContent content;
+    private final long length;
+
+    private Entity(StreamingContent content, long length) {
+      this.content = content;
+      this.length = length;
+      setChunked(length < 0);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return false;
+    }
+
+    @Override
+    public long getContentLength() {
+      return length;
+    }
+
+    @Override
+    public InputStream getContent() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      if (length != 0) {
+        content.writeTo(out);
+      }
+    }
+
+    @Override
+    public boolean isStreaming() {
+      return true;
+    }
+  }
+
+  private static final class Response extends LowLevelHttpResponse {
+
+    private final CloseableHttpResponse response;
+    private final Header[] headers;
+
+    private Response(CloseableHttpResponse response) {
+      this.response = response;
+      this.headers = response.getAllHeaders();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      HttpEntity entity = response.getEntity();
+      return entity == null ? null : entity.getContent();
+    }
+
+    @Override
+    public String getContentEncoding() {
+      HttpEntity entity = response.getEntity();
+      return entity == null || entity.getContentEncoding() == null ? null : entity.getContentEncoding().getValue();
+    }
+
+    @Override
+    public long getContentLength() {
+      HttpEntity entity = response.getEntity();
+      return entity == null ? -1 : entity.getContentLength();
+    }
+
+    @Override
+    public String getContentType() {
+      HttpEntity entity = response.getEntity();
+      return entity == null || entity.getContentType() == null ? null : entity.getContentType().getValue();
+    }
+
+    @Override
+    public String getStatusLine() {
+      return response.getStatusLine().toString();
+    }
+
+    @Override
+    public int getStatusCode() {
+      return response.getStatusLine().getStatusCode();
+    }
+
+    @Override
+    public String getReasonPhrase() {
+      return response.getStatusLine().getReasonPhrase();
+    }
+
+    @Override
+    public int getHeaderCount() {
+      return headers.length;
+    }
+
+    @Override
+    public String getHeaderName(int index) {
+      return headers[index].getName();
+    }
+
+    @Override
+    public String getHeaderValue(int index) {
+      return headers[index].getValue();
+    }
+
+    // Content that was read to the end has already given its connection back to the pool
+    @Override
+    public void disconnect() throws IOException {
+      response.close();
+    }
+  }
+}
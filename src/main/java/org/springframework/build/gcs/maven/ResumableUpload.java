@@ -0,0 +1,184 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+
+/**
+ * An upload that writes a file to a GCS resumable upload session one chunk at a time, and remembers the session after
+ * every chunk GCS has accepted. A later attempt with the same {@link ResumableUpload} continues the session from there
+ * instead of uploading the whole file again.
+ * <p/>
+ * The channel is only closed once the whole file has been written, since closing it finalizes the object with whatever
+ * it has been sent so far.
+ * <p/>
+ * A mapped upload maps the file into memory and writes slices of the mapping straight into the channel, rather than
+ * reading each chunk into a buffer first.
+ */
+final class ResumableUpload {
+
+  // GCS requires every chunk but the last to be a multiple of 256 KiB, which whole pooled buffers always are
+  static final int MIN_CHUNK_SIZE = BufferPool.BUFFER_SIZE;
+
+  static final int MAX_CHUNK_SIZE = 16 * BufferPool.BUFFER_SIZE;
+
+  // Chunks are sized so that a file takes about this many, which bounds both the number of round trips and how much a
+  // failed chunk costs
+  private static final long TARGET_CHUNKS = 64;
+
+  // Each mapping covers many chunks, so that a multi-gigabyte file is not mapped a couple of megabytes at a time
+  private static final long MAP_WINDOW_CHUNKS = 16;
+
+  private final File source;
+  private final int chunkSize;
+  private final int bufferSize;
+  private final boolean mapped;
+
+  private volatile RestorableState<WriteChannel> session;
+  private volatile long offset;
+
+  ResumableUpload(File source, boolean mapped) {
+    this(source, chunkSizeFor(source.length()), mapped);
+  }
+
+  /**
+   * @param chunkSize the size of each chunk sent to GCS. Chunks larger than a pooled buffer are rounded up to a whole
+   * number of buffers.
+   */
+  ResumableUpload(File source, int chunkSize, boolean mapped) {
+    this.source = source;
+    this.bufferSize = Math.min(chunkSize, BufferPool.BUFFER_SIZE);
+    this.chunkSize = (chunkSize + bufferSize - 1) / bufferSize * bufferSize;
+    this.mapped = mapped;
+  }
+
+  /**
+   * Returns the chunk size for a file of {@code size} bytes: large enough that a big file does not take thousands of
+   * round trips, small enough that a retry after a failed chunk is cheap
+   */
+  static int chunkSizeFor(long size) {
+    long chunkSize = (size / TARGET_CHUNKS + BufferPool.BUFFER_SIZE - 1) / BufferPool.BUFFER_SIZE
+        * BufferPool.BUFFER_SIZE;
+    return (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+  }
+
+  File getSource() {
+    return source;
+  }
+
+  /**
+   * Returns the number of bytes of the source file that GCS has accepted so far
+   */
+  long getOffset() {
+    return offset;
+  }
+
+  void upload(Storage storage, BlobInfo target, GcsMetrics metrics, TransferProgress transferProgress)
+      throws IOException {
+    WriteChannel writer;
+    metrics.increment(GcsMetrics.Counter.WRITE_REQUESTS);
+    if (session == null) {
+      writer = storage.writer(target);
+      writer.setChunkSize(chunkSize);
+      offset = 0;
+      transferProgress.startTransferAttempt();
+    } else {
+      writer = session.restore();
+      transferProgress.resumeTransferAttempt(offset);
+    }
+
+    ByteBuffer buffer = BufferPool.acquire();
+    try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+      if (mapped) {
+        writeMapped(channel, writer, buffer, transferProgress);
+      } else {
+        writeBuffered(channel, writer, buffer, transferProgress);
+      }
+
+      writer.close();
+      session = null;
+    } finally {
+      BufferPool.release(buffer);
+    }
+  }
+
+  // Reads the file a buffer at a time; the channel holds on to the buffers of a chunk until it has all of them
+  private void writeBuffered(FileChannel channel, WriteChannel writer, ByteBuffer buffer,
+                             TransferProgress transferProgress) throws IOException {
+    channel.position(offset);
+
+    int pending = 0;
+    boolean more = true;
+    while (more) {
+      buffer.clear();
+      buffer.limit(bufferSize);
+      more = IoUtils.fill(channel, buffer);
+      buffer.flip();
+
+      int length = buffer.remaining();
+      while (buffer.hasRemaining()) {
+        writer.write(buffer);
+      }
+      transferProgress.notify(buffer.array(), length);
+
+      pending += length;
+      if (more && pending == chunkSize) {
+        chunkAccepted(writer, pending);
+        pending = 0;
+      }
+    }
+  }
+
+  // The progress buffer only receives a copy of each slice for the listeners; the channel is given the mapping itself
+  private void writeMapped(FileChannel channel, WriteChannel writer, ByteBuffer progressBuffer,
+                           TransferProgress transferProgress) throws IOException {
+    long size = channel.size();
+    long windowSize = MAP_WINDOW_CHUNKS * chunkSize;
+
+    while (true) {
+      long windowStart = offset;
+      MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                                            Math.min(windowSize, size - windowStart));
+
+      while (window.hasRemaining()) {
+        ByteBuffer slice = window.slice();
+        int length = Math.min(chunkSize, slice.remaining());
+        slice.limit(length);
+        window.position(window.position() + length);
+
+        ByteBuffer copy = slice.duplicate();
+        while (slice.hasRemaining()) {
+          writer.write(slice);
+        }
+        while (copy.hasRemaining()) {
+          int count = Math.min(bufferSize, copy.remaining());
+          copy.get(progressBuffer.array(), 0, count);
+          transferProgress.notify(progressBuffer.array(), count);
+        }
+
+        if (length < chunkSize) {
+          return;
+        }
+        chunkAccepted(writer, length);
+      }
+
+      if (offset >= size) {
+        return;
+      }
+    }
+  }
+
+  // A whole chunk has been flushed to GCS, so nothing is left in the channel's buffer to capture
+  private void chunkAccepted(WriteChannel writer, int length) {
+    offset += length;
+    session = writer.capture();
+  }
+}
@@ -0,0 +1,46 @@
+package org.springframework.build.gcs.maven;
+
+/**
+ * Caps the retries of a session at a fraction of the requests it has made, plus a few that are always allowed, so that
+ * when GCS is struggling retries add a bounded amount of load instead of multiplying it.
+ */
+final class RetryBudget {
+
+  private final int minimum;
+  private final double ratio;
+
+  private long requests;
+  private long retries;
+
+  /**
+   * @param minimum the number of retries allowed regardless of how many requests have been made
+   * @param ratio the number of further retries allowed for every request made
+   */
+  RetryBudget(int minimum, double ratio) {
+    this.minimum = Math.max(0, minimum);
+    this.ratio = Math.max(0, ratio);
+  }
+
+  /**
+   * Record a first attempt at a request
+   */
+  synchronized void recordRequest() {
+    requests++;
+  }
+
+  /**
+   * Take a retry from the budget, returning {@code false} if the budget is spent
+   */
+  synchronized boolean tryRetry() {
+    if (retries >= minimum + (long) (ratio * requests)) {
+      return false;
+    }
+    retries++;
+    return true;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%d retries for %d requests", retries, requests);
+  }
+}
@@ -0,0 +1,113 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.util.Random;
+
+import org.apache.maven.wagon.TransferFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.rholder.retry.Attempt;
+import com.github.rholder.retry.StopStrategy;
+import com.github.rholder.retry.WaitStrategy;
+import com.google.cloud.storage.StorageException;
+
+/**
+ * When to retry a failed transfer and how long to wait first.
+ * <p/>
+ * Only failures that another attempt may get past are retried: throttling, timeouts, server errors and broken
+ * connections. The wait before each retry is drawn at random from zero up to an exponentially growing cap, so that
+ * clients that failed together do not all come back at the same moment, and every retry is taken from a
+ * {@link RetryBudget} shared by the session.
+ */
+final class RetryPolicy implements WaitStrategy, StopStrategy {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RetryPolicy.class);
+
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final RetryBudget budget;
+  private final Random random;
+
+  RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, RetryBudget budget, Random random) {
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.initialBackoffMillis = Math.max(0, initialBackoffMillis);
+    this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+    this.budget = budget;
+    this.random = random;
+  }
+
+  /**
+   * Returns whether a failure is one that another attempt may get past
+   */
+  static boolean isRetryable(Throwable failure) {
+    if (failure instanceof StorageException) {
+      StorageException e = (StorageException) failure;
+      int code = e.getCode();
+      if (code == 408 || code == 429 || code >= 500) {
+        return true;
+      }
+      if (code > 0) {
+        return false;
+      }
+      // no response at all, so a network failure unless the client knows better
+      return e.isRetryable() || e.getCause() instanceof IOException;
+    }
+    if (failure instanceof FileNotFoundException
+        || failure instanceof NoSuchFileException
+        || failure instanceof AccessDeniedException) {
+      // the local file, which will not be any different next time
+      return false;
+    }
+    if (failure instanceof IOException) {
+      return true;
+    }
+    if (failure instanceof TransferFailedException) {
+      // the wagon's own failures wrap what went wrong, and those that do not are retried as they always were
+      return failure.getCause() == null || isRetryable(failure.getCause());
+    }
+    return false;
+  }
+
+  int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  @Override
+  public boolean shouldStop(@SuppressWarnings("rawtypes") Attempt failedAttempt) {
+    if (failedAttempt.getAttemptNumber() >= maxAttempts) {
+      LOG.warn("Transfer attempt {}/{} failed. Will not retry", failedAttempt.getAttemptNumber(), maxAttempts);
+      return true;
+    }
+    if (!budget.tryRetry()) {
+      LOG.warn("Transfer attempt {}/{} failed. Will not retry, this session has used its retry budget ({})",
+               failedAttempt.getAttemptNumber(), maxAttempts, budget);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public long computeSleepTime(@SuppressWarnings("rawtypes") Attempt failedAttempt) {
+    long sleep = getBackoffMillis(failedAttempt.getAttemptNumber());
+    LOG.warn("Transfer attempt {}/{} failed. Retrying in {} ms", failedAttempt.getAttemptNumber(), maxAttempts, sleep);
+    return sleep;
+  }
+
+  /**
+   * Returns a wait before the retry that follows failed attempt {@code attempt}, anywhere from zero up to the initial
+   * backoff doubled for every attempt before it, but never more than the maximum backoff
+   */
+  long getBackoffMillis(long attempt) {
+    long cap = initialBackoffMillis;
+    for (long i = 1; i < attempt && cap < maxBackoffMillis; i++) {
+      cap *= 2;
+    }
+    cap = Math.min(cap, maxBackoffMillis);
+    return cap == 0 ? 0 : (long) (random.nextDouble() * (cap + 1));
+  }
+}
@@ -6,8 +6,8 @@ public class RetryableTransferProgress implements TransferProgress {
 
   private final TransferProgress wrappedTransferProgress;
 
-  private int totalBytesSeen;
-  private int bytesSeenThisAttempt;
+  private long totalBytesSeen;
+  private long bytesSeenThisAttempt;
 
   public RetryableTransferProgress(TransferProgress transferProgress) {
     this.wrappedTransferProgress = transferProgress;
@@ -18,7 +18,7 @@ public class RetryableTransferProgress implements TransferProgress {
 
   @Override
   public void notify(byte[] buffer, int length) {
-    int newBytesInBuffer = bytesSeenThisAttempt + length - totalBytesSeen;
+    int newBytesInBuffer = (int) Math.min(length, bytesSeenThisAttempt + length - totalBytesSeen);
     if (newBytesInBuffer <= 0) {
       bytesSeenThisAttempt += length;
       return;
@@ -37,4 +37,9 @@ public class RetryableTransferProgress implements TransferProgress {
   public void startTransferAttempt() {
     bytesSeenThisAttempt = 0;
   }
+
+  @Override
+  public void resumeTransferAttempt(long position) {
+    bytesSeenThisAttempt = position;
+  }
 }
@@ -1,9 +1,10 @@
 package org.springframework.build.gcs.maven;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.maven.wagon.ResourceDoesNotExistException;
 import org.apache.maven.wagon.TransferFailedException;
@@ -16,15 +17,47 @@ import com.github.rholder.retry.RetryException;
 import com.github.rholder.retry.RetryListener;
 import com.github.rholder.retry.Retryer;
 import com.github.rholder.retry.RetryerBuilder;
-import com.github.rholder.retry.StopStrategies;
-import com.github.rholder.retry.WaitStrategies;
 import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
 import com.google.common.base.Throwables;
 
 public class RetryingSimpleStorageWagon extends SimpleStorageServiceWagon {
   private static final Logger LOG = LoggerFactory.getLogger(RetryingSimpleStorageWagon.class);
-  private static final int TRANSFER_ATTEMPTS = 10;
-  private static final int TRANSFER_RETRY_WAIT_SECONDS = 2;
+  private static final int DEFAULT_RETRY_ATTEMPTS = 10;
+  private static final long DEFAULT_RETRY_INITIAL_BACKOFF = 500;
+  private static final long DEFAULT_RETRY_MAX_BACKOFF = 30000;
+  private static final int DEFAULT_RETRY_BUDGET_MINIMUM = 10;
+  private static final double DEFAULT_RETRY_BUDGET_RATIO = 0.2;
+
+  private volatile int retryAttempts = DEFAULT_RETRY_ATTEMPTS;
+  private volatile long retryInitialBackoff = DEFAULT_RETRY_INITIAL_BACKOFF;
+  private volatile long retryMaxBackoff = DEFAULT_RETRY_MAX_BACKOFF;
+  private volatile int retryBudgetMinimum = DEFAULT_RETRY_BUDGET_MINIMUM;
+  private volatile double retryBudgetRatio = DEFAULT_RETRY_BUDGET_RATIO;
+
+  private static final double DEFAULT_CIRCUIT_FAILURE_RATE = 0.5;
+  private static final int DEFAULT_CIRCUIT_WINDOW = 20;
+  private static final int DEFAULT_CIRCUIT_MINIMUM_ATTEMPTS = 10;
+  private static final long DEFAULT_CIRCUIT_OPEN_DURATION = 30000;
+
+  private volatile double circuitFailureRate = DEFAULT_CIRCUIT_FAILURE_RATE;
+  private volatile int circuitWindow = DEFAULT_CIRCUIT_WINDOW;
+  private volatile int circuitMinimumAttempts = DEFAULT_CIRCUIT_MINIMUM_ATTEMPTS;
+  private volatile long circuitOpenDuration = DEFAULT_CIRCUIT_OPEN_DURATION;
+
+  private final Random random = new Random();
+  private RetryBudget retryBudget;
+  private CircuitBreaker circuitBreaker;
+
+  // Every wagon using a bucket tells its own session listeners when the bucket's breaker changes state
+  private final CircuitBreaker.Listener circuitListener = new CircuitBreaker.Listener() {
+
+    @Override
+    public void stateChanged(String bucket, CircuitStateChangeException.State from,
+                             CircuitStateChangeException.State to) {
+      fireSessionError(new CircuitStateChangeException(bucket, from, to));
+    }
+  };
 
   public RetryingSimpleStorageWagon() {
     super();
@@ -34,88 +67,315 @@ public class RetryingSimpleStorageWagon extends SimpleStorageServiceWagon {
     super(storage, bucketName, baseDirectory);
   }
 
+  /**
+   * Sets the most attempts made at a transfer, or at each part of a composite transfer
+   */
+  public void setRetryAttempts(int retryAttempts) {
+    this.retryAttempts = retryAttempts;
+  }
+
+  /**
+   * Sets the longest wait, in milliseconds, before the first retry. Each retry waits a random time up to this limit,
+   * which doubles with every attempt.
+   */
+  public void setRetryInitialBackoff(long retryInitialBackoff) {
+    this.retryInitialBackoff = retryInitialBackoff;
+  }
+
+  /**
+   * Sets the limit, in milliseconds, that the wait before a retry stops doubling at
+   */
+  public void setRetryMaxBackoff(long retryMaxBackoff) {
+    this.retryMaxBackoff = retryMaxBackoff;
+  }
+
+  /**
+   * Sets the number of retries a session may make no matter how few requests it has made
+   */
+  public void setRetryBudgetMinimum(int retryBudgetMinimum) {
+    this.retryBudgetMinimum = retryBudgetMinimum;
+  }
+
+  /**
+   * Sets the number of further retries a session may make for every transfer it starts
+   */
+  public void setRetryBudgetRatio(double retryBudgetRatio) {
+    this.retryBudgetRatio = retryBudgetRatio;
+  }
+
+  /**
+   * Sets the share of failed attempts, between 0 and 1, among the most recent attempts on a bucket at which transfers
+   * to the bucket start failing straight away. A value of zero or less disables the circuit breaker.
+   */
+  public void setCircuitFailureRate(double circuitFailureRate) {
+    this.circuitFailureRate = circuitFailureRate;
+  }
+
+  /**
+   * Sets the number of most recent attempts on a bucket the failure rate is taken over
+   */
+  public void setCircuitWindow(int circuitWindow) {
+    this.circuitWindow = circuitWindow;
+  }
+
+  /**
+   * Sets the number of attempts that must have been made on a bucket before its circuit breaker can open
+   */
+  public void setCircuitMinimumAttempts(int circuitMinimumAttempts) {
+    this.circuitMinimumAttempts = circuitMinimumAttempts;
+  }
+
+  /**
+   * Sets how long, in milliseconds, transfers fail straight away once a bucket's circuit breaker has opened, before a
+   * single transfer is let through to find out whether the bucket has recovered
+   */
+  public void setCircuitOpenDuration(long circuitOpenDuration) {
+    this.circuitOpenDuration = circuitOpenDuration;
+  }
+
+  @Override
+  protected boolean applyParameter(String name, String value) {
+    switch (name) {
+      case "circuitFailureRate":
+        setCircuitFailureRate(Double.parseDouble(value));
+        return true;
+      case "circuitWindow":
+        setCircuitWindow(Integer.parseInt(value));
+        return true;
+      case "circuitMinimumAttempts":
+        setCircuitMinimumAttempts(Integer.parseInt(value));
+        return true;
+      case "circuitOpenDuration":
+        setCircuitOpenDuration(Long.parseLong(value));
+        return true;
+      case "retryAttempts":
+        setRetryAttempts(Integer.parseInt(value));
+        return true;
+      case "retryInitialBackoff":
+        setRetryInitialBackoff(Long.parseLong(value));
+        return true;
+      case "retryMaxBackoff":
+        setRetryMaxBackoff(Long.parseLong(value));
+        return true;
+      case "retryBudgetMinimum":
+        setRetryBudgetMinimum(Integer.parseInt(value));
+        return true;
+      case "retryBudgetRatio":
+        setRetryBudgetRatio(Double.parseDouble(value));
+        return true;
+      default:
+        return super.applyParameter(name, value);
+    }
+  }
+
+  @Override
+  protected void disconnectFromRepository() {
+    synchronized (this) {
+      if (retryBudget != null) {
+        LOG.debug("GCS retries made by this session: {}", retryBudget);
+        retryBudget = null;
+      }
+      if (circuitBreaker != null) {
+        circuitBreaker.removeListener(circuitListener);
+        circuitBreaker = null;
+      }
+    }
+    super.disconnectFromRepository();
+  }
+
   @Override
   protected void putResource(
       final File source,
       final String destination,
       TransferProgress transferProgress
   ) throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
+      if (isCompositeUpload(source)) {
+        // each part and the final compose are retried on their own by callTransferPart
+        super.putResource(source, destination, transferProgress);
+        return;
+      }
+
       final TransferProgress retryableTransferProgress = new RetryableTransferProgress(transferProgress);
+      // shared by every attempt so that each retry continues the upload session from the last chunk GCS accepted
+      final ResumableUpload resumableUpload = newResumableUpload(source);
       transferWithRetryer(new Callable<Void>() {
 
         @Override
         public Void call() throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
-            RetryingSimpleStorageWagon.super.putResource(source, destination, retryableTransferProgress);
+            putResource(resumableUpload, destination, retryableTransferProgress);
             return null;
         }
     });
   }
 
   @Override
-  protected void getResource(
+  protected void fetchResource(
       final String resourceName,
       final File destination,
       TransferProgress transferProgress
   ) throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
       final TransferProgress retryableTransferProgress = new RetryableTransferProgress(transferProgress);
-      transferWithRetryer(new Callable<Void>() {
+      // shared by every attempt so that each retry continues from the bytes already on disk
+      final PartialDownload partialDownload = new PartialDownload(destination);
+      try {
+        transferWithRetryer(new Callable<Void>() {
+
+            @Override
+            public Void call() throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
+                getResource(resourceName, partialDownload, retryableTransferProgress);
+                return null;
+            }
+        });
+      } finally {
+        partialDownload.discard();
+      }
+  }
+
+  @Override
+  protected <T> T callTransferPart(final Callable<T> part) throws Exception {
+    try {
+      return callWithRetryer(new Callable<T>() {
 
-          @Override
-          public Void call() throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
-              RetryingSimpleStorageWagon.super.getResource(resourceName, destination, retryableTransferProgress);
-              return null;
+        @Override
+        public T call() throws Exception {
+          try {
+            return part.call();
+          } catch (StorageException e) {
+            // surfaces as a TransferFailedException unless it is a 403 or a 404, which are never retried
+            throw RetryPolicy.isRetryable(e) ? new RetryableException(e) : e;
+          } catch (IOException e) {
+            throw RetryPolicy.isRetryable(e) ? new RetryableException(e) : e;
           }
+        }
       });
+    } catch (ExecutionException e) {
+      throw RetryableException.unwrap(e.getCause());
+    } catch (RetryException e) {
+      throw RetryableException.unwrap(e.getLastFailedAttempt().getExceptionCause());
+    }
   }
 
   private void transferWithRetryer(
-      Callable<Void> callable
+      final Callable<Void> callable
   ) throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
-    Retryer<Void> retryer = RetryerBuilder.<Void>newBuilder()
-        .retryIfExceptionOfType(TransferFailedException.class)
-        .withWaitStrategy(WaitStrategies.fixedWait(TRANSFER_RETRY_WAIT_SECONDS, TimeUnit.SECONDS))
-        .withStopStrategy(StopStrategies.stopAfterAttempt(TRANSFER_ATTEMPTS))
-        .withRetryListener(new TransferFailureLogger())
-        .withRetryListener(new TransferExceptionLogger())
-        .build();
     try {
-      retryer.call(callable);
+      callWithRetryer(new Callable<Void>() {
+
+        @Override
+        public Void call() throws Exception {
+          try {
+            return callable.call();
+          } catch (TransferFailedException e) {
+            throw RetryPolicy.isRetryable(e) ? new RetryableException(e) : e;
+          }
+        }
+      });
     } catch (ExecutionException e) {
-      // This should always be a ResourceDoesNotExistException, AuthorizationException, or RuntimeException
-      Throwables.propagateIfPossible(e.getCause(),
-                                     TransferFailedException.class,
-                                     ResourceDoesNotExistException.class);
-      throw new RuntimeException(e.getCause());
+      rethrow(RetryableException.unwrap(e.getCause()));
     } catch (RetryException e) {
-      // This should always be a TransferFailedException
-      Throwables.propagateIfPossible(e.getCause(),
-                                     TransferFailedException.class,
-                                     ResourceDoesNotExistException.class);
-      throw new RuntimeException(e.getCause() == null ? e : e.getCause());
+      rethrow(RetryableException.unwrap(e.getLastFailedAttempt().getExceptionCause()));
+    }
+  }
+
+  // This should always be a TransferFailedException, ResourceDoesNotExistException, AuthorizationException, or
+  // RuntimeException
+  private static void rethrow(
+      Exception e
+  ) throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
+    if (e instanceof TransferFailedException) {
+      throw (TransferFailedException) e;
+    }
+    if (e instanceof ResourceDoesNotExistException) {
+      throw (ResourceDoesNotExistException) e;
+    }
+    if (e instanceof AuthorizationException) {
+      throw (AuthorizationException) e;
+    }
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+    throw new RuntimeException(e);
+  }
+
+  private <T> T callWithRetryer(Callable<T> callable) throws ExecutionException, RetryException {
+    final CircuitBreaker breaker = getCircuitBreaker();
+    if (breaker != null) {
+      callable = new BreakerCall<>(breaker, callable);
     }
+
+    RetryPolicy policy = newRetryPolicy();
+    Retryer<T> retryer = RetryerBuilder.<T>newBuilder()
+        .retryIfExceptionOfType(RetryableException.class)
+        .withWaitStrategy(policy)
+        .withStopStrategy(policy)
+        .withRetryListener(new TransferExceptionLogger(policy.getMaxAttempts()))
+        .build();
+    getRetryBudget().recordRequest();
+    return retryer.call(callable);
   }
 
-  private static class TransferFailureLogger implements RetryListener {
+  private RetryPolicy newRetryPolicy() {
+    return new RetryPolicy(retryAttempts, retryInitialBackoff, retryMaxBackoff, getRetryBudget(), random);
+  }
+
+  private synchronized CircuitBreaker getCircuitBreaker() {
+    if (circuitBreaker == null && circuitFailureRate > 0 && getBucketName() != null) {
+      circuitBreaker = CircuitBreaker.forBucket(getBucketName(), circuitFailureRate, circuitWindow,
+                                                circuitMinimumAttempts, circuitOpenDuration);
+      circuitBreaker.addListener(circuitListener);
+    }
+    return circuitBreaker;
+  }
+
+  private synchronized RetryBudget getRetryBudget() {
+    if (retryBudget == null) {
+      retryBudget = new RetryBudget(retryBudgetMinimum, retryBudgetRatio);
+    }
+    return retryBudget;
+  }
+
+  // Fails an attempt straight away while the breaker is open. Only the failures the retry policy would retry count
+  // against the bucket: any other answer shows that GCS is up.
+  private static class BreakerCall<T> implements Callable<T> {
+    private final CircuitBreaker breaker;
+    private final Callable<T> callable;
+
+    private BreakerCall(CircuitBreaker breaker, Callable<T> callable) {
+      this.breaker = breaker;
+      this.callable = callable;
+    }
+
     @Override
-    public <V> void onRetry(Attempt<V> attempt) {
-      boolean transferFailed = attempt.hasException()
-          && attempt.getExceptionCause() instanceof TransferFailedException;
-      if (!transferFailed) {
-        return;
-      } else if (attempt.getAttemptNumber() < TRANSFER_ATTEMPTS) {
-        LOG.warn("Transfer attempt {}/{} failed. Retrying in {} seconds",
-                 attempt.getAttemptNumber(),
-                 TRANSFER_ATTEMPTS,
-                 TRANSFER_RETRY_WAIT_SECONDS);
-      } else {
-        LOG.warn("Transfer attempt {}/{} failed. Will not retry",
-                 attempt.getAttemptNumber(),
-                 TRANSFER_ATTEMPTS);
+    public T call() throws Exception {
+      CircuitBreaker.Permit permit = breaker.tryAcquire();
+      if (permit == null) {
+        throw new TransferFailedException(String.format(
+            "GCS bucket '%s' is failing too many requests, not trying again for %d ms", breaker.getBucket(),
+            breaker.getRetryAfterMillis()));
+      }
+
+      T result;
+      try {
+        result = callable.call();
+      } catch (RetryableException e) {
+        breaker.recordFailure(permit);
+        throw e;
+      } catch (Exception | Error e) {
+        breaker.recordSuccess(permit);
+        throw e;
       }
+      breaker.recordSuccess(permit);
+      return result;
     }
   }
 
   private static class TransferExceptionLogger implements RetryListener {
+    private final int maxAttempts;
+
+    private TransferExceptionLogger(int maxAttempts) {
+      this.maxAttempts = maxAttempts;
+    }
+
     @Override
     public <V> void onRetry(Attempt<V> attempt) {
       if (!attempt.hasException()) {
@@ -123,8 +383,27 @@ public class RetryingSimpleStorageWagon extends SimpleStorageServiceWagon {
       }
       LOG.debug("Transfer attempt {}/{} failed with exception:",
                 attempt.getAttemptNumber(),
-                TRANSFER_ATTEMPTS,
+                maxAttempts,
                 attempt.getExceptionCause());
     }
   }
+
+  // Marks the failures the retry policy considers worth another attempt
+  private static class RetryableException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private RetryableException(Exception cause) {
+      super(cause);
+    }
+
+    private static Exception unwrap(Throwable throwable) {
+      Throwable cause = throwable instanceof RetryableException ? throwable.getCause() : throwable;
+      if (cause instanceof Exception) {
+        return (Exception) cause;
+      }
+      Throwables.throwIfUnchecked(cause);
+      return new RuntimeException(cause);
+    }
+  }
 }
@@ -0,0 +1,289 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobListOption;
+
+/**
+ * Lists every object under a prefix as paths relative to it, with an entry ending in {@code /} for each directory
+ * before the first of its contents, in lexicographic order.
+ * <p/>
+ * The key space is split into shards, each the subtree under one sub-prefix, that are listed concurrently. Shards are
+ * found by listing the prefix one level at a time, which is repeated until there are enough shards or no deeper
+ * levels. Every key under a sub-prefix sorts between the keys that sort before and after the sub-prefix itself, so
+ * concatenating the shards in the order of that listing, sorted by name, keeps the whole result in order.
+ */
+final class ShardedListing {
+
+  // The most objects GCS returns in one page of a listing
+  static final long PAGE_SIZE = 1000;
+
+  private static final Logger LOG = LoggerFactory.getLogger(ShardedListing.class);
+
+  // Bounds the number of levels listed to find shards in a tree that is narrow near the top
+  private static final int MAX_SPLIT_DEPTH = 4;
+
+  private static final Comparator<Entry> BY_NAME = new Comparator<Entry>() {
+
+    @Override
+    public int compare(Entry a, Entry b) {
+      return a.name.compareTo(b.name);
+    }
+  };
+
+  private final Storage storage;
+  private final ExecutorService executor;
+  private final GcsMetrics metrics;
+  private final int shards;
+
+  ShardedListing(Storage storage, ExecutorService executor, GcsMetrics metrics, int shards) {
+    this.storage = storage;
+    this.executor = executor;
+    this.metrics = metrics;
+    this.shards = Math.max(1, shards);
+  }
+
+  List<String> list(String bucket, String prefix) throws IOException {
+    List<Entry> plan = split(bucket, prefix);
+    if (plan.size() == 1 && plan.get(0).shard) {
+      // a single pass, which is not worth handing to another thread
+      return toPaths(prefix, new ShardTask(bucket, prefix).call());
+    }
+
+    List<Future<List<String>>> listings = new ArrayList<>();
+    try {
+      for (Entry entry : plan) {
+        if (entry.shard) {
+          listings.add(executor.submit(new ShardTask(bucket, entry.name)));
+        }
+      }
+
+      Paths paths = new Paths(prefix);
+      int shard = 0;
+      for (Entry entry : plan) {
+        if (entry.shard) {
+          for (String name : await(listings.get(shard++))) {
+            paths.add(name);
+          }
+        } else {
+          paths.add(entry.name);
+        }
+      }
+      return paths.list;
+    } finally {
+      for (Future<List<String>> listing : listings) {
+        listing.cancel(true);
+      }
+    }
+  }
+
+  private List<Entry> split(String bucket, String prefix) throws IOException {
+    List<Entry> plan = Collections.singletonList(new Entry(prefix, true));
+
+    for (int depth = 0; depth < MAX_SPLIT_DEPTH && countShards(plan) < shards; depth++) {
+      List<Future<List<Entry>>> levels = new ArrayList<>();
+      try {
+        for (Entry entry : plan) {
+          if (entry.shard) {
+            levels.add(executor.submit(new LevelTask(bucket, entry.name)));
+          }
+        }
+
+        List<Entry> expanded = new ArrayList<>();
+        int level = 0;
+        for (Entry entry : plan) {
+          if (entry.shard) {
+            expanded.addAll(await(levels.get(level++)));
+          } else {
+            expanded.add(entry);
+          }
+        }
+
+        if (countShards(expanded) == 0) {
+          // nothing below the last level, which has now been listed in full
+          return expanded;
+        }
+        plan = expanded;
+      } finally {
+        for (Future<List<Entry>> future : levels) {
+          future.cancel(true);
+        }
+      }
+    }
+    return plan;
+  }
+
+  private static List<String> toPaths(String prefix, List<String> names) {
+    Paths paths = new Paths(prefix);
+    for (String name : names) {
+      paths.add(name);
+    }
+    return paths.list;
+  }
+
+  private static int countShards(List<Entry> plan) {
+    int count = 0;
+    for (Entry entry : plan) {
+      if (entry.shard) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private Page<Blob> list(String bucket, BlobListOption... options) {
+    metrics.increment(GcsMetrics.Counter.LIST_REQUESTS);
+    return storage.list(bucket, options);
+  }
+
+  private Page<Blob> nextPage(Page<Blob> page) {
+    if (!page.hasNextPage()) {
+      return null;
+    }
+    metrics.increment(GcsMetrics.Counter.LIST_REQUESTS);
+    return page.getNextPage();
+  }
+
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for listing");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw new IOException("Listing failed", cause);
+      }
+    }
+  }
+
+  /**
+   * An object, or a sub-prefix whose subtree is listed as one shard
+   */
+  private static final class Entry {
+
+    private final String name;
+    private final boolean shard;
+
+    private Entry(String name, boolean shard) {
+      this.name = name;
+      this.shard = shard;
+    }
+  }
+
+  /**
+   * Turns object names, in order, into paths relative to the listed prefix, adding each directory the first time one
+   * of its objects is seen
+   */
+  private static final class Paths {
+
+    private final String prefix;
+    private final List<String> list = new ArrayList<>();
+    private final Set<String> directories = new HashSet<>();
+
+    private Paths(String prefix) {
+      this.prefix = prefix;
+    }
+
+    private void add(String name) {
+      String path = name.substring(prefix.length());
+      for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+        String parent = path.substring(0, slash + 1);
+        if (directories.add(parent)) {
+          list.add(parent);
+        }
+      }
+      if (!path.isEmpty() && !path.endsWith("/")) {
+        list.add(path);
+      }
+    }
+  }
+
+  private final class LevelTask implements Callable<List<Entry>> {
+
+    private final String bucket;
+    private final String prefix;
+
+    private LevelTask(String bucket, String prefix) {
+      this.bucket = bucket;
+      this.prefix = prefix;
+    }
+
+    @Override
+    public List<Entry> call() {
+      List<Entry> entries = new ArrayList<>();
+      Page<Blob> page = list(bucket,
+                             BlobListOption.currentDirectory(),
+                             BlobListOption.prefix(prefix),
+                             BlobListOption.pageSize(PAGE_SIZE),
+                             BlobListOption.fields(BlobField.NAME));
+      while (page != null) {
+        for (Blob blob : page.getValues()) {
+          entries.add(new Entry(blob.getName(), blob.isDirectory()));
+        }
+        page = nextPage(page);
+      }
+      // each page holds its objects and then its prefixes, which the plan must have back in order
+      Collections.sort(entries, BY_NAME);
+      return entries;
+    }
+  }
+
+  private final class ShardTask implements Callable<List<String>> {
+
+    private final String bucket;
+    private final String prefix;
+
+    private ShardTask(String bucket, String prefix) {
+      this.bucket = bucket;
+      this.prefix = prefix;
+    }
+
+    @Override
+    public List<String> call() {
+      long start = System.nanoTime();
+      int pages = 0;
+
+      List<String> names = new ArrayList<>();
+      Page<Blob> page = list(bucket,
+                             BlobListOption.prefix(prefix),
+                             BlobListOption.pageSize(PAGE_SIZE),
+                             BlobListOption.fields(BlobField.NAME));
+      while (page != null) {
+        pages++;
+        for (Blob blob : page.getValues()) {
+          names.add(blob.getName());
+        }
+        page = nextPage(page);
+      }
+
+      LOG.debug("Listed {} objects under '{}' in {} pages and {} ms", names.size(), prefix, pages,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      return names;
+    }
+  }
+}
@@ -19,29 +19,45 @@ package org.springframework.build.gcs.maven;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.channels.Channels;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.maven.wagon.ResourceDoesNotExistException;
 import org.apache.maven.wagon.TransferFailedException;
+import org.apache.maven.wagon.WagonException;
 import org.apache.maven.wagon.authentication.AuthenticationException;
 import org.apache.maven.wagon.authentication.AuthenticationInfo;
 import org.apache.maven.wagon.authorization.AuthorizationException;
 import org.apache.maven.wagon.proxy.ProxyInfoProvider;
 import org.apache.maven.wagon.repository.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.api.gax.paging.Page;
 import com.google.api.gax.retrying.RetrySettings;
-import com.google.api.services.storage.StorageScopes;
 import com.google.auth.oauth2.GoogleCredentials;
-import com.google.cloud.WriteChannel;
+import com.google.cloud.ReadChannel;
 import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
@@ -50,6 +66,11 @@ import com.google.cloud.storage.Storage.BlobGetOption;
 import com.google.cloud.storage.Storage.BlobListOption;
 import com.google.cloud.storage.StorageException;
 import com.google.cloud.storage.StorageOptions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * An implementation of the Maven Wagon interface that allows you to access the Amazon S3 service. URLs that reference
@@ -62,14 +83,143 @@ import com.google.cloud.storage.StorageOptions;
  */
 public class SimpleStorageServiceWagon extends AbstractWagon {
 
+    private static final Logger LOG = LoggerFactory.getLogger(SimpleStorageServiceWagon.class);
+
     private static final String KEY_FORMAT = "%s%s";
 
+    private static final long DEFAULT_SLICED_DOWNLOAD_THRESHOLD = 64 * 1024 * 1024;
+
+    private static final long DEFAULT_DOWNLOAD_SLICE_SIZE = 16 * 1024 * 1024;
+
+    private static final long DEFAULT_UPLOAD_PART_SIZE = 32 * 1024 * 1024;
+
+    private static final int DEFAULT_TRANSFER_THREADS = 4;
+
+    private static final int DEFAULT_ASYNC_THREADS = 16;
+
+    private static final long DEFAULT_RESUMABLE_UPLOAD_THRESHOLD = 8 * 1024 * 1024;
+
+    // Single request uploads hold the whole file in memory
+    private static final long MAX_RESUMABLE_UPLOAD_THRESHOLD = 64 * 1024 * 1024;
+
+    // The same pool sizes google-http-client gives its own Apache transport
+    private static final int DEFAULT_MAX_CONNECTIONS = 200;
+
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+    // GCS only accepts resumable upload chunks that are a multiple of this
+    private static final int UPLOAD_CHUNK_GRANULARITY = 256 * 1024;
+
+    // identical requests in flight from any wagon in the JVM, keyed by client, bucket, key and, for lookups, fields
+    private static final SingleFlight<List<Object>, Blob> METADATA_FLIGHTS = new SingleFlight<>();
+
+    // cached lookups in flight, whose leader fills the metadata cache before any caller waiting on it returns
+    private static final SingleFlight<List<Object>, MetadataCache.Metadata> CACHED_LOOKUPS = new SingleFlight<>();
+
+    private static final SingleFlight<List<Object>, File> DOWNLOAD_FLIGHTS = new SingleFlight<>();
+
+    // everything the metadata cache holds, fetched in one lookup whichever check asked for it
+    static final BlobField[] CACHED_FIELDS = {
+        BlobField.GENERATION, BlobField.SIZE, BlobField.UPDATED, BlobField.MD5HASH, BlobField.CRC32C
+    };
+
+    private static final long DEFAULT_METADATA_CACHE_TTL = 60 * 1000;
+
+    private static final long DEFAULT_CACHE_MAX_BYTES = 256 * 1024 * 1024;
+
+    private static final long DEFAULT_CACHE_MAX_OBJECT_SIZE = 1024 * 1024;
+
+    private static final long DEFAULT_BLOB_STORE_MAX_BYTES = 4L * 1024 * 1024 * 1024;
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+
     private volatile Storage storage;
 
     private volatile String bucketName;
 
     private volatile String baseDirectory;
 
+    private volatile long slicedDownloadThreshold = DEFAULT_SLICED_DOWNLOAD_THRESHOLD;
+
+    private volatile long downloadSliceSize = DEFAULT_DOWNLOAD_SLICE_SIZE;
+
+    private volatile long compositeUploadThreshold = 0;
+
+    private volatile long uploadPartSize = DEFAULT_UPLOAD_PART_SIZE;
+
+    private volatile int transferThreads = DEFAULT_TRANSFER_THREADS;
+
+    private volatile int asyncThreads = DEFAULT_ASYNC_THREADS;
+
+    private volatile boolean mappedUploads = false;
+
+    private volatile long resumableUploadThreshold = DEFAULT_RESUMABLE_UPLOAD_THRESHOLD;
+
+    private volatile boolean flatListing = true;
+
+    private volatile int listingShards = 1;
+
+    private volatile String endpoint;
+
+    private volatile boolean pooledConnections = false;
+
+    private volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    private volatile int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+    private volatile long keepAlive = 0;
+
+    private volatile int socketBufferSize = 0;
+
+    private volatile int uploadChunkSize = 0;
+
+    private volatile int downloadChunkSize = SlicedDownload.READ_CHUNK_SIZE;
+
+    private volatile double hedgePercentile = 0;
+
+    private volatile boolean coalesceRequests = true;
+
+    private volatile long metadataCacheTtl = DEFAULT_METADATA_CACHE_TTL;
+
+    private volatile long missingCacheTtl = DEFAULT_METADATA_CACHE_TTL;
+
+    private volatile boolean listingFilters = false;
+
+    private volatile String cacheDirectory;
+
+    private volatile long cacheMaxBytes = DEFAULT_CACHE_MAX_BYTES;
+
+    private volatile long cacheMaxObjectSize = DEFAULT_CACHE_MAX_OBJECT_SIZE;
+
+    private volatile String blobStoreDirectory;
+
+    private volatile long blobStoreMaxBytes = DEFAULT_BLOB_STORE_MAX_BYTES;
+
+    private volatile boolean localProxy = false;
+
+    private volatile int localProxyPort = LocalProxy.DEFAULT_PORT;
+
+    private volatile LocalProxyClient proxyClient;
+
+    private ExecutorService transferExecutor;
+
+    private ExecutorService hedgeExecutor;
+
+    private ThreadPoolExecutor asyncExecutor;
+
+    // set while a disconnect waits for the async transfers in flight, so that no more are started
+    private boolean disconnecting;
+
+    private HedgedRequests hedgedRequests;
+
+    private StorageClientPool.Lease clientLease;
+
+    private DiskCache diskCache;
+
+    private BlobStore blobStore;
+
+    private final GcsMetrics metrics = new GcsMetrics();
+
     /**
      * Creates a new instance of the wagon
      */
@@ -84,37 +234,558 @@ public class SimpleStorageServiceWagon extends AbstractWagon {
         this.baseDirectory = baseDirectory;
     }
 
+    /**
+     * Sets the size, in bytes, at or above which a download is split into slices that are fetched concurrently. A
+     * value of zero or less disables sliced downloads.
+     */
+    public void setSlicedDownloadThreshold(long slicedDownloadThreshold) {
+        this.slicedDownloadThreshold = slicedDownloadThreshold;
+    }
+
+    /**
+     * Sets the size, in bytes, of each slice of a sliced download
+     */
+    public void setDownloadSliceSize(long downloadSliceSize) {
+        this.downloadSliceSize = downloadSliceSize;
+    }
+
+    /**
+     * Sets the size, in bytes, at or above which an upload is split into parts that are uploaded concurrently and then
+     * composed. A value of zero or less, the default, disables composite uploads.
+     */
+    public void setCompositeUploadThreshold(long compositeUploadThreshold) {
+        this.compositeUploadThreshold = compositeUploadThreshold;
+    }
+
+    /**
+     * Sets the minimum size, in bytes, of each part of a composite upload
+     */
+    public void setUploadPartSize(long uploadPartSize) {
+        this.uploadPartSize = uploadPartSize;
+    }
+
+    /**
+     * Sets the number of threads used to transfer the parts of a single resource concurrently
+     */
+    public void setTransferThreads(int transferThreads) {
+        this.transferThreads = transferThreads;
+    }
+
+    /**
+     * Sets the number of threads that run the transfers started with {@link #getAsync}, {@link #putAsync} and
+     * {@link #existsAsync}, beyond which they wait their turn
+     */
+    public void setAsyncThreads(int asyncThreads) {
+        this.asyncThreads = asyncThreads;
+    }
+
+    /**
+     * Sets whether uploads map the source file into memory and write slices of the mapping to GCS, instead of reading
+     * the file into a buffer a chunk at a time
+     */
+    public void setMappedUploads(boolean mappedUploads) {
+        this.mappedUploads = mappedUploads;
+    }
+
+    /**
+     * Sets the size, in bytes, at or above which an upload goes through a resumable upload session. Smaller files are
+     * uploaded in a single request. A value of zero or less sends every upload through a resumable session.
+     */
+    public void setResumableUploadThreshold(long resumableUploadThreshold) {
+        this.resumableUploadThreshold = Math.min(resumableUploadThreshold, MAX_RESUMABLE_UPLOAD_THRESHOLD);
+    }
+
+    /**
+     * Sets whether a directory is listed in a single pass over every object under it, rather than with one listing per
+     * subdirectory
+     */
+    public void setFlatListing(boolean flatListing) {
+        this.flatListing = flatListing;
+    }
+
+    /**
+     * Sets the number of subtrees a flat listing tries to split a directory into, so that they can be listed
+     * concurrently. A value of one lists the whole directory in a single pass.
+     */
+    public void setListingShards(int listingShards) {
+        this.listingShards = listingShards;
+    }
+
+    /**
+     * Sets the GCS endpoint to connect to, such as {@code https://storage.googleapis.com}, the default
+     */
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Sets whether clients keep their connections in a pool of an Apache HTTP client, sized and kept alive by the
+     * settings below, rather than leaving them to the JDK. Defaults to {@code false}.
+     */
+    public void setPooledConnections(boolean pooledConnections) {
+        this.pooledConnections = pooledConnections;
+    }
+
+    /**
+     * Sets the most HTTP connections a pooling client keeps open to GCS
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Sets the most HTTP connections a pooling client keeps open to a single GCS host
+     */
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    /**
+     * Sets the longest time, in milliseconds, an idle connection is kept open for reuse. A value of zero or less, the
+     * default, keeps connections for as long as GCS allows.
+     */
+    public void setKeepAlive(long keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Sets the size, in bytes, of the buffer each connection reads and writes its socket through. A value of zero or
+     * less, the default, uses the HTTP client's default.
+     */
+    public void setSocketBufferSize(int socketBufferSize) {
+        this.socketBufferSize = socketBufferSize;
+    }
+
+    /**
+     * Sets the size, in bytes, of each chunk of a resumable upload, rounded up to a multiple of 256 KiB, or of 2 MiB
+     * above 2 MiB, the size of the buffers chunks are sent from. A value of zero or less, the default, sizes chunks to
+     * the file.
+     */
+    public void setUploadChunkSize(int uploadChunkSize) {
+        this.uploadChunkSize = uploadChunkSize <= 0 ? 0
+            : (uploadChunkSize + UPLOAD_CHUNK_GRANULARITY - 1) / UPLOAD_CHUNK_GRANULARITY * UPLOAD_CHUNK_GRANULARITY;
+    }
+
+    /**
+     * Sets the number of bytes a download asks GCS for in each request
+     */
+    public void setDownloadChunkSize(int downloadChunkSize) {
+        this.downloadChunkSize = Math.max(1, downloadChunkSize);
+    }
+
+    /**
+     * Sets the percentile, between 0 and 100, of the latency of recent metadata requests after which a second,
+     * identical request is started, and whichever answers first is used. A value of zero or less, the default,
+     * disables hedging.
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * Sets whether a metadata lookup or download that is identical to one already in flight, from this or any other
+     * wagon in the JVM, waits for that one's result instead of making a request of its own. Defaults to {@code true}.
+     */
+    public void setCoalesceRequests(boolean coalesceRequests) {
+        this.coalesceRequests = coalesceRequests;
+    }
+
+    /**
+     * Sets the time in milliseconds that the metadata of an object found by an existence or update time check is
+     * reused for by later checks, unless this JVM uploads the object in the meantime. A value of zero or less disables
+     * the cache. Defaults to one minute.
+     */
+    public void setMetadataCacheTtl(long metadataCacheTtl) {
+        this.metadataCacheTtl = metadataCacheTtl;
+    }
+
+    /**
+     * Sets the most objects, across every wagon in the JVM, whose metadata is cached. Defaults to 10000.
+     */
+    public void setMetadataCacheSize(int metadataCacheSize) {
+        MetadataCache.getInstance().setMaxEntries(metadataCacheSize);
+    }
+
+    /**
+     * Sets the time in milliseconds that an object found not to exist, by a check or a download, is taken not to exist
+     * by later checks and downloads, unless this JVM uploads the object in the meantime. This is also how long a
+     * listing filter is used for. A value of zero or less disables the cache. Defaults to one minute.
+     */
+    public void setMissingCacheTtl(long missingCacheTtl) {
+        this.missingCacheTtl = missingCacheTtl;
+    }
+
+    /**
+     * Sets whether the first check or download of a resource in a directory lists the directory, and builds a Bloom
+     * filter from the listing that later checks and downloads of resources in the directory that are not in it are
+     * answered from. Defaults to {@code false}.
+     */
+    public void setListingFilters(boolean listingFilters) {
+        this.listingFilters = listingFilters;
+    }
+
+    /**
+     * Sets a directory that downloads of objects no larger than the cache's maximum object size are kept in, with the
+     * generation they were downloaded at, so that a later download, in this or a later build, only fetches the object
+     * if its generation has changed. The directory can be shared by concurrent builds. Unset by default, which
+     * disables the cache.
+     */
+    public void setCacheDirectory(String cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Sets the most bytes the cache directory holds, beyond which the least recently used objects are deleted. Defaults
+     * to 256 MiB.
+     */
+    public void setCacheMaxBytes(long cacheMaxBytes) {
+        this.cacheMaxBytes = cacheMaxBytes;
+    }
+
+    /**
+     * Sets the size in bytes of the largest object that is kept in the cache directory. Defaults to 1 MiB.
+     */
+    public void setCacheMaxObjectSize(long cacheMaxObjectSize) {
+        this.cacheMaxObjectSize = cacheMaxObjectSize;
+    }
+
+    /**
+     * Sets a directory that every download is stored in, named for its checksums, so that later downloads of an object
+     * with the same content, by any build on the host into any local repository, are copied from it instead of being
+     * downloaded again. Unset by default, which disables the store.
+     */
+    public void setBlobStoreDirectory(String blobStoreDirectory) {
+        this.blobStoreDirectory = blobStoreDirectory;
+    }
+
+    /**
+     * Sets the most bytes the blob store holds, beyond which the least recently used objects are deleted. Defaults to
+     * 4 GiB.
+     */
+    public void setBlobStoreMaxBytes(long blobStoreMaxBytes) {
+        this.blobStoreMaxBytes = blobStoreMaxBytes;
+    }
+
+    /**
+     * Sets whether existence checks, update time checks and downloads go through a proxy on the loopback interface that
+     * is shared by every Maven process of the user on the host, which is started in this JVM if none is running. The
+     * proxy and its clients authenticate each other with a token only the user can read, and downloads are checked
+     * against the size and CRC32C GCS reports. Uploads and listings go to GCS directly, as does anything the proxy
+     * cannot answer. Defaults to {@code false}.
+     */
+    public void setLocalProxy(boolean localProxy) {
+        this.localProxy = localProxy;
+    }
+
+    /**
+     * Sets the port of the loopback interface the shared proxy listens on. Defaults to 18457.
+     */
+    public void setLocalProxyPort(int localProxyPort) {
+        this.localProxyPort = localProxyPort;
+    }
+
+    /**
+     * Returns the name of the bucket this wagon is connected to
+     */
+    protected String getBucketName() {
+        return this.bucketName;
+    }
+
+    /**
+     * Returns the counts of requests this wagon has made to GCS
+     */
+    public GcsMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Downloads a resource like {@link #get}, firing the same transfer events, on one of the wagon's async threads
+     *
+     * @return a future that fails with the {@link WagonException} the download would have thrown, or with a
+     * {@link TransferFailedException} if the wagon is not connected
+     */
+    public ListenableFuture<Void> getAsync(final String resourceName, final File destination) {
+        return submitAsync(new Callable<Void>() {
+
+            @Override
+            public Void call() throws WagonException {
+                get(resourceName, destination);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Uploads a resource like {@link #put}, firing the same transfer events, on one of the wagon's async threads
+     *
+     * @return a future that fails with the {@link WagonException} the upload would have thrown, or with a
+     * {@link TransferFailedException} if the wagon is not connected
+     */
+    public ListenableFuture<Void> putAsync(final File source, final String destination) {
+        return submitAsync(new Callable<Void>() {
+
+            @Override
+            public Void call() throws WagonException {
+                put(source, destination);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Checks whether a resource exists like {@link #resourceExists} on one of the wagon's async threads
+     *
+     * @return a future that fails with the {@link WagonException} the check would have thrown, or with a
+     * {@link TransferFailedException} if the wagon is not connected
+     */
+    public ListenableFuture<Boolean> existsAsync(final String resourceName) {
+        return submitAsync(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws WagonException {
+                return resourceExists(resourceName);
+            }
+        });
+    }
+
     @Override
     protected void connectToRepository(Repository repository, AuthenticationInfo authenticationInfo,
                                        ProxyInfoProvider proxyInfoProvider) throws AuthenticationException {
         if (this.storage == null) {
-          // TODO respect ProxyInfoProvider?
-          this.storage = StorageOptions.newBuilder()
-              .setCredentials(buildCredentials(authenticationInfo))
-              .setRetrySettings(
-                  RetrySettings.newBuilder()
-                      .setMaxAttempts(3)
-                      .build()
-              )
-              .build()
-              .getService();
+            applyParameters(GcsUtils.getParameters(repository));
+
+            Path credentialsPath = getCredentialsPath(authenticationInfo);
+            final GoogleCredentials credentials;
+            final long credentialsModified;
+            try {
+                credentialsModified = Files.getLastModifiedTime(credentialsPath).toMillis();
+                credentials = CredentialCache.getInstance().get(credentialsPath);
+            } catch (IOException e) {
+                throw new AuthenticationException("Error loading GCS credentials", e);
+            }
+            final TransportSettings transportSettings = new TransportSettings(getTimeout(), getReadTimeout(),
+                this.maxConnections, this.maxConnectionsPerRoute, this.keepAlive, this.socketBufferSize,
+                this.pooledConnections);
+            StorageClientPool.Key key = new StorageClientPool.Key(credentialsPath.toString(), credentialsModified,
+                this.endpoint, transportSettings);
+
+            // TODO respect ProxyInfoProvider?
+            this.clientLease = StorageClientPool.getInstance().acquire(key, new StorageClientPool.ClientFactory() {
+
+                @Override
+                public Storage create() {
+                    return newStorage(credentials, transportSettings);
+                }
+            });
+            this.storage = this.clientLease.getStorage();
 
             this.bucketName = GcsUtils.getBucketName(repository);
             this.baseDirectory = GcsUtils.getBaseDirectory(repository);
+
+            if (this.localProxy) {
+                try {
+                    this.proxyClient = LocalProxyClient.attach(this.localProxyPort, credentialsPath,
+                        LocalProxyToken.getDefaultDirectory(), getReadTimeout(), this.endpoint,
+                        getProxyParameters(repository));
+                } catch (IOException e) {
+                    LOG.warn("Cannot use the GCS proxy on port {}, going to GCS directly", this.localProxyPort, e);
+                }
+            }
         }
     }
 
+    // The settings of this wagon that a proxy it starts gives its own wagons: those in the repository URL, other than
+    // where to find the proxy and what to cache in, and the timeouts
+    private Map<String, String> getProxyParameters(Repository repository) {
+        Map<String, String> parameters = GcsUtils.getParameters(repository);
+        parameters.remove("localProxy");
+        parameters.remove("localProxyPort");
+        parameters.remove("cacheDirectory");
+        parameters.put("timeout", String.valueOf(getTimeout()));
+        parameters.put("readTimeout", String.valueOf(getReadTimeout()));
+        return parameters;
+    }
+
+    /**
+     * Makes reads through {@code proxyClient} rather than the proxy found on connecting, if any
+     */
+    void setProxyClient(LocalProxyClient proxyClient) {
+        this.proxyClient = proxyClient;
+    }
+
+    private Storage newStorage(GoogleCredentials credentials, TransportSettings transportSettings) {
+        StorageOptions.Builder options = StorageOptions.newBuilder()
+            .setCredentials(credentials)
+            .setTransportOptions(transportSettings.toTransportOptions())
+            .setRetrySettings(
+                RetrySettings.newBuilder()
+                    .setMaxAttempts(3)
+                    .build()
+            );
+        if (this.endpoint != null) {
+            options.setHost(this.endpoint);
+        }
+        return options.build().getService();
+    }
+
+    // Settings in the query of the repository URL, such as gs://bucket/path?maxConnectionsPerRoute=32, take precedence
+    // over the server configuration
+    private void applyParameters(Map<String, String> parameters) {
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            String name = parameter.getKey();
+            String value = parameter.getValue();
+            try {
+                if (!applyParameter(name, value)) {
+                    LOG.warn("Ignoring unknown repository URL parameter '{}'", name);
+                }
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring repository URL parameter '{}': '{}' is not a number", name, value);
+            }
+        }
+    }
+
+    /**
+     * Applies a setting given as a parameter of the repository URL, returning {@code false} if there is no setting
+     * called {@code name}
+     */
+    protected boolean applyParameter(String name, String value) {
+        switch (name) {
+            case "slicedDownloadThreshold":
+                setSlicedDownloadThreshold(Long.parseLong(value));
+                return true;
+            case "downloadSliceSize":
+                setDownloadSliceSize(Long.parseLong(value));
+                return true;
+            case "compositeUploadThreshold":
+                setCompositeUploadThreshold(Long.parseLong(value));
+                return true;
+            case "uploadPartSize":
+                setUploadPartSize(Long.parseLong(value));
+                return true;
+            case "transferThreads":
+                setTransferThreads(Integer.parseInt(value));
+                return true;
+            case "asyncThreads":
+                setAsyncThreads(Integer.parseInt(value));
+                return true;
+            case "mappedUploads":
+                setMappedUploads(value.isEmpty() || Boolean.parseBoolean(value));
+                return true;
+            case "resumableUploadThreshold":
+                setResumableUploadThreshold(Long.parseLong(value));
+                return true;
+            case "flatListing":
+                setFlatListing(value.isEmpty() || Boolean.parseBoolean(value));
+                return true;
+            case "listingShards":
+                setListingShards(Integer.parseInt(value));
+                return true;
+            case "hedgePercentile":
+                setHedgePercentile(Double.parseDouble(value));
+                return true;
+            case "pooledConnections":
+                setPooledConnections(Boolean.parseBoolean(value));
+                return true;
+            case "maxConnections":
+                setMaxConnections(Integer.parseInt(value));
+                return true;
+            case "maxConnectionsPerRoute":
+                setMaxConnectionsPerRoute(Integer.parseInt(value));
+                return true;
+            case "keepAlive":
+                setKeepAlive(Long.parseLong(value));
+                return true;
+            case "socketBufferSize":
+                setSocketBufferSize(Integer.parseInt(value));
+                return true;
+            case "uploadChunkSize":
+                setUploadChunkSize(Integer.parseInt(value));
+                return true;
+            case "downloadChunkSize":
+                setDownloadChunkSize(Integer.parseInt(value));
+                return true;
+            case "coalesceRequests":
+                setCoalesceRequests(Boolean.parseBoolean(value));
+                return true;
+            case "metadataCacheTtl":
+                setMetadataCacheTtl(Long.parseLong(value));
+                return true;
+            case "metadataCacheSize":
+                setMetadataCacheSize(Integer.parseInt(value));
+                return true;
+            case "missingCacheTtl":
+                setMissingCacheTtl(Long.parseLong(value));
+                return true;
+            case "listingFilters":
+                setListingFilters(Boolean.parseBoolean(value));
+                return true;
+            case "cacheDirectory":
+                setCacheDirectory(value);
+                return true;
+            case "cacheMaxBytes":
+                setCacheMaxBytes(Long.parseLong(value));
+                return true;
+            case "cacheMaxObjectSize":
+                setCacheMaxObjectSize(Long.parseLong(value));
+                return true;
+            case "blobStoreDirectory":
+                setBlobStoreDirectory(value);
+                return true;
+            case "blobStoreMaxBytes":
+                setBlobStoreMaxBytes(Long.parseLong(value));
+                return true;
+            case "localProxy":
+                setLocalProxy(Boolean.parseBoolean(value));
+                return true;
+            case "localProxyPort":
+                setLocalProxyPort(Integer.parseInt(value));
+                return true;
+            case "timeout":
+                setTimeout(Integer.parseInt(value));
+                return true;
+            case "readTimeout":
+                setReadTimeout(Integer.parseInt(value));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+
     @Override
     protected void disconnectFromRepository() {
-        this.storage = null;
-        this.bucketName = null;
-        this.baseDirectory = null;
+        LOG.debug("GCS requests made by this session: {}", this.metrics);
+        LOG.debug("GCS lookups answered without a request: {}%",
+                  String.format(Locale.ROOT, "%.1f", this.metrics.getLookupHitRatio() * 100));
+        LOG.debug("GCS credentials: {}", CredentialCache.getInstance());
+        LOG.debug("GCS metadata cache: {}", MetadataCache.getInstance());
+        awaitAsyncTransfers();
+        shutdownExecutors();
+        if (this.clientLease != null) {
+            this.clientLease.release();
+            this.clientLease = null;
+        }
+        synchronized (this) {
+            this.storage = null;
+            this.proxyClient = null;
+            this.bucketName = null;
+            this.baseDirectory = null;
+            this.disconnecting = false;
+        }
     }
 
     @Override
     protected boolean doesRemoteResourceExist(String resourceName) throws AuthorizationException, TransferFailedException {
+        LocalProxyClient proxy = this.proxyClient;
+        if (proxy != null) {
+            try {
+                return proxy.exists(this.bucketName, getKey(resourceName));
+            } catch (IOException e) {
+                LOG.debug("GCS proxy cannot check '{}', going to GCS directly", resourceName, e);
+            }
+        }
         try {
-            return getBlob(resourceName) != null;
+            return getMetadata(resourceName) != null;
         } catch (StorageException e) {
             try {
                 throw GcsClientExceptions.propagateForAccess(e, resourceName);
@@ -127,11 +798,20 @@ public class SimpleStorageServiceWagon extends AbstractWagon {
 
     @Override
     protected boolean isRemoteResourceNewer(String resourceName, long timestamp) throws ResourceDoesNotExistException, TransferFailedException, AuthorizationException {
+        LocalProxyClient proxy = this.proxyClient;
+        if (proxy != null) {
+            try {
+                Long lastModified = proxy.getUpdateTime(this.bucketName, getKey(resourceName));
+                return lastModified == null || lastModified > timestamp;
+            } catch (IOException e) {
+                LOG.debug("GCS proxy cannot check '{}', going to GCS directly", resourceName, e);
+            }
+        }
         try {
-            Blob blob = getBlob(resourceName, BlobField.UPDATED);
-            GcsUtils.ensureBlobExists(blob, getKey(resourceName));
+            MetadataCache.Metadata metadata = getMetadata(resourceName, BlobField.UPDATED);
+            GcsUtils.ensureBlobExists(metadata, getKey(resourceName));
 
-            Long lastModified = blob.getUpdateTime();
+            Long lastModified = metadata.getUpdateTime();
             return lastModified == null || lastModified > timestamp;
         } catch (StorageException e) {
             throw GcsClientExceptions.propagateForAccess(e, resourceName);
@@ -142,50 +822,308 @@ public class SimpleStorageServiceWagon extends AbstractWagon {
     protected List<String> listDirectory(String directory) throws ResourceDoesNotExistException, TransferFailedException, AuthorizationException {
         try {
             String prefix = ensureTrailingSlash(getKey(directory));
+            if (this.flatListing) {
+                return new ShardedListing(this.storage, getTransferExecutor(), this.metrics, this.listingShards)
+                    .list(this.bucketName, prefix);
+            } else {
+                return listRecursive(prefix);
+            }
+        } catch (StorageException e) {
+            throw GcsClientExceptions.propagateForAccess(e, directory);
+        } catch (IOException e) {
+            throw new TransferFailedException(String.format("Cannot list '%s'", directory), e);
+        }
+    }
 
-            Page<Blob> blobs = this.storage.list(
-                this.bucketName,
-                BlobListOption.currentDirectory(),
-                BlobListOption.prefix(prefix)
-            );
+    private List<String> listRecursive(String prefix) {
+        this.metrics.increment(GcsMetrics.Counter.LIST_REQUESTS);
+        Page<Blob> blobs = this.storage.list(
+            this.bucketName,
+            BlobListOption.currentDirectory(),
+            BlobListOption.prefix(prefix)
+        );
 
-            List<String> directoryContents = new ArrayList<>();
-            for (Blob blob : blobs.iterateAll()) {
-                directoryContents.add(blob.getName());
-                if (blob.isDirectory()) {
-                  for (String nestedFile : listDirectory(blob.getName())) {
-                    directoryContents.add(blob.getName() + nestedFile);
-                  }
-                }
+        List<String> directoryContents = new ArrayList<>();
+        for (Blob blob : blobs.iterateAll()) {
+            String path = blob.getName().substring(prefix.length());
+            if (path.isEmpty()) {
+                continue;
+            }
+            directoryContents.add(path);
+            if (blob.isDirectory()) {
+              for (String nestedFile : listRecursive(blob.getName())) {
+                directoryContents.add(path + nestedFile);
+              }
+            }
+        }
+
+        return directoryContents;
+    }
+
+    @Override
+    protected void getResource(final String resourceName, final File destination,
+                               final TransferProgress transferProgress)
+            throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
+        String key = getKey(resourceName);
+        LocalProxyClient proxy = this.proxyClient;
+        if (proxy != null) {
+            try {
+                proxy.download(this.bucketName, key, destination, transferProgress);
+                return;
+            } catch (IOException e) {
+                LOG.debug("GCS proxy cannot download '{}', going to GCS directly", resourceName, e);
+            }
+        }
+        if (isKnownMissing(key)) {
+            throw new ResourceDoesNotExistException("Could not find key: " + key);
+        }
+
+        this.metrics.increment(GcsMetrics.Counter.CACHE_MISSES);
+        long mark = MetadataCache.getInstance().mark();
+        try {
+            if (this.coalesceRequests) {
+                coalesceResource(resourceName, destination, transferProgress);
+            } else {
+                loadResource(resourceName, destination, transferProgress);
             }
+        } catch (ResourceDoesNotExistException e) {
+            cacheMissing(key, mark);
+            throw e;
+        }
+    }
+
+    private void coalesceResource(final String resourceName, final File destination,
+                                  final TransferProgress transferProgress)
+            throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
+        List<Object> flight = Arrays.<Object>asList(this.storage, this.bucketName, getKey(resourceName));
+        try {
+            DOWNLOAD_FLIGHTS.execute(flight, new Callable<File>() {
+
+                @Override
+                public File call() throws Exception {
+                    loadResource(resourceName, destination, transferProgress);
+                    return destination;
+                }
+            }, new SingleFlight.Follower<File>() {
 
-            return directoryContents;
+                @Override
+                public void follow(File downloaded) throws TransferFailedException {
+                    copyDownload(downloaded, destination, transferProgress);
+                }
+            });
+        } catch (TransferFailedException | ResourceDoesNotExistException | AuthorizationException
+                 | RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransferFailedException(String.format("Interrupted while waiting for '%s'", resourceName), e);
+        } catch (Exception e) {
+            throw new TransferFailedException(String.format("Cannot read '%s'", resourceName), e);
+        }
+    }
+
+    /**
+     * Copy a resource from the cache directory if the object has not changed since it was cached, or from the blob
+     * store if it holds the same content, or else download it and keep it in both
+     */
+    private void loadResource(String resourceName, File destination, TransferProgress transferProgress)
+            throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
+        DiskCache cache = getDiskCache();
+        BlobStore store = getBlobStore();
+        if (cache == null && store == null) {
+            fetchResource(resourceName, destination, transferProgress);
+            return;
+        }
+
+        String key = getKey(resourceName);
+        Long generation = cache == null ? null : cache.getGeneration(this.bucketName, key);
+        List<BlobField> fields = new ArrayList<>(
+            Arrays.asList(BlobField.GENERATION, BlobField.METAGENERATION, BlobField.SIZE));
+        if (store != null) {
+            fields.add(BlobField.CRC32C);
+            fields.add(BlobField.MD5HASH);
+        }
+        List<BlobGetOption> options = new ArrayList<>();
+        options.add(BlobGetOption.fields(fields.toArray(new BlobField[fields.size()])));
+        if (generation != null) {
+            options.add(BlobGetOption.generationNotMatch(generation));
+        }
+
+        Blob blob = null;
+        try {
+            blob = getBlob(key, options.toArray(new BlobGetOption[options.size()]));
+            GcsUtils.ensureBlobExists(blob, key);
         } catch (StorageException e) {
-            throw GcsClientExceptions.propagateForAccess(e, directory);
+            if (e.getCode() != HTTP_NOT_MODIFIED) {
+                throw GcsClientExceptions.propagateForRead(e, resourceName);
+            }
+            if (cache.copy(this.bucketName, key, generation, destination.toPath())) {
+                this.metrics.increment(GcsMetrics.Counter.DISK_CACHE_HITS);
+                notifyCopy(destination, transferProgress);
+                return;
+            }
+        }
+
+        boolean stored = store != null && blob != null && blob.getCrc32c() != null && blob.getSize() != null;
+        if (stored && store.get(blob.getCrc32c(), blob.getMd5(), blob.getSize(), destination.toPath())) {
+            this.metrics.increment(GcsMetrics.Counter.BLOB_STORE_HITS);
+            notifyCopy(destination, transferProgress);
+            return;
+        }
+
+        fetchResource(resourceName, destination, transferProgress);
+        if (cache != null && blob != null && blob.getSize() != null && blob.getSize() <= this.cacheMaxObjectSize) {
+            cache.put(this.bucketName, key, blob.getGeneration(),
+                      blob.getMetageneration() == null ? 0 : blob.getMetageneration(), destination.toPath());
+        }
+        if (stored) {
+            store.put(blob.getCrc32c(), blob.getMd5(), blob.getSize(), destination.toPath());
         }
     }
 
-    @Override
-    protected void getResource(String resourceName, File destination, TransferProgress transferProgress)
+    /**
+     * Download a resource to {@code destination}, making the requests to GCS. Identical downloads that arrive while
+     * this is in progress are given a copy of the file once it completes.
+     */
+    protected void fetchResource(String resourceName, File destination, TransferProgress transferProgress)
             throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
-        try (OutputStream out = new TransferProgressFileOutputStream(destination, transferProgress)) {
-            Blob blob = getBlob(resourceName);
-            GcsUtils.ensureBlobExists(blob, getKey(resourceName));
+        PartialDownload partialDownload = new PartialDownload(destination);
+        try {
+            getResource(resourceName, partialDownload, transferProgress);
+        } finally {
+            partialDownload.discard();
+        }
+    }
 
-            transferProgress.startTransferAttempt();
-            blob.downloadTo(out);
+    /**
+     * Download a resource into a {@link PartialDownload}, continuing from whatever an earlier attempt with the same
+     * {@link PartialDownload} left on disk, and move it into place once complete
+     */
+    protected void getResource(String resourceName, PartialDownload partialDownload, TransferProgress transferProgress)
+            throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
+        String key = getKey(resourceName);
+        TransferProgress trackedProgress = partialDownload.track(transferProgress);
+
+        try {
+            if (partialDownload.getLength() > 0) {
+                resumeDownload(resourceName, partialDownload, trackedProgress);
+            } else {
+                download(resourceName, partialDownload, trackedProgress);
+            }
+            partialDownload.complete();
         } catch (StorageException e) {
             throw GcsClientExceptions.propagateForRead(e, resourceName);
         } catch (FileNotFoundException e) {
-            throw new TransferFailedException(String.format("Cannot write file to '%s'", destination), e);
+            throw new TransferFailedException(String.format("Cannot write file to '%s'", partialDownload.getFile()), e);
         } catch (IOException e) {
-            throw new TransferFailedException(String.format("Cannot read from '%s' and write to '%s'", resourceName, destination), e);
+            throw new TransferFailedException(String.format("Cannot read from '%s' and write to '%s'", key,
+                                                            partialDownload.getFile()), e);
+        }
+    }
+
+    private void download(String resourceName, PartialDownload partialDownload, TransferProgress transferProgress)
+            throws IOException, ResourceDoesNotExistException {
+        String key = getKey(resourceName);
+
+        this.metrics.increment(GcsMetrics.Counter.READ_REQUESTS);
+        try (ReadChannel reader = this.storage.reader(this.bucketName, key);
+             FileChannel out = FileChannel.open(partialDownload.getFile().toPath(),
+                                                StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            transferProgress.startTransferAttempt();
+
+            Blob blob;
+            ByteBuffer buffer = BufferPool.acquire();
+            try {
+                // The first chunk, a request of exactly one buffer, tells small objects, which are done in this one
+                // request, from large ones that may be worth slicing. A 404 surfaces here as a StorageException.
+                reader.setChunkSize(buffer.capacity());
+                if (!IoUtils.transferBuffer(reader, buffer, out, transferProgress)) {
+                    return;
+                }
+
+                blob = getBlob(resourceName, BlobField.SIZE, BlobField.GENERATION);
+                GcsUtils.ensureBlobExists(blob, key);
+
+                // The reader fails the request for the next chunk if the object is no longer the one the first chunk
+                // came from. Generations only increase, so the metadata read in between names that same generation,
+                // and a later attempt can continue from the bytes on disk at it.
+                reader.setChunkSize(this.downloadChunkSize);
+                if (!IoUtils.transferBuffer(reader, buffer, out, transferProgress)) {
+                    return;
+                }
+                partialDownload.setGeneration(blob.getGeneration());
+            } finally {
+                BufferPool.release(buffer);
+            }
+
+            long position = out.size();
+            if (isSlicedDownload(blob)) {
+                newSlicedDownload()
+                    .download(blob.getBlobId(), position, blob.getSize(), partialDownload.getFile(), transferProgress);
+                return;
+            }
+            IoUtils.transfer(reader, out, position, transferProgress);
+        }
+    }
+
+    private void resumeDownload(String resourceName, PartialDownload partialDownload,
+                                TransferProgress transferProgress) throws IOException, ResourceDoesNotExistException {
+        Blob blob = getBlob(resourceName, BlobField.SIZE, BlobField.GENERATION);
+        GcsUtils.ensureBlobExists(blob, getKey(resourceName));
+
+        long position = partialDownload.resume(blob);
+        transferProgress.resumeTransferAttempt(position);
+
+        if (isSlicedDownload(blob)) {
+            newSlicedDownload()
+                .download(blob.getBlobId(), position, blob.getSize(), partialDownload.getFile(), transferProgress);
+            return;
+        }
+
+        this.metrics.increment(GcsMetrics.Counter.READ_REQUESTS);
+        try (ReadChannel reader = this.storage.reader(blob.getBlobId());
+             FileChannel out = FileChannel.open(partialDownload.getFile().toPath(), StandardOpenOption.WRITE)) {
+            reader.setChunkSize(this.downloadChunkSize);
+            reader.seek(position);
+            IoUtils.transfer(reader, out, position, transferProgress);
         }
     }
 
     @Override
     protected void putResource(File source, String destination, TransferProgress transferProgress)
             throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
+        putResource(newResumableUpload(source), destination, transferProgress);
+    }
+
+    // One request that carries both the metadata and the content, which saves the round trip that starts a resumable
+    // session. The client also sends checksums of the content for GCS to verify.
+    private void create(File source, BlobInfo blobInfo, TransferProgress transferProgress) throws IOException {
+        byte[] content = Files.readAllBytes(source.toPath());
+
+        this.metrics.increment(GcsMetrics.Counter.WRITE_REQUESTS);
+        this.storage.create(blobInfo, content);
+        transferProgress.notify(content, content.length);
+    }
+
+    /**
+     * Creates the {@link ResumableUpload} that uploads {@code source}, configured the way this wagon is
+     */
+    protected ResumableUpload newResumableUpload(File source) {
+        if (this.uploadChunkSize > 0) {
+            return new ResumableUpload(source, this.uploadChunkSize, this.mappedUploads);
+        }
+        return new ResumableUpload(source, this.mappedUploads);
+    }
+
+    /**
+     * Upload a file through a {@link ResumableUpload}, continuing the upload session of an earlier attempt with the same
+     * {@link ResumableUpload} from the last chunk GCS accepted
+     */
+    protected void putResource(ResumableUpload resumableUpload, String destination, TransferProgress transferProgress)
+            throws TransferFailedException, ResourceDoesNotExistException, AuthorizationException {
+        File source = resumableUpload.getSource();
         String key = getKey(destination);
 
         final String contentType;
@@ -199,27 +1137,376 @@ public class SimpleStorageServiceWagon extends AbstractWagon {
             .setContentType(contentType)
             .build();
 
-        try (InputStream inputStream = new TransferProgressFileInputStream(source, transferProgress);
-             WriteChannel outputChannel = this.storage.writer(blobInfo);
-             OutputStream outputStream = Channels.newOutputStream(outputChannel)) {
-            IoUtils.copy(inputStream, outputStream);
+        try {
+            MetadataCache.getInstance().invalidate(this.bucketName, key);
+            ListingFilters.getInstance().add(this.bucketName, key);
+            if (isCompositeUpload(source)) {
+                transferProgress.startTransferAttempt();
+                new CompositeUpload(this.storage, getTransferExecutor(), this.metrics, this.uploadPartSize,
+                                    new PartRunner())
+                    .upload(source, blobInfo, transferProgress);
+            } else if (source.length() < this.resumableUploadThreshold) {
+                transferProgress.startTransferAttempt();
+                create(source, blobInfo, transferProgress);
+            } else {
+                resumableUpload.upload(this.storage, blobInfo, this.metrics, transferProgress);
+            }
         } catch (StorageException e) {
             throw GcsClientExceptions.propagateForWrite(e, key);
-        } catch (FileNotFoundException e) {
+        } catch (FileNotFoundException | NoSuchFileException e) {
             throw new TransferFailedException("Cannot find file: " + source, e);
         } catch (IOException e) {
             throw new TransferFailedException(String.format("Cannot read from '%s' and write to '%s'", source, key), e);
+        } finally {
+            // again, in case a check cached the object while it was being uploaded
+            MetadataCache.getInstance().invalidate(this.bucketName, key);
         }
     }
 
+    /**
+     * Returns whether {@link #putResource} will upload {@code source} as a composite of concurrently uploaded parts
+     */
+    protected boolean isCompositeUpload(File source) {
+        return this.compositeUploadThreshold > 0 && source.length() >= this.compositeUploadThreshold;
+    }
+
+    /**
+     * Runs a single GCS operation that is one step of a larger transfer, such as one part of a composite upload. By
+     * default it is run exactly once.
+     */
+    protected <T> T callTransferPart(Callable<T> part) throws Exception {
+        return part.call();
+    }
+
+    private SlicedDownload newSlicedDownload() {
+        return new SlicedDownload(this.storage, getTransferExecutor(), this.metrics, this.downloadSliceSize,
+                                  this.downloadChunkSize);
+    }
+
+    private boolean isSlicedDownload(Blob blob) {
+        return this.slicedDownloadThreshold > 0
+            && blob.getSize() != null
+            && blob.getSize() >= this.slicedDownloadThreshold;
+    }
+
+    private synchronized ExecutorService getTransferExecutor() {
+        if (this.transferExecutor == null) {
+            this.transferExecutor = Executors.newFixedThreadPool(
+                Math.max(1, this.transferThreads),
+                new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("gcs-transfer-%d")
+                    .build()
+            );
+        }
+        return this.transferExecutor;
+    }
+
+    // Transfers are blocking calls to GCS, so what the async threads bound is how many are in flight at once
+    private synchronized <T> ListenableFuture<T> submitAsync(Callable<T> transfer) {
+        if (this.storage == null || this.disconnecting) {
+            return Futures.immediateFailedFuture(
+                new TransferFailedException("The wagon is not connected to a GCS repository"));
+        }
+        if (this.asyncExecutor == null) {
+            int threads = Math.max(1, this.asyncThreads);
+            this.asyncExecutor = new ThreadPoolExecutor(
+                threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("gcs-async-%d")
+                    .build()
+            );
+        }
+        ListenableFutureTask<T> task = ListenableFutureTask.create(transfer);
+        this.asyncExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * Stop async transfers from being started, cancel those still waiting for a thread rather than leave them never to
+     * complete, and wait for those in flight, which still need the connection, to finish
+     */
+    private void awaitAsyncTransfers() {
+        ThreadPoolExecutor executor;
+        synchronized (this) {
+            this.disconnecting = true;
+            executor = this.asyncExecutor;
+            this.asyncExecutor = null;
+            if (executor == null) {
+                return;
+            }
+            List<Runnable> waiting = new ArrayList<>();
+            executor.getQueue().drainTo(waiting);
+            for (Runnable task : waiting) {
+                ((Future<?>) task).cancel(false);
+            }
+            executor.shutdown();
+        }
+        // outside the lock, which the transfers in flight may need to finish
+        Uninterruptibles.awaitTerminationUninterruptibly(executor);
+    }
+
+    private synchronized void shutdownExecutors() {
+        if (this.transferExecutor != null) {
+            this.transferExecutor.shutdownNow();
+            this.transferExecutor = null;
+        }
+        if (this.hedgeExecutor != null) {
+            this.hedgeExecutor.shutdownNow();
+            this.hedgeExecutor = null;
+            this.hedgedRequests = null;
+        }
+    }
+
+    // A download that followed another gets its own copy of the file, reported as a transfer of its own
+    private void copyDownload(File downloaded, File destination, TransferProgress transferProgress)
+            throws TransferFailedException {
+        this.metrics.increment(GcsMetrics.Counter.COALESCED);
+        try {
+            if (!downloaded.equals(destination)) {
+                Files.copy(downloaded.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new TransferFailedException(String.format("Cannot copy '%s' to '%s'", downloaded, destination), e);
+        }
+        notifyCopy(destination, transferProgress);
+    }
+
+    // Reports a file that was copied rather than downloaded as though it had been downloaded
+    private void notifyCopy(File destination, TransferProgress transferProgress) throws TransferFailedException {
+        try (FileChannel channel = FileChannel.open(destination.toPath(), StandardOpenOption.READ)) {
+            transferProgress.startTransferAttempt();
+            IoUtils.notifyProgress(channel, 0, channel.size(), transferProgress);
+        } catch (IOException e) {
+            throw new TransferFailedException(String.format("Cannot read '%s'", destination), e);
+        }
+    }
+
+    private synchronized BlobStore getBlobStore() {
+        String directory = this.blobStoreDirectory;
+        if (directory == null || directory.isEmpty()) {
+            return null;
+        }
+        if (this.blobStore == null || !this.blobStore.getDirectory().equals(Paths.get(directory))
+            || this.blobStore.getMaxBytes() != this.blobStoreMaxBytes) {
+            this.blobStore = new BlobStore(Paths.get(directory), this.blobStoreMaxBytes);
+        }
+        return this.blobStore;
+    }
+
+    private synchronized DiskCache getDiskCache() {
+        String directory = this.cacheDirectory;
+        if (directory == null || directory.isEmpty()) {
+            return null;
+        }
+        if (this.diskCache == null || !this.diskCache.getDirectory().equals(Paths.get(directory))
+            || this.diskCache.getMaxBytes() != this.cacheMaxBytes) {
+            this.diskCache = new DiskCache(Paths.get(directory), this.cacheMaxBytes);
+        }
+        return this.diskCache;
+    }
+
+    /**
+     * Returns the metadata of an object, or {@code null} if there is none, from the metadata cache if it is enabled.
+     * Without the cache, only {@code fields} are fetched.
+     */
+    MetadataCache.Metadata getMetadata(String resourceName, BlobField... fields) {
+        MetadataCache cache = MetadataCache.getInstance();
+        String key = getKey(resourceName);
+        if (isKnownMissing(key)) {
+            return null;
+        }
+        if (this.metadataCacheTtl > 0) {
+            MetadataCache.Metadata metadata = cache.get(this.storage, this.bucketName, key, this.metadataCacheTtl);
+            if (metadata != null) {
+                this.metrics.increment(GcsMetrics.Counter.CACHE_HITS);
+                return metadata;
+            }
+        }
+
+        this.metrics.increment(GcsMetrics.Counter.CACHE_MISSES);
+        if (this.metadataCacheTtl <= 0 || !this.coalesceRequests) {
+            return lookupMetadata(resourceName, this.metadataCacheTtl > 0 ? CACHED_FIELDS : fields);
+        }
+
+        // A lookup that finished between the miss above and this one leading its own has already filled the cache
+        final String cachedKey = key;
+        final String cachedResourceName = resourceName;
+        List<Object> flight = Arrays.<Object>asList(this.storage, this.bucketName, key);
+        try {
+            return CACHED_LOOKUPS.execute(flight, new Callable<MetadataCache.Metadata>() {
+
+                @Override
+                public MetadataCache.Metadata call() {
+                    MetadataCache cache = MetadataCache.getInstance();
+                    MetadataCache.Metadata metadata = cache.get(storage, bucketName, cachedKey, metadataCacheTtl);
+                    if (metadata != null) {
+                        return metadata;
+                    }
+                    if (missingCacheTtl > 0 && cache.isMissing(storage, bucketName, cachedKey, missingCacheTtl)) {
+                        return null;
+                    }
+                    return lookupMetadata(cachedResourceName, CACHED_FIELDS);
+                }
+            }, new SingleFlight.Follower<MetadataCache.Metadata>() {
+
+                @Override
+                public void follow(MetadataCache.Metadata metadata) {
+                    metrics.increment(GcsMetrics.Counter.COALESCED);
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // only waiting for another caller's lookup throws anything else
+            Thread.currentThread().interrupt();
+            throw new StorageException(new InterruptedIOException("Interrupted while waiting for GCS"));
+        }
+    }
+
+    private MetadataCache.Metadata lookupMetadata(String resourceName, BlobField... fields) {
+        MetadataCache cache = MetadataCache.getInstance();
+        String key = getKey(resourceName);
+        long mark = cache.mark();
+        Blob blob = getBlob(resourceName, fields);
+        if (blob == null) {
+            cacheMissing(key, mark);
+            return null;
+        }
+        MetadataCache.Metadata metadata = MetadataCache.Metadata.of(blob);
+        if (this.metadataCacheTtl > 0) {
+            cache.put(this.storage, this.bucketName, key, metadata, mark);
+        }
+        return metadata;
+    }
+
+    /**
+     * Returns whether an object is known not to exist, from the cache of objects that were not found or from the
+     * listing filter for its directory, which is built first if there is none
+     */
+    private boolean isKnownMissing(String key) {
+        if (this.missingCacheTtl > 0
+            && MetadataCache.getInstance().isMissing(this.storage, this.bucketName, key, this.missingCacheTtl)) {
+            this.metrics.increment(GcsMetrics.Counter.MISSING_CACHE_HITS);
+            return true;
+        }
+        if (this.listingFilters && this.missingCacheTtl > 0 && !getListingFilter(key)) {
+            this.metrics.increment(GcsMetrics.Counter.FILTER_HITS);
+            return true;
+        }
+        return false;
+    }
+
+    private void cacheMissing(String key, long mark) {
+        if (this.missingCacheTtl > 0) {
+            MetadataCache.getInstance().put(this.storage, this.bucketName, key, null, mark);
+        }
+    }
+
+    // Returns whether the listing filter for the directory of key says it may exist
+    private boolean getListingFilter(String key) {
+        ListingFilters filters = ListingFilters.getInstance();
+        Boolean mightContain = filters.mightContain(this.storage, this.bucketName, key, this.missingCacheTtl);
+        if (mightContain != null) {
+            return mightContain;
+        }
+
+        long mark = filters.mark();
+        String prefix = ListingFilters.getPrefix(key);
+        Set<String> keys = new HashSet<>();
+        try {
+            this.metrics.increment(GcsMetrics.Counter.LIST_REQUESTS);
+            Page<Blob> page = this.storage.list(
+                this.bucketName,
+                BlobListOption.currentDirectory(),
+                BlobListOption.prefix(prefix),
+                BlobListOption.fields(BlobField.NAME)
+            );
+            for (Blob blob : page.iterateAll()) {
+                if (keys.size() == ListingFilters.MAX_KEYS) {
+                    keys = null;
+                    break;
+                }
+                keys.add(blob.getName());
+            }
+        } catch (StorageException e) {
+            // the filter only saves requests, so the lookup goes ahead without one
+            LOG.debug("Cannot list '{}' to filter lookups", prefix, e);
+            return true;
+        }
+        filters.put(this.storage, this.bucketName, prefix, keys, mark);
+        return keys == null || keys.contains(key);
+    }
+
     private Blob getBlob(String resourceName, BlobField... fields) {
+        final String key = getKey(resourceName);
+        final BlobGetOption option = BlobGetOption.fields(fields);
+        if (!this.coalesceRequests) {
+            return requestBlob(key, option);
+        }
+
+        List<Object> flight = Arrays.<Object>asList(this.storage, this.bucketName, key, Arrays.asList(fields));
+        try {
+            return METADATA_FLIGHTS.execute(flight, new Callable<Blob>() {
+
+                @Override
+                public Blob call() {
+                    return requestBlob(key, option);
+                }
+            }, new SingleFlight.Follower<Blob>() {
+
+                @Override
+                public void follow(Blob blob) {
+                    metrics.increment(GcsMetrics.Counter.COALESCED);
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // only waiting for another caller's request throws anything else
+            Thread.currentThread().interrupt();
+            throw new StorageException(new InterruptedIOException("Interrupted while waiting for GCS"));
+        }
+    }
+
+    private Blob requestBlob(final String key, final BlobGetOption option) {
+        if (this.hedgePercentile <= 0) {
+            return getBlob(key, option);
+        }
+
+        return getHedgedRequests().call(new Callable<Blob>() {
+
+            @Override
+            public Blob call() {
+                return getBlob(key, option);
+            }
+        });
+    }
+
+    private Blob getBlob(String key, BlobGetOption... options) {
+        this.metrics.increment(GcsMetrics.Counter.METADATA_REQUESTS);
         return this.storage.get(
             this.bucketName,
-            getKey(resourceName),
-            BlobGetOption.fields(fields)
+            key,
+            options
         );
     }
 
+    // Hedges get threads of their own, which are only busy while a request is slow
+    private synchronized HedgedRequests getHedgedRequests() {
+        if (this.hedgedRequests == null) {
+            this.hedgeExecutor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("gcs-hedge-%d")
+                    .build()
+            );
+            this.hedgedRequests = new HedgedRequests(this.hedgeExecutor, this.metrics, this.hedgePercentile);
+        }
+        return this.hedgedRequests;
+    }
+
     private String getKey(String resourceName) {
         return String.format(KEY_FORMAT, this.baseDirectory, resourceName);
     }
@@ -232,25 +1519,25 @@ public class SimpleStorageServiceWagon extends AbstractWagon {
         }
     }
 
-    private static GoogleCredentials buildCredentials(AuthenticationInfo authenticationInfo) throws AuthenticationException {
+    private final class PartRunner implements CompositeUpload.PartRunner {
+
+        @Override
+        public <T> T run(Callable<T> part) throws Exception {
+            return callTransferPart(part);
+        }
+    }
+
+    private static Path getCredentialsPath(AuthenticationInfo authenticationInfo) {
         String credentialsPathString = authenticationInfo.getPassword();
 
-        final Path credentialsPath;
         if (credentialsPathString.startsWith("~/")) {
             String subPath = credentialsPathString.substring(2);
             Path homePath = Paths.get(System.getProperty("user.home"));
-            credentialsPath = homePath.resolve(subPath);
+            return homePath.resolve(subPath).toAbsolutePath().normalize();
         } else {
-            credentialsPath = Paths.get(credentialsPathString);
-        }
-
-        try {
-            return GoogleCredentials
-                .fromStream(Files.newInputStream(credentialsPath, StandardOpenOption.READ))
-                .createScoped(StorageScopes.CLOUD_PLATFORM);
-        } catch (IOException e) {
-            throw new AuthenticationException("Error loading GCS credentials", e);
+            return Paths.get(credentialsPathString).toAbsolutePath().normalize();
         }
     }
 
+
 }
@@ -0,0 +1,138 @@
+package org.springframework.build.gcs.maven;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Coalesces concurrent calls for the same key into one: the first caller, the leader, makes the call, and callers that
+ * arrive while it is in flight wait for its result instead of making their own.
+ * <p/>
+ * Each follower can be given a {@link Follower} to run with the result, such as copying a downloaded file, and the
+ * leader does not return until every follower has finished with it.
+ */
+final class SingleFlight<K, V> {
+
+  /**
+   * What a follower does with the leader's result
+   */
+  interface Follower<V> {
+    void follow(V result) throws Exception;
+  }
+
+  private final Map<K, Flight<V>> flights = new HashMap<>();
+
+  /**
+   * Returns the result of {@code call}, made by this thread or by another one that is making it for the same key
+   */
+  V execute(K key, Callable<V> call) throws Exception {
+    return execute(key, call, null);
+  }
+
+  /**
+   * Returns the result of {@code call}, made by this thread or by another one that is making it for the same key, in
+   * which case {@code follower} is run with the result before this returns
+   */
+  V execute(K key, Callable<V> call, Follower<V> follower) throws Exception {
+    Flight<V> flight;
+    boolean leader;
+    synchronized (flights) {
+      flight = flights.get(key);
+      leader = flight == null;
+      if (leader) {
+        flight = new Flight<>();
+        flights.put(key, flight);
+      } else {
+        flight.join();
+      }
+    }
+    return leader ? lead(key, flight, call) : follow(flight, follower);
+  }
+
+  int size() {
+    synchronized (flights) {
+      return flights.size();
+    }
+  }
+
+  private V lead(K key, Flight<V> flight, Callable<V> call) throws Exception {
+    V result = null;
+    Exception failure = new IllegalStateException("The coalesced call did not complete");
+    try {
+      result = call.call();
+      failure = null;
+      return result;
+    } catch (Exception e) {
+      failure = e;
+      throw e;
+    } finally {
+      // callers that arrive from here on make a call of their own
+      synchronized (flights) {
+        flights.remove(key);
+      }
+      flight.complete(result, failure);
+      flight.awaitFollowers();
+    }
+  }
+
+  private V follow(Flight<V> flight, Follower<V> follower) throws Exception {
+    try {
+      V result = flight.await();
+      if (follower != null) {
+        follower.follow(result);
+      }
+      return result;
+    } finally {
+      flight.leave();
+    }
+  }
+
+  private static final class Flight<V> {
+
+    private int followers;
+    private boolean done;
+    private V result;
+    private Exception failure;
+
+    private synchronized void join() {
+      followers++;
+    }
+
+    private synchronized void leave() {
+      followers--;
+      notifyAll();
+    }
+
+    private synchronized void complete(V result, Exception failure) {
+      this.result = result;
+      this.failure = failure;
+      this.done = true;
+      notifyAll();
+    }
+
+    // A follower that is interrupted stops waiting, but still leaves the flight
+    private synchronized V await() throws Exception {
+      while (!done) {
+        wait();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return result;
+    }
+
+    private synchronized void awaitFollowers() {
+      boolean interrupted = false;
+      while (followers > 0) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+
+/**
+ * Downloads a blob as a set of byte ranges that are fetched concurrently and written straight into their place in the
+ * destination file. Every range is read from the generation named by the {@link BlobId}, so an overwrite that races
+ * with the download fails it instead of producing a file stitched together from two objects.
+ * <p/>
+ * Progress is reported on the calling thread, one slice at a time and in file order, so listeners still see a single
+ * ordered stream of bytes. That also means that when a download fails, everything that was reported is on disk and can
+ * be resumed from.
+ */
+final class SlicedDownload {
+
+  static final int READ_CHUNK_SIZE = BufferPool.BUFFER_SIZE;
+
+  private final Storage storage;
+  private final ExecutorService executor;
+  private final GcsMetrics metrics;
+  private final int readChunkSize;
+  private final long sliceSize;
+
+  SlicedDownload(Storage storage, ExecutorService executor, GcsMetrics metrics, long sliceSize) {
+    this(storage, executor, metrics, sliceSize, READ_CHUNK_SIZE);
+  }
+
+  /**
+   * @param readChunkSize the number of bytes each slice asks GCS for in one request
+   */
+  SlicedDownload(Storage storage, ExecutorService executor, GcsMetrics metrics, long sliceSize, int readChunkSize) {
+    this.storage = storage;
+    this.executor = executor;
+    this.metrics = metrics;
+    this.readChunkSize = Math.max(1, readChunkSize);
+    this.sliceSize = alignToReadChunk(sliceSize, this.readChunkSize);
+  }
+
+  /**
+   * Download the bytes of a blob from {@code start} onwards into the same positions of {@code destination}. Anything
+   * already in the destination beyond {@code start} is discarded.
+   */
+  void download(BlobId blobId, long start, long size, File destination, TransferProgress transferProgress)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(destination.toPath(),
+                                                StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE,
+                                                StandardOpenOption.READ)) {
+      channel.truncate(start);
+
+      List<Future<Void>> slices = new ArrayList<>();
+      try {
+        for (long position = start; position < size; position += sliceSize) {
+          long length = Math.min(sliceSize, size - position);
+          slices.add(executor.submit(new SliceTask(blobId, channel, position, length)));
+        }
+
+        long position = start;
+        for (Future<Void> slice : slices) {
+          await(slice);
+          long length = Math.min(sliceSize, size - position);
+          IoUtils.notifyProgress(channel, position, length, transferProgress);
+          position += length;
+        }
+      } finally {
+        for (Future<Void> slice : slices) {
+          slice.cancel(true);
+        }
+      }
+    }
+  }
+
+  // Slices larger than a read chunk are kept to a whole number of chunks so that no slice asks GCS for bytes that
+  // belong to its neighbour
+  private static long alignToReadChunk(long sliceSize, int readChunkSize) {
+    if (sliceSize <= readChunkSize) {
+      return Math.max(1, sliceSize);
+    }
+    return ((sliceSize + readChunkSize - 1) / readChunkSize) * readChunkSize;
+  }
+
+  private static void await(Future<Void> slice) throws IOException {
+    try {
+      slice.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for download slice");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw new IOException("Download slice failed", cause);
+      }
+    }
+  }
+
+  private final class SliceTask implements Callable<Void> {
+
+    private final BlobId blobId;
+    private final FileChannel channel;
+    private final long start;
+    private final long length;
+
+    private SliceTask(BlobId blobId, FileChannel channel, long start, long length) {
+      this.blobId = blobId;
+      this.channel = channel;
+      this.start = start;
+      this.length = length;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      int chunkSize = (int) Math.min(length, readChunkSize);
+      ByteBuffer buffer = BufferPool.acquire();
+
+      metrics.increment(GcsMetrics.Counter.READ_REQUESTS);
+      try (ReadChannel reader = storage.reader(blobId)) {
+        reader.setChunkSize(chunkSize);
+        reader.seek(start);
+
+        long written = 0;
+        while (written < length) {
+          buffer.clear();
+          buffer.limit((int) Math.min(Math.min(chunkSize, buffer.capacity()), length - written));
+          if (reader.read(buffer) < 0) {
+            throw new IOException(String.format("Unexpected end of '%s' at byte %d", blobId, start + written));
+          }
+
+          buffer.flip();
+          while (buffer.hasRemaining()) {
+            written += channel.write(buffer, start + written);
+          }
+        }
+      } finally {
+        BufferPool.release(buffer);
+      }
+      return null;
+    }
+  }
+}
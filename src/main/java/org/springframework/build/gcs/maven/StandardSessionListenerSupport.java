@@ -16,8 +16,8 @@
 
 package org.springframework.build.gcs.maven;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.apache.maven.wagon.Wagon;
 import org.apache.maven.wagon.events.SessionEvent;
@@ -27,7 +27,7 @@ final class StandardSessionListenerSupport implements SessionListenerSupport {
 
     private final Wagon wagon;
 
-    private final Set<SessionListener> sessionListeners = new HashSet<SessionListener>();
+    private final Set<SessionListener> sessionListeners = new CopyOnWriteArraySet<SessionListener>();
 
     StandardSessionListenerSupport(Wagon wagon) {
         this.wagon = wagon;
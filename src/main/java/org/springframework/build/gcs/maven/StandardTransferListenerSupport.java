@@ -16,8 +16,8 @@
 
 package org.springframework.build.gcs.maven;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.apache.maven.wagon.Wagon;
 import org.apache.maven.wagon.events.TransferEvent;
@@ -28,7 +28,7 @@ final class StandardTransferListenerSupport implements TransferListenerSupport {
 
     private final Wagon wagon;
 
-    private final Set<TransferListener> transferListeners = new HashSet<TransferListener>();
+    private final Set<TransferListener> transferListeners = new CopyOnWriteArraySet<TransferListener>();
 
     StandardTransferListenerSupport(Wagon wagon) {
         this.wagon = wagon;
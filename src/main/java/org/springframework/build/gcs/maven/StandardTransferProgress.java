@@ -39,4 +39,7 @@ final class StandardTransferProgress implements TransferProgress {
 
     @Override
     public void startTransferAttempt() {}
+
+    @Override
+    public void resumeTransferAttempt(long position) {}
 }
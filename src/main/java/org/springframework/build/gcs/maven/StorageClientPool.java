@@ -0,0 +1,246 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.wagon.authentication.AuthenticationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.auth.http.HttpTransportFactory;
+import com.google.cloud.http.HttpTransportOptions;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A JVM-wide pool of {@link Storage} clients, so that the wagons Maven creates for each repository session reuse one
+ * client, with its credentials and warm connections, instead of building their own.
+ * <p/>
+ * Clients are shared by everything that asks for the same {@link Key}, and counted out and back in. A client nobody
+ * has held for {@link #IDLE_TIMEOUT_MILLIS} is dropped, and the connections of its transport closed.
+ */
+final class StorageClientPool {
+
+  static final long IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  private static final Logger LOG = LoggerFactory.getLogger(StorageClientPool.class);
+
+  private static final StorageClientPool INSTANCE = new StorageClientPool(IDLE_TIMEOUT_MILLIS);
+
+  /**
+   * Builds the client for a key the pool has no client for
+   */
+  interface ClientFactory {
+    Storage create() throws AuthenticationException;
+  }
+
+  private final long idleTimeoutMillis;
+  private final Map<Key, Entry> clients = new HashMap<>();
+
+  private ScheduledExecutorService evictor;
+
+  StorageClientPool(long idleTimeoutMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+  }
+
+  static StorageClientPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Take a client for {@code key}, building one with {@code factory} if the pool has none. The lease must be released
+   * once the client is no longer used.
+   */
+  synchronized Lease acquire(Key key, ClientFactory factory) throws AuthenticationException {
+    Entry entry = clients.get(key);
+    if (entry == null) {
+      LOG.debug("Creating GCS client for {}", key);
+      Storage storage = factory.create();
+      entry = new Entry(storage, transportOf(storage));
+      clients.put(key, entry);
+    } else {
+      LOG.debug("Reusing GCS client for {}", key);
+    }
+    entry.references++;
+    return new Lease(key, entry.storage);
+  }
+
+  /**
+   * Drop every client that has been idle since before {@code now - idleTimeout}
+   */
+  synchronized void evictIdle(long now) {
+    Iterator<Map.Entry<Key, Entry>> iterator = clients.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Key, Entry> client = iterator.next();
+      Entry entry = client.getValue();
+      if (entry.references == 0 && now - entry.idleSince >= idleTimeoutMillis) {
+        LOG.debug("Evicting idle GCS client for {}", client.getKey());
+        iterator.remove();
+        shutdown(client.getKey(), entry.transport);
+      }
+    }
+
+    if (clients.isEmpty() && evictor != null) {
+      evictor.shutdown();
+      evictor = null;
+    }
+  }
+
+  synchronized int size() {
+    return clients.size();
+  }
+
+  private synchronized void release(Key key, Storage storage) {
+    Entry entry = clients.get(key);
+    if (entry == null || entry.storage != storage || entry.references == 0) {
+      return;
+    }
+
+    entry.references--;
+    if (entry.references == 0) {
+      entry.idleSince = System.currentTimeMillis();
+      scheduleEviction();
+    }
+  }
+
+  // The transport a client was built with, if it is one of ours and so not shared with anything outside the pool
+  private static HttpTransport transportOf(Storage storage) {
+    StorageOptions options = storage.getOptions();
+    if (options == null || !(options.getTransportOptions() instanceof HttpTransportOptions)) {
+      return null;
+    }
+    HttpTransportFactory factory = ((HttpTransportOptions) options.getTransportOptions()).getHttpTransportFactory();
+    return factory instanceof TransportSettings.ClientTransportFactory ? factory.create() : null;
+  }
+
+  private static void shutdown(Key key, HttpTransport transport) {
+    if (transport == null) {
+      return;
+    }
+    try {
+      transport.shutdown();
+    } catch (IOException e) {
+      LOG.warn("Failed to close the connections of the GCS client for {}", key, e);
+    }
+  }
+
+  // A single daemon thread, only running while the pool holds clients, checks for idle ones
+  private void scheduleEviction() {
+    if (evictor != null) {
+      return;
+    }
+    evictor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("gcs-client-evictor-%d")
+            .build()
+    );
+    long period = Math.max(1, idleTimeoutMillis / 2);
+    evictor.scheduleWithFixedDelay(new Runnable() {
+
+      @Override
+      public void run() {
+        evictIdle(System.currentTimeMillis());
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  private static final class Entry {
+
+    private final Storage storage;
+    private final HttpTransport transport;
+
+    private int references;
+    private long idleSince;
+
+    private Entry(Storage storage, HttpTransport transport) {
+      this.storage = storage;
+      this.transport = transport;
+    }
+  }
+
+  /**
+   * What makes two clients interchangeable: the credentials they authenticate with, down to the version of the file
+   * they were read from, the endpoint they talk to and how their connections are set up
+   */
+  static final class Key {
+
+    private final String credentialsPath;
+    private final long credentialsModified;
+    private final String endpoint;
+    private final TransportSettings transportSettings;
+
+    Key(String credentialsPath, long credentialsModified, String endpoint, TransportSettings transportSettings) {
+      this.credentialsPath = credentialsPath;
+      this.credentialsModified = credentialsModified;
+      this.endpoint = endpoint;
+      this.transportSettings = transportSettings;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key other = (Key) o;
+      return Objects.equals(credentialsPath, other.credentialsPath)
+          && credentialsModified == other.credentialsModified
+          && Objects.equals(endpoint, other.endpoint)
+          && Objects.equals(transportSettings, other.transportSettings);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(credentialsPath, credentialsModified, endpoint, transportSettings);
+    }
+
+    @Override
+    public String toString() {
+      return endpoint == null ? credentialsPath : credentialsPath + " at " + endpoint;
+    }
+  }
+
+  /**
+   * A client taken from the pool
+   */
+  final class Lease {
+
+    private final Key key;
+    private final Storage storage;
+
+    private boolean released;
+
+    private Lease(Key key, Storage storage) {
+      this.key = key;
+      this.storage = storage;
+    }
+
+    Storage getStorage() {
+      return storage;
+    }
+
+    /**
+     * Give the client back to the pool. Releasing a lease more than once has no further effect.
+     */
+    void release() {
+      synchronized (StorageClientPool.this) {
+        if (released) {
+          return;
+        }
+        released = true;
+      }
+      StorageClientPool.this.release(key, storage);
+    }
+  }
+}
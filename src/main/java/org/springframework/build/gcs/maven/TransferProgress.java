@@ -30,4 +30,12 @@ interface TransferProgress {
      * Start a new transfer attempt on this progress
      */
     void startTransferAttempt();
+
+    /**
+     * Start a new transfer attempt on this progress that continues from a position within the resource rather than
+     * from its beginning
+     *
+     * @param position The number of bytes already transferred by earlier attempts
+     */
+    void resumeTransferAttempt(long position);
 }
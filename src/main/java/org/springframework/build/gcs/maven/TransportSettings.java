@@ -0,0 +1,174 @@
+package org.springframework.build.gcs.maven;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.auth.http.HttpTransportFactory;
+import com.google.cloud.http.HttpTransportOptions;
+
+/**
+ * How the HTTP connections to GCS are set up: timeouts and, for clients that pool their connections in an Apache HTTP
+ * client rather than leaving them to the JDK, the size of the pool, how long idle connections are kept alive and the
+ * size of the buffer each connection reads and writes its socket through.
+ * <p/>
+ * Settings are part of what makes two pooled clients interchangeable, so they implement {@link #equals(Object)}.
+ */
+final class TransportSettings {
+
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final int maxConnections;
+  private final int maxConnectionsPerRoute;
+  private final long keepAliveMillis;
+  private final int socketBufferSize;
+  private final boolean pooled;
+
+  /**
+   * @param keepAliveMillis how long an idle connection is kept for reuse, or zero or less for as long as the server
+   * allows
+   * @param socketBufferSize the size of each connection's socket buffer, or zero or less for the HTTP client's default
+   * @param pooled whether connections are pooled in an Apache HTTP client, which the other settings but the timeouts
+   * only apply to, rather than by the JDK's {@link java.net.HttpURLConnection}
+   */
+  TransportSettings(int connectTimeoutMillis, int readTimeoutMillis, int maxConnections, int maxConnectionsPerRoute,
+                    long keepAliveMillis, int socketBufferSize, boolean pooled) {
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.maxConnections = Math.max(1, maxConnections);
+    this.maxConnectionsPerRoute = Math.max(1, Math.min(maxConnectionsPerRoute, this.maxConnections));
+    this.keepAliveMillis = keepAliveMillis;
+    this.socketBufferSize = socketBufferSize;
+    this.pooled = pooled;
+  }
+
+  int getMaxConnections() {
+    return maxConnections;
+  }
+
+  int getMaxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  boolean isPooled() {
+    return pooled;
+  }
+
+  /**
+   * Returns the transport options for a client built with these settings. Every transport the options create is the
+   * same one, so a client has a single connection pool.
+   */
+  HttpTransportOptions toTransportOptions() {
+    return HttpTransportOptions.newBuilder()
+        .setConnectTimeout(connectTimeoutMillis)
+        .setReadTimeout(readTimeoutMillis)
+        .setHttpTransportFactory(new ClientTransportFactory())
+        .build();
+  }
+
+  HttpTransport newTransport() {
+    if (!pooled) {
+      return new NetHttpTransport();
+    }
+
+    PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+    connections.setMaxTotal(maxConnections);
+    connections.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    connections.setDefaultSocketConfig(SocketConfig.custom()
+                                           .setTcpNoDelay(true)
+                                           .setSoTimeout(readTimeoutMillis)
+                                           .build());
+    if (socketBufferSize > 0) {
+      connections.setDefaultConnectionConfig(ConnectionConfig.custom().setBufferSize(socketBufferSize).build());
+    }
+
+    HttpClientBuilder client = HttpClientBuilder.create()
+        .useSystemProperties()
+        .setConnectionManager(connections)
+        .setConnectionTimeToLive(-1, TimeUnit.MILLISECONDS)
+        .disableRedirectHandling()
+        .disableAutomaticRetries()
+        .disableContentCompression();
+    if (keepAliveMillis > 0) {
+      client.setKeepAliveStrategy(new BoundedKeepAliveStrategy(keepAliveMillis));
+    }
+    return new PooledHttpTransport(client.build(), connections);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    TransportSettings other = (TransportSettings) o;
+    return connectTimeoutMillis == other.connectTimeoutMillis
+        && readTimeoutMillis == other.readTimeoutMillis
+        && maxConnections == other.maxConnections
+        && maxConnectionsPerRoute == other.maxConnectionsPerRoute
+        && keepAliveMillis == other.keepAliveMillis
+        && socketBufferSize == other.socketBufferSize
+        && pooled == other.pooled;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(connectTimeoutMillis, readTimeoutMillis, maxConnections, maxConnectionsPerRoute,
+                        keepAliveMillis, socketBufferSize, pooled);
+  }
+
+  @Override
+  public String toString() {
+    if (!pooled) {
+      return String.format("JDK connections, %d ms connect and %d ms read timeouts", connectTimeoutMillis,
+                           readTimeoutMillis);
+    }
+    return String.format("%d connections, %d per route, %d ms keep-alive, %d ms connect and %d ms read timeouts",
+                         maxConnections, maxConnectionsPerRoute, keepAliveMillis, connectTimeoutMillis,
+                         readTimeoutMillis);
+  }
+
+  /**
+   * Keeps a connection for as long as the server allows, but no longer than the configured keep-alive
+   */
+  static final class BoundedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+    private final long keepAliveMillis;
+
+    BoundedKeepAliveStrategy(long keepAliveMillis) {
+      this.keepAliveMillis = keepAliveMillis;
+    }
+
+    @Override
+    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+      long server = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+      return server > 0 ? Math.min(server, keepAliveMillis) : keepAliveMillis;
+    }
+  }
+
+  // The client asks for a transport more than once while it is built; handing out one keeps a single pool per client
+  final class ClientTransportFactory implements HttpTransportFactory {
+
+    private HttpTransport transport;
+
+    @Override
+    public synchronized HttpTransport create() {
+      if (transport == null) {
+        transport = newTransport();
+      }
+      return transport;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+
+public class BlobStoreTest {
+
+  private final byte[] content = new byte[4096];
+
+  private Path directory;
+  private Path source;
+  private Path destination;
+  private BlobStore store;
+
+  @Before
+  public void setup() throws Exception {
+    new Random(42).nextBytes(content);
+    directory = Files.createTempDirectory("gcs-blobs");
+    source = Files.createTempFile("wagon", ".jar");
+    destination = Files.createTempFile("wagon", ".jar");
+    Files.write(source, content);
+    store = new BlobStore(directory, 1024 * 1024);
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      for (Path entry : entries) {
+        Files.delete(entry);
+      }
+    }
+    Files.delete(directory);
+    Files.deleteIfExists(source);
+    Files.deleteIfExists(destination);
+  }
+
+  @Test
+  public void itHandsOutWhatWasStoredWithTheSameChecksums() throws Exception {
+    assertFalse(store.get(crc32c(content), md5(content), content.length, destination));
+
+    store.put(crc32c(content), md5(content), content.length, source);
+    Files.delete(source);
+
+    assertTrue(store.get(crc32c(content), md5(content), content.length, destination));
+    assertArrayEquals(content, Files.readAllBytes(destination));
+  }
+
+  @Test
+  public void itStoresCompositeObjectsByTheirCrc32cAlone() throws Exception {
+    store.put(crc32c(content), null, content.length, source);
+
+    assertTrue(store.get(crc32c(content), null, content.length, destination));
+    assertFalse(store.get(crc32c(content), md5(content), content.length, destination));
+  }
+
+  @Test
+  public void itDoesNotStoreContentThatDoesNotMatchItsChecksums() throws Exception {
+    byte[] other = new byte[content.length];
+
+    store.put(crc32c(other), md5(other), content.length, source);
+    store.put(crc32c(content), md5(other), content.length, source);
+
+    assertFalse(store.get(crc32c(other), md5(other), content.length, destination));
+    assertFalse(store.get(crc32c(content), md5(other), content.length, destination));
+  }
+
+  @Test
+  public void itIsNotChangedByWritesToWhatItHandedOut() throws Exception {
+    store.put(crc32c(content), md5(content), content.length, source);
+    Files.write(source, new byte[content.length]);
+    assertTrue(store.get(crc32c(content), md5(content), content.length, destination));
+
+    Files.write(destination, new byte[content.length]);
+
+    assertTrue(store.get(crc32c(content), md5(content), content.length, destination));
+    assertArrayEquals(content, Files.readAllBytes(destination));
+  }
+
+  static String crc32c(byte[] content) {
+    return BaseEncoding.base64().encode(Ints.toByteArray(Hashing.crc32c().hashBytes(content).asInt()));
+  }
+
+  static String md5(byte[] content) throws Exception {
+    return BaseEncoding.base64().encode(MessageDigest.getInstance("MD5").digest(content));
+  }
+}
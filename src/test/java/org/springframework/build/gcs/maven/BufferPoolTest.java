@@ -0,0 +1,50 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+  @Test
+  public void itHandsOutReleasedBuffersCleared() {
+    ByteBuffer buffer = BufferPool.acquire();
+    buffer.put((byte) 1).limit(10);
+    BufferPool.release(buffer);
+
+    ByteBuffer reused = BufferPool.acquire();
+    try {
+      assertEquals(0, reused.position());
+      assertEquals(BufferPool.BUFFER_SIZE, reused.limit());
+    } finally {
+      BufferPool.release(reused);
+    }
+  }
+
+  @Test
+  public void itDoesNotPoolBuffersOfAnotherSize() {
+    BufferPool.release(ByteBuffer.allocate(1024));
+
+    ByteBuffer buffer = BufferPool.acquire();
+    try {
+      assertEquals(BufferPool.BUFFER_SIZE, buffer.capacity());
+    } finally {
+      BufferPool.release(buffer);
+    }
+  }
+
+  @Test
+  public void itAllocatesWhenEveryBufferIsInUse() {
+    ByteBuffer first = BufferPool.acquire();
+    ByteBuffer second = BufferPool.acquire();
+    try {
+      assertNotSame(first, second);
+    } finally {
+      BufferPool.release(first);
+      BufferPool.release(second);
+    }
+  }
+}
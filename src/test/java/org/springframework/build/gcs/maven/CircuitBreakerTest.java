@@ -0,0 +1,186 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.build.gcs.maven.CircuitStateChangeException.State;
+
+import com.google.common.base.Ticker;
+
+public class CircuitBreakerTest {
+
+  private final ManualTicker ticker = new ManualTicker();
+  private final CircuitBreaker breaker = new CircuitBreaker("bucket", 0.5, 10, 4, 1000, ticker);
+  private final CircuitBreaker.Listener listener = mock(CircuitBreaker.Listener.class);
+
+  @After
+  public void cleanup() {
+    CircuitBreaker.clear();
+  }
+
+  @Test
+  public void itStaysClosedUntilEnoughAttemptsHaveBeenMade() {
+    for (int i = 0; i < 3; i++) {
+      fail();
+    }
+
+    assertEquals(State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void itStaysClosedBelowTheFailureRate() {
+    for (int i = 0; i < 10; i++) {
+      succeed();
+      if (i % 3 == 0) {
+        fail();
+      }
+    }
+
+    assertEquals(State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void itOpensAtTheFailureRateAndRefusesAttempts() {
+    breaker.addListener(listener);
+    succeed();
+    succeed();
+    fail();
+    fail();
+
+    assertEquals(State.OPEN, breaker.getState());
+    assertNull(breaker.tryAcquire());
+    assertEquals(1000, breaker.getRetryAfterMillis());
+    verify(listener).stateChanged("bucket", State.CLOSED, State.OPEN);
+  }
+
+  @Test
+  public void itOnlyCountsTheMostRecentAttempts() {
+    for (int i = 0; i < 100; i++) {
+      succeed();
+    }
+    for (int i = 0; i < 4; i++) {
+      fail();
+    }
+    assertEquals(State.CLOSED, breaker.getState());
+
+    fail();
+    assertEquals("Five failures in the last ten attempts", State.OPEN, breaker.getState());
+  }
+
+  @Test
+  public void itLetsASingleProbeThroughOnceTheOpenPeriodHasPassed() {
+    open();
+    breaker.addListener(listener);
+
+    ticker.advance(999);
+    assertNull(breaker.tryAcquire());
+
+    ticker.advance(1);
+    assertNotNull(breaker.tryAcquire());
+    assertNull("Only one probe at a time", breaker.tryAcquire());
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    verify(listener).stateChanged("bucket", State.OPEN, State.HALF_OPEN);
+  }
+
+  @Test
+  public void itClosesWhenTheProbeSucceeds() {
+    open();
+    ticker.advance(1000);
+    CircuitBreaker.Permit probe = breaker.tryAcquire();
+    breaker.addListener(listener);
+
+    breaker.recordSuccess(probe);
+
+    assertEquals(State.CLOSED, breaker.getState());
+    fail();
+    assertEquals("The failures from before were forgotten", State.CLOSED, breaker.getState());
+    verify(listener).stateChanged("bucket", State.HALF_OPEN, State.CLOSED);
+  }
+
+  @Test
+  public void itOpensAgainWhenTheProbeFails() {
+    open();
+    ticker.advance(1000);
+    CircuitBreaker.Permit probe = breaker.tryAcquire();
+    breaker.addListener(listener);
+
+    breaker.recordFailure(probe);
+
+    assertEquals(State.OPEN, breaker.getState());
+    assertNull(breaker.tryAcquire());
+    verify(listener).stateChanged("bucket", State.HALF_OPEN, State.OPEN);
+  }
+
+  @Test
+  public void itIgnoresAttemptsThatStartedBeforeItOpened() {
+    CircuitBreaker.Permit slow = breaker.tryAcquire();
+    open();
+    ticker.advance(1000);
+    CircuitBreaker.Permit probe = breaker.tryAcquire();
+
+    breaker.recordSuccess(slow);
+    assertEquals("Only the probe closes it", State.HALF_OPEN, breaker.getState());
+    breaker.recordFailure(slow);
+    assertEquals(State.HALF_OPEN, breaker.getState());
+
+    breaker.recordSuccess(probe);
+    assertEquals(State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void itStopsTellingListenersThatAreRemoved() {
+    breaker.addListener(listener);
+    breaker.removeListener(listener);
+
+    open();
+
+    verifyNoMoreInteractions(listener);
+  }
+
+  @Test
+  public void itSharesOneBreakerPerBucket() {
+    CircuitBreaker first = CircuitBreaker.forBucket("bucket", 0.5, 10, 4, 1000);
+
+    assertSame(first, CircuitBreaker.forBucket("bucket", 0.9, 20, 10, 5000));
+    assertFalse(first == CircuitBreaker.forBucket("other", 0.5, 10, 4, 1000));
+  }
+
+  private void open() {
+    for (int i = 0; i < 4; i++) {
+      fail();
+    }
+    assertEquals(State.OPEN, breaker.getState());
+  }
+
+  private void succeed() {
+    breaker.recordSuccess(breaker.tryAcquire());
+  }
+
+  private void fail() {
+    breaker.recordFailure(breaker.tryAcquire());
+  }
+
+  private static final class ManualTicker extends Ticker {
+
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    private void advance(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A {@link TransferProgress} that collects every byte it is notified of, in order
+ */
+final class CollectingTransferProgress implements TransferProgress {
+
+  private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+  @Override
+  public synchronized void notify(byte[] buffer, int length) {
+    bytes.write(buffer, 0, length);
+  }
+
+  @Override
+  public void startTransferAttempt() {}
+
+  @Override
+  public void resumeTransferAttempt(long position) {}
+
+  synchronized byte[] getBytes() {
+    return bytes.toByteArray();
+  }
+}
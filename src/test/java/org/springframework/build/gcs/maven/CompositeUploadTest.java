@@ -0,0 +1,253 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Matchers;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobWriteOption;
+import com.google.cloud.storage.Storage.ComposeRequest;
+import com.google.cloud.storage.StorageException;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class CompositeUploadTest {
+
+  private static final BlobInfo TARGET = BlobInfo.newBuilder("bucket", "foo/bar.jar")
+      .setContentType("application/octet-stream")
+      .build();
+
+  private static final CompositeUpload.PartRunner RUN_ONCE = new CompositeUpload.PartRunner() {
+
+    @Override
+    public <T> T run(Callable<T> part) throws Exception {
+      return part.call();
+    }
+  };
+
+  private final Storage storage = mock(Storage.class);
+  private final ExecutorService executor = Executors.newFixedThreadPool(3);
+  private final Map<String, StubWriteChannel> parts = new TreeMap<>();
+  private final Map<String, String> partContentTypes = new TreeMap<>();
+
+  @Captor
+  private ArgumentCaptor<Iterable<BlobId>> deleted;
+
+  private File source;
+  private byte[] content;
+
+  @Before
+  public void setup() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    content = new byte[10000];
+    new Random(10000).nextBytes(content);
+    source = File.createTempFile("composite", ".jar");
+    Files.write(source.toPath(), content);
+
+    when(storage.writer(any(BlobInfo.class), (BlobWriteOption[]) anyVararg())).thenAnswer(new Answer<WriteChannel>() {
+
+      @Override
+      public WriteChannel answer(InvocationOnMock invocation) {
+        BlobInfo part = (BlobInfo) invocation.getArguments()[0];
+        StubWriteChannel channel = new StubWriteChannel();
+        synchronized (parts) {
+          parts.put(part.getName(), channel);
+          partContentTypes.put(part.getName(), part.getContentType());
+        }
+        return channel;
+      }
+    });
+    when(storage.compose(any(ComposeRequest.class))).thenReturn(mock(Blob.class));
+  }
+
+  @After
+  public void cleanup() {
+    executor.shutdownNow();
+    source.delete();
+  }
+
+  @Test
+  public void itUploadsPartsAndComposesThemInOrder() throws Exception {
+    CollectingTransferProgress progress = new CollectingTransferProgress();
+    compositeUpload(1024).upload(source, TARGET, progress);
+
+    ArgumentCaptor<ComposeRequest> compose = ArgumentCaptor.forClass(ComposeRequest.class);
+    verify(storage).compose(compose.capture());
+    assertEquals(TARGET, compose.getValue().getTarget());
+    assertEquals(10, compose.getValue().getSourceBlobs().size());
+
+    ByteArrayOutputStream composed = new ByteArrayOutputStream();
+    for (ComposeRequest.SourceBlob sourceBlob : compose.getValue().getSourceBlobs()) {
+      composed.write(parts.get(sourceBlob.getName()).getContent());
+      assertEquals("application/octet-stream", partContentTypes.get(sourceBlob.getName()));
+    }
+    assertArrayEquals(content, composed.toByteArray());
+    assertArrayEquals(content, progress.getBytes());
+
+    assertDeleted(parts.keySet());
+  }
+
+  @Test
+  public void itLimitsTheNumberOfParts() throws Exception {
+    compositeUpload(10).upload(source, TARGET, new StubTransferProgress());
+
+    ArgumentCaptor<ComposeRequest> compose = ArgumentCaptor.forClass(ComposeRequest.class);
+    verify(storage).compose(compose.capture());
+    assertEquals(CompositeUpload.MAX_COMPOSE_SOURCES, compose.getValue().getSourceBlobs().size());
+  }
+
+  @Test
+  public void itRunsEveryStepThroughThePartRunner() throws Exception {
+    final AtomicInteger steps = new AtomicInteger();
+    new CompositeUpload(storage, executor, new GcsMetrics(), 1024, new CompositeUpload.PartRunner() {
+
+      @Override
+      public <T> T run(Callable<T> part) throws Exception {
+        steps.incrementAndGet();
+        return part.call();
+      }
+    }).upload(source, TARGET, new StubTransferProgress());
+
+    // ten parts and the compose
+    assertEquals(11, steps.get());
+  }
+
+  @Test
+  public void itDeletesPartsWhenComposeFails() throws Exception {
+    when(storage.compose(any(ComposeRequest.class))).thenThrow(new StorageException(503, "Backend Error"));
+
+    try {
+      compositeUpload(1024).upload(source, TARGET, new StubTransferProgress());
+      fail("Expected a StorageException");
+    } catch (StorageException e) {
+      assertEquals(503, e.getCode());
+    }
+
+    assertDeleted(parts.keySet());
+  }
+
+  @Test
+  public void itOnlyDeletesPartsOnceNoneIsStillBeingWritten() throws Exception {
+    final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch writing = new CountDownLatch(1);
+    doAnswer(new Answer<WriteChannel>() {
+
+      @Override
+      public WriteChannel answer(InvocationOnMock invocation) throws Exception {
+        final String name = ((BlobInfo) invocation.getArguments()[0]).getName();
+        synchronized (parts) {
+          parts.put(name, new StubWriteChannel());
+        }
+        if (name.endsWith("-0")) {
+          // fail the upload while the next part is being written
+          writing.await();
+          throw new StorageException(503, "Backend Error");
+        }
+        WriteChannel writer = mock(WriteChannel.class);
+        when(writer.write(any(ByteBuffer.class))).thenAnswer(new Answer<Integer>() {
+
+          @Override
+          public Integer answer(InvocationOnMock invocation) {
+            writing.countDown();
+            try {
+              Thread.sleep(10000);
+            } catch (InterruptedException e) {
+              // cancelled, but the request already sent still takes a while to commit the part
+              Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+            }
+            ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[0];
+            int remaining = buffer.remaining();
+            buffer.position(buffer.limit());
+            return remaining;
+          }
+        });
+        doAnswer(new Answer<Void>() {
+
+          @Override
+          public Void answer(InvocationOnMock invocation) {
+            events.add("commit " + name);
+            return null;
+          }
+        }).when(writer).close();
+        return writer;
+      }
+    }).when(storage).writer(any(BlobInfo.class), (BlobWriteOption[]) anyVararg());
+    when(storage.delete(Matchers.<Iterable<BlobId>>any())).thenAnswer(new Answer<List<Boolean>>() {
+
+      @Override
+      public List<Boolean> answer(InvocationOnMock invocation) {
+        events.add("delete");
+        return Collections.emptyList();
+      }
+    });
+
+    try {
+      compositeUpload(1024).upload(source, TARGET, new StubTransferProgress());
+      fail("Expected a StorageException");
+    } catch (StorageException e) {
+      assertEquals(503, e.getCode());
+    }
+
+    assertTrue(events.toString(), events.size() > 1);
+    assertEquals("delete", events.get(events.size() - 1));
+    verify(storage).delete(deleted.capture());
+    for (BlobId blobId : deleted.getValue()) {
+      assertTrue(blobId.getName(), blobId.getName().startsWith(TARGET.getName() + ".part-"));
+    }
+  }
+
+  private CompositeUpload compositeUpload(long partSize) {
+    return new CompositeUpload(storage, executor, new GcsMetrics(), partSize, RUN_ONCE);
+  }
+
+  private void assertDeleted(Iterable<String> names) {
+    verify(storage).delete(deleted.capture());
+
+    List<String> deletedNames = new ArrayList<>();
+    for (BlobId blobId : deleted.getValue()) {
+      deletedNames.add(blobId.getName());
+    }
+    List<String> expected = new ArrayList<>();
+    for (String name : names) {
+      expected.add(name);
+    }
+    assertEquals(expected, deletedNames);
+  }
+}
@@ -0,0 +1,92 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+
+public class CredentialCacheTest {
+
+  private final AtomicInteger loads = new AtomicInteger();
+  private final CountDownLatch refreshed = new CountDownLatch(1);
+
+  private final CredentialCache cache = new CredentialCache(new CredentialCache.Loader() {
+
+    @Override
+    public GoogleCredentials load(Path path) {
+      loads.incrementAndGet();
+      return new StubCredentials(refreshed);
+    }
+  });
+
+  private Path path;
+
+  @Before
+  public void setup() throws Exception {
+    path = File.createTempFile("credentials", ".json").toPath();
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    cache.evictIdle(Long.MAX_VALUE);
+    Files.delete(path);
+  }
+
+  @Test
+  public void itLoadsEachVersionOfAFileOnce() throws Exception {
+    GoogleCredentials first = cache.get(path);
+    assertSame(first, cache.get(path));
+    assertEquals(1, loads.get());
+
+    Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 5000));
+    assertNotSame(first, cache.get(path));
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void itFetchesTheAccessTokenInTheBackground() throws Exception {
+    GoogleCredentials credentials = cache.get(path);
+
+    assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+    long deadline = System.currentTimeMillis() + 10000;
+    while (cache.getTokenFetches() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(1, cache.getTokenFetches());
+    assertEquals("token", credentials.getAccessToken().getTokenValue());
+  }
+
+  private static final class StubCredentials extends GoogleCredentials {
+
+    private static final long serialVersionUID = 1L;
+
+    private final CountDownLatch refreshed;
+
+    private StubCredentials(CountDownLatch refreshed) {
+      this.refreshed = refreshed;
+    }
+
+    @Override
+    public AccessToken refreshAccessToken() {
+      refreshed.countDown();
+      return new AccessToken("token", new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)));
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiskCacheTest {
+
+  private Path directory;
+  private Path source;
+  private Path destination;
+
+  @Before
+  public void setup() throws Exception {
+    directory = Files.createTempDirectory("gcs-cache");
+    source = Files.createTempFile("wagon", ".pom");
+    destination = Files.createTempFile("wagon", ".pom");
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      for (Path entry : entries) {
+        Files.delete(entry);
+      }
+    }
+    Files.delete(directory);
+    Files.delete(source);
+    Files.deleteIfExists(destination);
+  }
+
+  @Test
+  public void itCopiesWhatWasCachedAtTheSameGeneration() throws Exception {
+    DiskCache cache = new DiskCache(directory, 1024);
+    Files.write(source, "<project/>".getBytes("UTF-8"));
+
+    assertNull(cache.getGeneration("bucket", "a.pom"));
+    cache.put("bucket", "a.pom", 7, 1, source);
+
+    assertEquals(Long.valueOf(7), cache.getGeneration("bucket", "a.pom"));
+    assertNull(cache.getGeneration("other", "a.pom"));
+    assertTrue(cache.copy("bucket", "a.pom", 7, destination));
+    assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(destination));
+  }
+
+  @Test
+  public void itDoesNotCopyAnotherGeneration() throws Exception {
+    DiskCache cache = new DiskCache(directory, 1024);
+    cache.put("bucket", "a.pom", 7, 1, source);
+
+    assertFalse(cache.copy("bucket", "a.pom", 8, destination));
+    assertFalse(cache.copy("bucket", "b.pom", 7, destination));
+  }
+
+  @Test
+  public void itIsSharedWithOtherInstancesOfTheSameDirectory() throws Exception {
+    Files.write(source, "<project/>".getBytes("UTF-8"));
+    new DiskCache(directory, 1024).put("bucket", "a.pom", 7, 1, source);
+
+    assertTrue(new DiskCache(directory, 1024).copy("bucket", "a.pom", 7, destination));
+    assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(destination));
+  }
+
+  @Test
+  public void itEvictsTheLeastRecentlyUsedEntriesBeyondItsSize() throws Exception {
+    // each entry is the 16 byte header and 100 bytes of content
+    DiskCache cache = new DiskCache(directory, 300);
+    Files.write(source, new byte[100]);
+    cache.put("bucket", "a.jar", 1, 1, source);
+    cache.put("bucket", "b.jar", 1, 1, source);
+    ageEntries();
+    assertTrue(cache.copy("bucket", "b.jar", 1, destination));
+
+    cache.put("bucket", "c.jar", 1, 1, source);
+
+    assertNull(cache.getGeneration("bucket", "a.jar"));
+    assertEquals(Long.valueOf(1), cache.getGeneration("bucket", "b.jar"));
+    assertEquals(Long.valueOf(1), cache.getGeneration("bucket", "c.jar"));
+  }
+
+  @Test
+  public void itIgnoresADirectoryItCannotWriteTo() throws Exception {
+    File file = File.createTempFile("gcs-cache", ".txt");
+    try {
+      DiskCache cache = new DiskCache(file.toPath(), 1024);
+      cache.put("bucket", "a.pom", 7, 1, source);
+
+      assertNull(cache.getGeneration("bucket", "a.pom"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  private void ageEntries() throws Exception {
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*.entry")) {
+      for (Path entry : entries) {
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(1000));
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EvictionBudgetTest {
+
+  private Path directory;
+  private EvictionBudget budget;
+
+  @Before
+  public void setup() throws Exception {
+    directory = Files.createTempDirectory("gcs-cache");
+    budget = new EvictionBudget(directory, "*.entry", 300);
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      for (Path entry : entries) {
+        Files.delete(entry);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void itOnlyListsTheDirectoryOnceWhatWasAddedMayHaveFilledIt() throws Exception {
+    Path first = write("a.entry", 1000);
+    budget.added(100, 0);
+    write("b.entry", 2000);
+    budget.added(100, 1000);
+
+    // written by another process, which the budget is not told about
+    write("c.entry", 3000);
+    write("d.entry", 4000);
+
+    write("e.entry", 5000);
+    budget.added(100, 2000);
+    assertTrue(Files.exists(first));
+
+    Path last = write("f.entry", 6000);
+    budget.added(100, 3000);
+    assertFalse(Files.exists(first));
+    assertTrue(Files.exists(last));
+  }
+
+  @Test
+  public void itListsTheDirectoryAgainOnceItHasNotForAWhile() throws Exception {
+    Path first = write("a.entry", 1000);
+    budget.added(100, 0);
+    write("b.entry", 2000);
+    write("c.entry", 3000);
+    write("d.entry", 4000);
+
+    budget.added(0, EvictionBudget.RELIST_INTERVAL_MILLIS - 1);
+    assertTrue(Files.exists(first));
+
+    budget.added(0, EvictionBudget.RELIST_INTERVAL_MILLIS);
+    assertFalse(Files.exists(first));
+  }
+
+  private Path write(String name, long used) throws Exception {
+    Path file = Files.write(directory.resolve(name), new byte[100]);
+    Files.setLastModifiedTime(file, FileTime.fromMillis(used));
+    return file;
+  }
+}
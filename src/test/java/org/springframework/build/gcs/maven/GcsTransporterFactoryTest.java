@@ -0,0 +1,24 @@
+package org.springframework.build.gcs.maven;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.transfer.NoTransporterException;
+import org.junit.Test;
+
+public class GcsTransporterFactoryTest {
+
+  private final GcsTransporterFactory factory = new GcsTransporterFactory();
+
+  @Test(expected = NoTransporterException.class)
+  public void itOnlyTransportsGcsRepositories() throws Exception {
+    factory.newInstance(new DefaultRepositorySystemSession(),
+                        new RemoteRepository.Builder("central", "default", "https://repo.maven.apache.org/maven2/")
+                            .build());
+  }
+
+  @Test(expected = NoTransporterException.class)
+  public void itNeedsACredentialsPath() throws Exception {
+    factory.newInstance(new DefaultRepositorySystemSession(),
+                        new RemoteRepository.Builder("gcs-release", "default", "gcs://bucket/release").build());
+  }
+}
@@ -0,0 +1,199 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.wagon.ResourceDoesNotExistException;
+import org.apache.maven.wagon.TransferFailedException;
+import org.eclipse.aether.spi.connector.transport.GetTask;
+import org.eclipse.aether.spi.connector.transport.PeekTask;
+import org.eclipse.aether.spi.connector.transport.PutTask;
+import org.eclipse.aether.spi.connector.transport.TransportListener;
+import org.eclipse.aether.spi.connector.transport.Transporter;
+import org.eclipse.aether.transfer.TransferCancelledException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobGetOption;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+
+public class GcsTransporterTest {
+
+  private static final String BUCKET_NAME = "bucket";
+  private static final String BASE_DIRECTORY = "release/";
+
+  private final Storage storage = mock(Storage.class);
+  private final GcsTransporter transporter =
+      new GcsTransporter(new SimpleStorageServiceWagon(storage, BUCKET_NAME, BASE_DIRECTORY));
+
+  private File destination;
+
+  @Before
+  public void setup() throws Exception {
+    destination = File.createTempFile("transporter", ".jar");
+    destination.delete();
+  }
+
+  @After
+  public void cleanup() {
+    transporter.close();
+    destination.delete();
+  }
+
+  @Test
+  public void itPeeksFromManyThreadsWithOneRequest() throws Exception {
+    when(storage.get(BUCKET_NAME, BASE_DIRECTORY + "com/example/example-1.0.pom",
+                     BlobGetOption.fields(SimpleStorageServiceWagon.CACHED_FIELDS))).thenReturn(mock(Blob.class));
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Void>> peeks = new ArrayList<>();
+      for (int i = 0; i < 32; i++) {
+        peeks.add(executor.submit(new Callable<Void>() {
+
+          @Override
+          public Void call() throws Exception {
+            transporter.peek(new PeekTask(URI.create("com/example/example-1.0.pom")));
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> peek : peeks) {
+        peek.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(1, transporter.getMetrics().get(GcsMetrics.Counter.METADATA_REQUESTS));
+  }
+
+  @Test
+  public void itClassifiesAMissingResourceAsNotFound() throws Exception {
+    try {
+      transporter.peek(new PeekTask(URI.create("com/example/missing-1.0.pom")));
+      fail("Expected a ResourceDoesNotExistException");
+    } catch (ResourceDoesNotExistException e) {
+      assertEquals(Transporter.ERROR_NOT_FOUND, transporter.classify(e));
+    }
+    assertEquals(Transporter.ERROR_OTHER, transporter.classify(new TransferFailedException("Broken pipe")));
+  }
+
+  @Test
+  public void itGetsIntoAFileAndReportsEachByteOnce() throws Exception {
+    byte[] content = randomBytes(4096);
+    readsOf(content);
+    CountingListener listener = new CountingListener();
+
+    transporter.get(new GetTask(URI.create("com/example/example-1.0.jar")).setDataFile(destination)
+                                                                         .setListener(listener));
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertEquals(1, listener.starts);
+    assertEquals(content.length, listener.bytes);
+  }
+
+  @Test
+  public void itGetsIntoMemory() throws Exception {
+    byte[] content = randomBytes(40);
+    readsOf(content);
+    CountingListener listener = new CountingListener();
+
+    GetTask task = new GetTask(URI.create("com/example/example-1.0.jar.sha1")).setListener(listener);
+    transporter.get(task);
+
+    assertArrayEquals(content, task.getDataBytes());
+    assertEquals(content.length, listener.bytes);
+  }
+
+  @Test
+  public void itStopsAGetItsListenerCancels() throws Exception {
+    readsOf(randomBytes(4096));
+    TransportListener listener = new TransportListener() {
+
+      @Override
+      public void transportProgressed(ByteBuffer data) throws TransferCancelledException {
+        throw new TransferCancelledException();
+      }
+    };
+
+    try {
+      transporter.get(new GetTask(URI.create("com/example/example-1.0.jar")).setDataFile(destination)
+                                                                           .setListener(listener));
+      fail("Expected a TransferCancelledException");
+    } catch (TransferCancelledException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void itPutsWhatIsHeldInMemory() throws Exception {
+    byte[] content = randomBytes(40);
+
+    transporter.put(new PutTask(URI.create("com/example/example-1.0.jar.sha1")).setDataBytes(content));
+
+    ArgumentCaptor<BlobInfo> blobInfo = ArgumentCaptor.forClass(BlobInfo.class);
+    verify(storage).create(blobInfo.capture(), eq(content));
+    assertEquals(BASE_DIRECTORY + "com/example/example-1.0.jar.sha1", blobInfo.getValue().getName());
+  }
+
+  private void readsOf(final byte[] content) {
+    when(storage.reader(anyString(), anyString(), (BlobSourceOption[]) anyVararg())).thenAnswer(
+        new Answer<ReadChannel>() {
+
+          @Override
+          public ReadChannel answer(InvocationOnMock invocation) {
+            return new StubReadChannel(content, 1000);
+          }
+        });
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    new Random().nextBytes(bytes);
+    return bytes;
+  }
+
+  private static final class CountingListener extends TransportListener {
+
+    private int starts;
+    private long bytes;
+
+    @Override
+    public void transportStarted(long dataOffset, long dataLength) {
+      starts++;
+    }
+
+    @Override
+    public void transportProgressed(ByteBuffer data) {
+      bytes += data.remaining();
+    }
+  }
+}
@@ -17,6 +17,9 @@
 package org.springframework.build.gcs.maven;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
 
 import org.apache.maven.wagon.repository.Repository;
 import org.junit.Test;
@@ -36,6 +39,23 @@ public final class GcsUtilsTest {
         assertEquals("foo/", GcsUtils.getBaseDirectory(createRepository("/foo/")));
         assertEquals("foo/bar/", GcsUtils.getBaseDirectory(createRepository("/foo/bar")));
         assertEquals("foo/bar/", GcsUtils.getBaseDirectory(createRepository("/foo/bar/")));
+        assertEquals("", GcsUtils.getBaseDirectory(createRepository("/?keepAlive=1000")));
+        assertEquals("foo/bar/", GcsUtils.getBaseDirectory(createRepository("/foo/bar?keepAlive=1000")));
+    }
+
+    @Test
+    public void getParameters() {
+        Map<String, String> parameters =
+            GcsUtils.getParameters(createRepository("/foo?maxConnectionsPerRoute=32&&keepAlive=1000&mappedUploads"));
+        assertEquals(3, parameters.size());
+        assertEquals("32", parameters.get("maxConnectionsPerRoute"));
+        assertEquals("1000", parameters.get("keepAlive"));
+        assertEquals("", parameters.get("mappedUploads"));
+    }
+
+    @Test
+    public void getParametersWithoutQuery() {
+        assertTrue(GcsUtils.getParameters(createRepository("/foo")).isEmpty());
     }
 
     private Repository createRepository(String path) {
@@ -0,0 +1,162 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.cloud.storage.StorageException;
+
+public class HedgedRequestsTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final GcsMetrics metrics = new GcsMetrics();
+  private final HedgedRequests hedgedRequests = new HedgedRequests(executor, metrics, 90);
+
+  @After
+  public void cleanup() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void itDoesNotHedgeUntilEnoughRequestsHaveBeenTimed() {
+    for (int i = 0; i < HedgedRequests.MIN_SAMPLES - 1; i++) {
+      hedgedRequests.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    assertEquals(-1, hedgedRequests.getHedgeDelayNanos());
+    assertEquals("answer", hedgedRequests.call(new Answer(0)));
+    assertEquals(0, metrics.get(GcsMetrics.Counter.HEDGES_ISSUED));
+  }
+
+  @Test
+  public void itHedgesAfterAPercentileOfRecentLatency() {
+    for (int i = 1; i <= 100; i++) {
+      hedgedRequests.recordLatency(i);
+    }
+
+    assertEquals(90, hedgedRequests.getHedgeDelayNanos());
+  }
+
+  @Test
+  public void itOnlyRemembersTheMostRecentLatencies() {
+    for (int i = 0; i < HedgedRequests.WINDOW; i++) {
+      hedgedRequests.recordLatency(1000);
+    }
+    for (int i = 0; i < HedgedRequests.WINDOW; i++) {
+      hedgedRequests.recordLatency(10);
+    }
+
+    assertEquals(10, hedgedRequests.getHedgeDelayNanos());
+  }
+
+  @Test
+  public void itTakesTheHedgeWhenTheFirstRequestIsStuck() throws Exception {
+    warmUp();
+    final CountDownLatch stuck = new CountDownLatch(1);
+    final AtomicInteger attempts = new AtomicInteger();
+
+    String result = hedgedRequests.call(new Callable<String>() {
+
+      @Override
+      public String call() throws Exception {
+        if (attempts.incrementAndGet() == 1) {
+          stuck.await();
+          return "stuck";
+        }
+        return "hedge";
+      }
+    });
+
+    assertEquals("hedge", result);
+    assertEquals(1, metrics.get(GcsMetrics.Counter.HEDGES_ISSUED));
+    assertEquals(1, metrics.get(GcsMetrics.Counter.HEDGES_WON));
+  }
+
+  @Test
+  public void itUsesTheOtherRequestWhenTheFirstToFinishFails() throws Exception {
+    warmUp();
+    final CountDownLatch hedged = new CountDownLatch(1);
+    final AtomicInteger attempts = new AtomicInteger();
+
+    String result = hedgedRequests.call(new Callable<String>() {
+
+      @Override
+      public String call() throws Exception {
+        if (attempts.incrementAndGet() == 1) {
+          hedged.await();
+          Thread.sleep(50);
+          return "first";
+        }
+        hedged.countDown();
+        throw new StorageException(503, "Unavailable");
+      }
+    });
+
+    assertEquals("first", result);
+    assertEquals(1, metrics.get(GcsMetrics.Counter.HEDGES_ISSUED));
+    assertEquals(0, metrics.get(GcsMetrics.Counter.HEDGES_WON));
+  }
+
+  @Test
+  public void itPropagatesTheFailureWhenBothRequestsFail() throws Exception {
+    warmUp();
+    final AtomicInteger attempts = new AtomicInteger();
+
+    try {
+      hedgedRequests.call(new Callable<String>() {
+
+        @Override
+        public String call() throws Exception {
+          if (attempts.incrementAndGet() == 1) {
+            Thread.sleep(100);
+            throw new StorageException(404, "Not Found");
+          }
+          throw new StorageException(503, "Unavailable");
+        }
+      });
+      fail();
+    } catch (StorageException e) {
+      assertEquals(503, e.getCode());
+    }
+  }
+
+  @Test
+  public void itDoesNotCountHedgesAsRequestsOfTheirOwn() {
+    metrics.increment(GcsMetrics.Counter.METADATA_REQUESTS);
+    metrics.increment(GcsMetrics.Counter.HEDGES_ISSUED);
+    metrics.increment(GcsMetrics.Counter.HEDGES_WON);
+
+    assertEquals(1, metrics.getTotalRequests());
+  }
+
+  // Teaches the requests that an answer takes about a millisecond
+  private void warmUp() {
+    for (int i = 0; i < HedgedRequests.MIN_SAMPLES; i++) {
+      hedgedRequests.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+  }
+
+  private static final class Answer implements Callable<String> {
+
+    private final long delayMillis;
+
+    private Answer(long delayMillis) {
+      this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public String call() throws Exception {
+      Thread.sleep(delayMillis);
+      return "answer";
+    }
+  }
+}
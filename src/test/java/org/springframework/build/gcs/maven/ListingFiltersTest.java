@@ -0,0 +1,100 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+public class ListingFiltersTest {
+
+  private final Object client = new Object();
+  private final ManualTicker ticker = new ManualTicker();
+  private final ListingFilters filters = new ListingFilters(ticker);
+
+  @Test
+  public void itFiltersTheKeysDirectlyUnderAPrefix() {
+    assertEquals("release/com/example/1.0/", ListingFilters.getPrefix("release/com/example/1.0/example-1.0.pom"));
+    assertEquals("", ListingFilters.getPrefix("example-1.0.pom"));
+  }
+
+  @Test
+  public void itAnswersFromTheListingWithinTheTimeToLive() {
+    filters.put(client, "bucket", "a/", Arrays.asList("a/1.pom", "a/1.jar"), filters.mark());
+
+    assertTrue(filters.mightContain(client, "bucket", "a/1.pom", 1000));
+    assertFalse(filters.mightContain(client, "bucket", "a/2.pom", 1000));
+    assertNull("Another directory", filters.mightContain(client, "bucket", "b/1.pom", 1000));
+    assertNull("Another client", filters.mightContain(new Object(), "bucket", "a/1.pom", 1000));
+
+    ticker.advance(1001);
+    assertNull(filters.mightContain(client, "bucket", "a/2.pom", 1000));
+  }
+
+  @Test
+  public void itAddsUploadedKeys() {
+    filters.put(client, "bucket", "a/", Arrays.asList("a/1.pom"), filters.mark());
+
+    filters.add("bucket", "a/2.pom");
+
+    assertTrue(filters.mightContain(client, "bucket", "a/2.pom", 1000));
+  }
+
+  @Test
+  public void itDoesNotUseAListingThatRacedAnUpload() {
+    long mark = filters.mark();
+    filters.add("bucket", "a/2.pom");
+
+    filters.put(client, "bucket", "a/", Arrays.asList("a/1.pom"), mark);
+
+    assertNull(filters.mightContain(client, "bucket", "a/2.pom", 1000));
+  }
+
+  @Test
+  public void itLetsEverythingThroughForADirectoryTooLargeToFilter() {
+    filters.put(client, "bucket", "a/", null, filters.mark());
+
+    assertTrue(filters.mightContain(client, "bucket", "a/2.pom", 1000));
+  }
+
+  @Test
+  public void theBloomFilterHasNoFalseNegativesAndFewFalsePositives() {
+    ListingFilters.BloomFilter filter = new ListingFilters.BloomFilter(1000, 0.01);
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      keys.add("com/example/example/" + i + "/example-" + i + ".jar");
+      filter.put(keys.get(i));
+    }
+
+    int falsePositives = 0;
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(filter.mightContain(keys.get(i)));
+      if (filter.mightContain("com/example/other/" + i + "/other-" + i + ".jar")) {
+        falsePositives++;
+      }
+    }
+    assertTrue("False positives: " + falsePositives, falsePositives < 30);
+  }
+
+  private static final class ManualTicker extends Ticker {
+
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    private void advance(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+}
@@ -0,0 +1,288 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.apache.maven.wagon.ResourceDoesNotExistException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobGetOption;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import com.google.cloud.storage.StorageException;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class LocalProxyTest {
+
+  private static final String BUCKET_NAME = "bucket";
+
+  private final Storage storage = mock(Storage.class);
+
+  private Path credentials;
+  private Path tokenDirectory;
+  private File destination;
+  private LocalProxy proxy;
+  private LocalProxyClient client;
+
+  @Before
+  public void setup() throws Exception {
+    credentials = Files.createTempFile("gcs", ".json");
+    tokenDirectory = Files.createTempDirectory("gcs-proxy");
+    destination = File.createTempFile("wagon", ".jar");
+    proxy = startProxy(0);
+    client = new LocalProxyClient(proxy.getPort(), credentials, LocalProxyToken.read(tokenDirectory, proxy.getPort()),
+                                  1000);
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    proxy.stop();
+    Files.delete(credentials);
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(tokenDirectory)) {
+      for (Path entry : entries) {
+        Files.delete(entry);
+      }
+    }
+    Files.delete(tokenDirectory);
+    destination.delete();
+  }
+
+  @Test
+  public void itServesItsStats() throws Exception {
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL("http://127.0.0.1:" + proxy.getPort() + "/stats").openConnection();
+    assertEquals(200, connection.getResponseCode());
+    String stats;
+    try (InputStream in = connection.getInputStream()) {
+      stats = new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+    }
+
+    assertTrue(stats, stats.startsWith("requests=0"));
+    assertTrue(stats, stats.contains("hitRatio=0.000"));
+    assertTrue(stats, stats.contains("maxLatencyMillis="));
+  }
+
+  @Test
+  public void itAnswersHeadWithTheUpdateTime() throws Exception {
+    Blob blob = blob(new byte[16]);
+    when(blob.getUpdateTime()).thenReturn(1234L);
+    when(storage.get(eq(BUCKET_NAME), eq("com/example/example-1.0.pom"), (BlobGetOption[]) anyVararg()))
+        .thenReturn(blob);
+
+    assertTrue(client.exists(BUCKET_NAME, "com/example/example-1.0.pom"));
+    assertEquals(Long.valueOf(1234), client.getUpdateTime(BUCKET_NAME, "com/example/example-1.0.pom"));
+    assertTrue(proxy.getStats(), proxy.getStats().startsWith("requests=2"));
+  }
+
+  @Test
+  public void itAnswersAMissingObjectWithNotFound() throws Exception {
+    assertFalse(client.exists(BUCKET_NAME, "com/example/missing-1.0.pom"));
+    try {
+      client.getUpdateTime(BUCKET_NAME, "com/example/missing-1.0.pom");
+      fail("Expected a ResourceDoesNotExistException");
+    } catch (ResourceDoesNotExistException e) {
+      // expected
+    }
+    try {
+      client.download(BUCKET_NAME, "com/example/missing-1.0.pom", destination, new StubTransferProgress());
+      fail("Expected a ResourceDoesNotExistException");
+    } catch (ResourceDoesNotExistException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void itAnswersAnObjectItMayNotReadWithForbidden() throws Exception {
+    when(storage.get(eq(BUCKET_NAME), eq("com/example/secret-1.0.pom"), (BlobGetOption[]) anyVararg()))
+        .thenThrow(new StorageException(403, "Forbidden"));
+
+    try {
+      client.exists(BUCKET_NAME, "com/example/secret-1.0.pom");
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("403"));
+    }
+  }
+
+  @Test
+  public void itDownloadsWhatGcsReportsTheChecksumOf() throws Exception {
+    byte[] content = randomBytes(4096);
+    Blob blob = blob(content);
+    when(storage.get(eq(BUCKET_NAME), eq("com/example/example-1.0.jar"), (BlobGetOption[]) anyVararg()))
+        .thenReturn(blob);
+    when(storage.reader(BUCKET_NAME, "com/example/example-1.0.jar")).thenReturn(new StubReadChannel(content, 1000));
+
+    client.download(BUCKET_NAME, "com/example/example-1.0.jar", destination, new StubTransferProgress());
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertTrue(proxy.getStats(), proxy.getStats().startsWith("requests=1"));
+  }
+
+  @Test
+  public void itRejectsADownloadThatDoesNotMatchItsChecksum() throws Exception {
+    byte[] content = randomBytes(4096);
+    Blob blob = blob(randomBytes(4096));
+    when(storage.get(eq(BUCKET_NAME), eq("com/example/example-1.0.jar"), (BlobGetOption[]) anyVararg()))
+        .thenReturn(blob);
+    when(storage.reader(BUCKET_NAME, "com/example/example-1.0.jar")).thenReturn(new StubReadChannel(content, 1000));
+
+    CollectingTransferProgress progress = new CollectingTransferProgress();
+    try {
+      client.download(BUCKET_NAME, "com/example/example-1.0.jar", destination, progress);
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("checksum"));
+    }
+    assertEquals(0, progress.getBytes().length);
+  }
+
+  @Test
+  public void aWagonReportsEachByteOnceWhenItGoesToGcsAfterTheProxy() throws Exception {
+    final byte[] content = randomBytes(4096);
+    Blob blob = blob(randomBytes(4096));
+    when(storage.get(eq(BUCKET_NAME), eq("com/example/example-1.0.jar"), (BlobGetOption[]) anyVararg()))
+        .thenReturn(blob);
+    when(storage.reader(anyString(), anyString(), (BlobSourceOption[]) anyVararg())).thenAnswer(
+        new Answer<ReadChannel>() {
+
+          @Override
+          public ReadChannel answer(InvocationOnMock invocation) {
+            return new StubReadChannel(content, 1000);
+          }
+        });
+    SimpleStorageServiceWagon wagon = new SimpleStorageServiceWagon(storage, BUCKET_NAME, "");
+    wagon.setProxyClient(client);
+
+    CollectingTransferProgress progress = new CollectingTransferProgress();
+    try {
+      wagon.getResource("com/example/example-1.0.jar", destination, progress);
+    } finally {
+      wagon.disconnectFromRepository();
+    }
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertArrayEquals(content, progress.getBytes());
+  }
+
+  @Test
+  public void itRefusesCallersWithOtherCredentials() throws Exception {
+    Path other = Files.createTempFile("other", ".json");
+    try {
+      LocalProxyClient client =
+          new LocalProxyClient(proxy.getPort(), other, LocalProxyToken.read(tokenDirectory, proxy.getPort()), 1000);
+      assertTrue(client.isRunning());
+      try {
+        client.exists(BUCKET_NAME, "foo/bar.jar");
+        fail("Expected an IOException");
+      } catch (IOException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains(String.valueOf(LocalProxy.MISDIRECTED)));
+      }
+    } finally {
+      Files.delete(other);
+    }
+    assertTrue(proxy.getStats(), proxy.getStats().startsWith("requests=1"));
+  }
+
+  @Test
+  public void itRefusesCallersThatDoNotKnowItsToken() throws Exception {
+    HttpURLConnection connection = (HttpURLConnection) new URL(
+        "http://127.0.0.1:" + proxy.getPort() + LocalProxy.OBJECTS_PATH + BUCKET_NAME + "/foo%2Fbar.jar")
+        .openConnection();
+    connection.setRequestMethod("HEAD");
+    connection.setRequestProperty(LocalProxy.CREDENTIALS_HEADER, credentials.toString());
+
+    assertEquals(401, connection.getResponseCode());
+  }
+
+  @Test
+  public void aClientDoesNotTrustAnythingElseOnThePort() throws Exception {
+    HttpServer impostor = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    impostor.createContext("/", new HttpHandler() {
+
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(200, -1);
+        exchange.close();
+      }
+    });
+    impostor.start();
+    try {
+      int port = impostor.getAddress().getPort();
+      LocalProxyClient client =
+          new LocalProxyClient(port, credentials, LocalProxyToken.read(tokenDirectory, proxy.getPort()), 1000);
+
+      assertFalse(client.isRunning());
+      try {
+        client.exists(BUCKET_NAME, "foo/bar.jar");
+        fail("Expected an IOException");
+      } catch (IOException e) {
+        // expected
+      }
+    } finally {
+      impostor.stop(0);
+    }
+  }
+
+  @Test
+  public void aClientOfNoProxyIsNotRunning() throws Exception {
+    int port = proxy.getPort();
+    LocalProxyToken token = LocalProxyToken.read(tokenDirectory, port);
+    proxy.stop();
+    proxy = startProxy(0);
+
+    assertFalse(new LocalProxyClient(port, credentials, token, 1000).isRunning());
+  }
+
+  private LocalProxy startProxy(int port) throws IOException {
+    return LocalProxy.start(port, credentials, tokenDirectory, new LocalProxy.WagonFactory() {
+
+      @Override
+      public SimpleStorageServiceWagon connect(String bucket) {
+        return new SimpleStorageServiceWagon(storage, bucket, "");
+      }
+    });
+  }
+
+  private static Blob blob(byte[] content) {
+    Blob blob = mock(Blob.class);
+    when(blob.getSize()).thenReturn((long) content.length);
+    when(blob.getCrc32c()).thenReturn(BlobStoreTest.crc32c(content));
+    return blob;
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    new Random().nextBytes(bytes);
+    return bytes;
+  }
+}
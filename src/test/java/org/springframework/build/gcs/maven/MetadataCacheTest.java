@@ -0,0 +1,99 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+public class MetadataCacheTest {
+
+  private final Object client = new Object();
+  private final ManualTicker ticker = new ManualTicker();
+  private final MetadataCache cache = new MetadataCache(2, ticker);
+  private final MetadataCache.Metadata metadata = new MetadataCache.Metadata(7L, 300L, 1000L, "md5", "crc32c");
+
+  @Test
+  public void itReturnsWhatWasFetchedWithinTheTimeToLive() {
+    cache.put(client, "bucket", "a.pom", metadata, cache.mark());
+
+    ticker.advance(1000);
+    assertSame(metadata, cache.get(client, "bucket", "a.pom", 1000));
+
+    ticker.advance(1);
+    assertNull(cache.get(client, "bucket", "a.pom", 1000));
+    assertSame("A longer time to live", metadata, cache.get(client, "bucket", "a.pom", 2000));
+  }
+
+  @Test
+  public void itOnlyReturnsWhatWasFetchedWithTheSameClient() {
+    cache.put(client, "bucket", "a.pom", metadata, cache.mark());
+
+    assertNull(cache.get(new Object(), "bucket", "a.pom", 1000));
+    assertNull(cache.get(client, "other", "a.pom", 1000));
+  }
+
+  @Test
+  public void itEvictsTheLeastRecentlyUsedEntries() {
+    cache.put(client, "bucket", "a.pom", metadata, cache.mark());
+    cache.put(client, "bucket", "b.pom", metadata, cache.mark());
+    cache.get(client, "bucket", "a.pom", 1000);
+
+    cache.put(client, "bucket", "c.pom", metadata, cache.mark());
+
+    assertEquals(2, cache.size());
+    assertSame(metadata, cache.get(client, "bucket", "a.pom", 1000));
+    assertNull(cache.get(client, "bucket", "b.pom", 1000));
+
+    cache.setMaxEntries(1);
+    assertEquals(1, cache.size());
+    assertSame(metadata, cache.get(client, "bucket", "a.pom", 1000));
+  }
+
+  @Test
+  public void itForgetsInvalidatedEntries() {
+    cache.put(client, "bucket", "a.pom", metadata, cache.mark());
+
+    cache.invalidate("bucket", "a.pom");
+
+    assertNull(cache.get(client, "bucket", "a.pom", 1000));
+  }
+
+  @Test
+  public void itDoesNotCacheWhatWasFetchedDuringAnInvalidation() {
+    long mark = cache.mark();
+    cache.invalidate("bucket", "a.pom");
+
+    cache.put(client, "bucket", "a.pom", metadata, mark);
+
+    assertNull(cache.get(client, "bucket", "a.pom", 1000));
+  }
+
+  @Test
+  public void itCountsHitsAndMisses() {
+    cache.get(client, "bucket", "a.pom", 1000);
+    cache.put(client, "bucket", "a.pom", metadata, cache.mark());
+    cache.get(client, "bucket", "a.pom", 1000);
+    cache.get(client, "bucket", "a.pom", 1000);
+
+    assertEquals("{entries=1, hits=2, missingHits=0, misses=1}", cache.toString());
+  }
+
+  private static final class ManualTicker extends Ticker {
+
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    private void advance(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.cloud.storage.Blob;
+
+public class PartialDownloadTest {
+
+  private File destination;
+  private PartialDownload partialDownload;
+
+  @Before
+  public void setup() throws Exception {
+    destination = File.createTempFile("partial", ".jar");
+    partialDownload = new PartialDownload(destination);
+  }
+
+  @After
+  public void cleanup() {
+    partialDownload.discard();
+    destination.delete();
+  }
+
+  @Test
+  public void itResumesFromTheBytesReportedToTheProgress() throws Exception {
+    write("abcdefgh");
+    TransferProgress progress = partialDownload.track(new StubTransferProgress());
+    progress.startTransferAttempt();
+    progress.notify("abcdef".getBytes(), 6);
+
+    partialDownload.setGeneration(7L);
+    assertEquals(6, partialDownload.resume(blob(7L)));
+    assertArrayEquals("abcdef".getBytes(), Files.readAllBytes(partialDownload.getFile().toPath()));
+  }
+
+  @Test
+  public void itStartsOverWhenTheGenerationChanged() throws Exception {
+    write("abcdef");
+    TransferProgress progress = partialDownload.track(new StubTransferProgress());
+    progress.notify("abcdef".getBytes(), 6);
+
+    partialDownload.setGeneration(7L);
+    assertEquals(0, partialDownload.resume(blob(8L)));
+    assertEquals(Long.valueOf(8L), partialDownload.getGeneration());
+    assertEquals(0, partialDownload.getFile().length());
+  }
+
+  @Test
+  public void itStartsOverWhenTheGenerationOfTheBytesOnDiskIsNotKnown() throws Exception {
+    write("abcdef");
+    TransferProgress progress = partialDownload.track(new StubTransferProgress());
+    progress.notify("abcdef".getBytes(), 6);
+
+    assertEquals(0, partialDownload.resume(blob(8L)));
+    assertEquals(Long.valueOf(8L), partialDownload.getGeneration());
+    assertEquals(0, partialDownload.getFile().length());
+  }
+
+  @Test
+  public void itMovesTheCompletedDownloadIntoPlace() throws Exception {
+    write("abcdef");
+    partialDownload.complete();
+
+    assertFalse(partialDownload.getFile().exists());
+    assertArrayEquals("abcdef".getBytes(), Files.readAllBytes(destination.toPath()));
+  }
+
+  private void write(String content) throws Exception {
+    Files.write(partialDownload.getFile().toPath(), content.getBytes());
+  }
+
+  private static Blob blob(long generation) {
+    Blob blob = mock(Blob.class);
+    when(blob.getGeneration()).thenReturn(generation);
+    return blob;
+  }
+}
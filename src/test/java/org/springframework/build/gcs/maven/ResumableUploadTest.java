@@ -0,0 +1,152 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobWriteOption;
+import com.google.cloud.storage.StorageException;
+
+@RunWith(Parameterized.class)
+public class ResumableUploadTest {
+
+  private static final int CHUNK_SIZE = 1024;
+  private static final BlobInfo TARGET = BlobInfo.newBuilder("bucket", "foo/bar.jar").build();
+
+  @Parameters(name = "mapped={0}")
+  public static Collection<Object[]> parameters() {
+    return Arrays.asList(new Object[][] { { false }, { true } });
+  }
+
+  private final Storage storage = mock(Storage.class);
+  // spans more than one mapping window
+  private final byte[] content = randomBytes(100 * CHUNK_SIZE + 100);
+  private final boolean mapped;
+
+  private File source;
+
+  public ResumableUploadTest(boolean mapped) {
+    this.mapped = mapped;
+  }
+
+  @Before
+  public void setup() throws Exception {
+    source = File.createTempFile("resumable", ".jar");
+    Files.write(source.toPath(), content);
+  }
+
+  @After
+  public void cleanup() {
+    source.delete();
+  }
+
+  @Test
+  public void itUploadsTheWholeFileAndClosesTheChannel() throws Exception {
+    StubWriteChannel writer = new StubWriteChannel();
+    when(storage.writer(any(BlobInfo.class), (BlobWriteOption[]) anyVararg())).thenReturn(writer);
+
+    CollectingTransferProgress progress = new CollectingTransferProgress();
+    new ResumableUpload(source, CHUNK_SIZE, mapped).upload(storage, TARGET, new GcsMetrics(), progress);
+
+    assertArrayEquals(content, writer.getContent());
+    assertArrayEquals(content, progress.getBytes());
+    assertFalse(writer.isOpen());
+  }
+
+  @Test
+  public void itUploadsAFileOfWholeChunks() throws Exception {
+    byte[] content = randomBytes(4 * CHUNK_SIZE);
+    Files.write(source.toPath(), content);
+    StubWriteChannel writer = new StubWriteChannel();
+    when(storage.writer(any(BlobInfo.class), (BlobWriteOption[]) anyVararg())).thenReturn(writer);
+
+    new ResumableUpload(source, CHUNK_SIZE, mapped).upload(storage, TARGET, new GcsMetrics(),
+                                                           new StubTransferProgress());
+
+    assertArrayEquals(content, writer.getContent());
+    assertFalse(writer.isOpen());
+  }
+
+  @Test
+  public void itContinuesTheSessionFromTheLastAcceptedChunk() throws Exception {
+    StubWriteChannel writer = new StubWriteChannel(3 * CHUNK_SIZE + 10);
+    when(storage.writer(any(BlobInfo.class), (BlobWriteOption[]) anyVararg())).thenReturn(writer);
+
+    ResumableUpload upload = new ResumableUpload(source, CHUNK_SIZE, mapped);
+    CollectingTransferProgress progress = new CollectingTransferProgress();
+    try {
+      upload.upload(storage, TARGET, new GcsMetrics(), progress);
+      fail("Expected a StorageException");
+    } catch (StorageException e) {
+      assertEquals(503, e.getCode());
+    }
+
+    // closing the channel would have finalized the object with only part of the file
+    assertTrue(writer.isOpen());
+    assertEquals(3 * CHUNK_SIZE, upload.getOffset());
+
+    upload.upload(storage, TARGET, new GcsMetrics(), new RetryableTransferProgress(progress));
+
+    verify(storage, times(1)).writer(any(BlobInfo.class), (BlobWriteOption[]) anyVararg());
+    StubWriteChannel restored = writer.getRestored();
+    assertArrayEquals(content, restored.getContent());
+    assertFalse(restored.isOpen());
+    assertArrayEquals(content, progress.getBytes());
+  }
+
+  @Test
+  public void itCapturesOnlyAtChunkBoundariesWhenChunksSpanSeveralBuffers() throws Exception {
+    int chunkSize = 2 * BufferPool.BUFFER_SIZE;
+    byte[] content = randomBytes(2 * chunkSize + 100);
+    Files.write(source.toPath(), content);
+    StubWriteChannel writer = new StubWriteChannel(chunkSize + BufferPool.BUFFER_SIZE + 10);
+    when(storage.writer(any(BlobInfo.class), (BlobWriteOption[]) anyVararg())).thenReturn(writer);
+
+    ResumableUpload upload = new ResumableUpload(source, chunkSize, mapped);
+    try {
+      upload.upload(storage, TARGET, new GcsMetrics(), new StubTransferProgress());
+      fail("Expected a StorageException");
+    } catch (StorageException e) {
+      assertEquals(chunkSize, upload.getOffset());
+    }
+
+    upload.upload(storage, TARGET, new GcsMetrics(), new StubTransferProgress());
+    assertArrayEquals(content, writer.getRestored().getContent());
+  }
+
+  @Test
+  public void itSizesChunksToTheFile() {
+    assertEquals(ResumableUpload.MIN_CHUNK_SIZE, ResumableUpload.chunkSizeFor(10 * 1024 * 1024));
+    assertEquals(4 * 1024 * 1024, ResumableUpload.chunkSizeFor(200L * 1024 * 1024));
+    assertEquals(ResumableUpload.MAX_CHUNK_SIZE, ResumableUpload.chunkSizeFor(10L * 1024 * 1024 * 1024));
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+}
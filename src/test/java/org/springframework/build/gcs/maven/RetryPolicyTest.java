@@ -0,0 +1,117 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+import org.apache.maven.wagon.TransferFailedException;
+import org.junit.Test;
+
+import com.github.rholder.retry.Attempt;
+import com.google.cloud.storage.StorageException;
+
+public class RetryPolicyTest {
+
+  @Test
+  public void itRetriesThrottlingTimeoutsAndServerErrors() {
+    assertTrue(RetryPolicy.isRetryable(new StorageException(429, "Too Many Requests")));
+    assertTrue(RetryPolicy.isRetryable(new StorageException(408, "Request Timeout")));
+    assertTrue(RetryPolicy.isRetryable(new StorageException(500, "Internal Server Error")));
+    assertTrue(RetryPolicy.isRetryable(new StorageException(503, "Service Unavailable")));
+    assertTrue(RetryPolicy.isRetryable(new StorageException(new SocketTimeoutException("Read timed out"))));
+  }
+
+  @Test
+  public void itDoesNotRetryOtherClientErrors() {
+    assertFalse(RetryPolicy.isRetryable(new StorageException(400, "Bad Request")));
+    assertFalse(RetryPolicy.isRetryable(new StorageException(403, "Forbidden")));
+    assertFalse(RetryPolicy.isRetryable(new StorageException(412, "Precondition Failed")));
+  }
+
+  @Test
+  public void itRetriesBrokenConnectionsButNotMissingLocalFiles() {
+    assertTrue(RetryPolicy.isRetryable(new IOException("Connection reset")));
+    assertFalse(RetryPolicy.isRetryable(new FileNotFoundException("example-1.0.jar")));
+  }
+
+  @Test
+  public void itClassifiesTransferFailuresByTheirCause() {
+    assertTrue(RetryPolicy.isRetryable(
+        new TransferFailedException("Error reading", new StorageException(502, "Bad Gateway"))));
+    assertFalse(RetryPolicy.isRetryable(
+        new TransferFailedException("Error reading", new StorageException(400, "Bad Request"))));
+    assertTrue(RetryPolicy.isRetryable(new TransferFailedException("Unexpected end of stream")));
+  }
+
+  @Test
+  public void itWaitsUpToADoublingBackoff() {
+    RetryPolicy policy = new RetryPolicy(10, 100, 1000, new RetryBudget(10, 0), new MaxRandom());
+
+    assertEquals(100, policy.getBackoffMillis(1));
+    assertEquals(200, policy.getBackoffMillis(2));
+    assertEquals(800, policy.getBackoffMillis(4));
+    assertEquals(1000, policy.getBackoffMillis(5));
+    assertEquals(1000, policy.getBackoffMillis(60));
+  }
+
+  @Test
+  public void itSpreadsRetriesOverTheWholeBackoff() {
+    RetryPolicy policy = new RetryPolicy(10, 100, 1000, new RetryBudget(10, 0), new Random(42));
+
+    long min = Long.MAX_VALUE;
+    long max = 0;
+    for (int i = 0; i < 1000; i++) {
+      long backoff = policy.getBackoffMillis(3);
+      min = Math.min(min, backoff);
+      max = Math.max(max, backoff);
+    }
+    assertTrue(min < 40);
+    assertTrue(max > 360 && max <= 400);
+  }
+
+  @Test
+  public void itStopsAfterTheLastAttempt() {
+    RetryPolicy policy = new RetryPolicy(3, 0, 0, new RetryBudget(10, 0), new Random());
+
+    assertFalse(policy.shouldStop(attempt(2)));
+    assertTrue(policy.shouldStop(attempt(3)));
+  }
+
+  @Test
+  public void itStopsWhenTheBudgetIsSpent() {
+    RetryBudget budget = new RetryBudget(1, 0.5);
+    RetryPolicy policy = new RetryPolicy(10, 0, 0, budget, new Random());
+
+    assertFalse(policy.shouldStop(attempt(1)));
+    assertTrue(policy.shouldStop(attempt(2)));
+
+    budget.recordRequest();
+    budget.recordRequest();
+    assertFalse("Every two requests earn another retry", policy.shouldStop(attempt(2)));
+    assertTrue(policy.shouldStop(attempt(3)));
+  }
+
+  private static Attempt<?> attempt(long number) {
+    Attempt<?> attempt = mock(Attempt.class);
+    when(attempt.getAttemptNumber()).thenReturn(number);
+    when(attempt.hasException()).thenReturn(true);
+    return attempt;
+  }
+
+  private static final class MaxRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public double nextDouble() {
+      return Math.nextAfter(1.0, 0);
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.apache.maven.wagon.TransferFailedException;
+import org.apache.maven.wagon.events.SessionEvent;
+import org.apache.maven.wagon.events.SessionListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobGetOption;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import com.google.cloud.storage.Storage.BlobWriteOption;
+import com.google.cloud.storage.StorageException;
+
+public class RetryingSimpleStorageWagonTest {
+
+  private static final String BUCKET_NAME = "bucket";
+  private static final String BASE_DIRECTORY = "release/";
+  private static final String RESOURCE = "com/example/example/1.0/example-1.0.jar";
+  private static final BlobId BLOB_ID = BlobId.of(BUCKET_NAME, BASE_DIRECTORY + RESOURCE, 7L);
+
+  private final Storage storage = mock(Storage.class);
+  private final RetryingSimpleStorageWagon wagon = new RetryingSimpleStorageWagon(storage, BUCKET_NAME, BASE_DIRECTORY);
+
+  private File destination;
+
+  @Before
+  public void setup() throws Exception {
+    destination = File.createTempFile("wagon", ".jar");
+    destination.delete();
+    wagon.setRetryInitialBackoff(1);
+    wagon.setRetryMaxBackoff(10);
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    destination.delete();
+    wagon.disconnectFromRepository();
+    CircuitBreaker.clear();
+  }
+
+  @Test
+  public void itResumesAFailedDownloadFromTheLastByteWritten() throws Exception {
+    // large enough to get past the first two chunks, which are read before the generation is known to be the one the
+    // metadata names
+    byte[] content = new byte[2 * SlicedDownload.READ_CHUNK_SIZE + 20000];
+    new Random(content.length).nextBytes(content);
+    int failAt = 2 * SlicedDownload.READ_CHUNK_SIZE + 15000;
+
+    StubReadChannel firstAttempt = new StubReadChannel(content, 64 * 1024, failAt);
+    StubReadChannel secondAttempt = new StubReadChannel(content, 64 * 1024);
+    when(storage.reader(eq(BUCKET_NAME), anyString(), (BlobSourceOption[]) anyVararg())).thenReturn(firstAttempt);
+    when(storage.reader(eq(BLOB_ID), (BlobSourceOption[]) anyVararg())).thenReturn(secondAttempt);
+
+    Blob blob = mock(Blob.class);
+    when(blob.getBlobId()).thenReturn(BLOB_ID);
+    when(blob.getGeneration()).thenReturn(7L);
+    when(blob.getSize()).thenReturn((long) content.length);
+    when(storage.get(eq(BUCKET_NAME), anyString(), (BlobGetOption[]) anyVararg())).thenReturn(blob);
+
+    wagon.setSlicedDownloadThreshold(0);
+    CollectingTransferProgress progress = new CollectingTransferProgress();
+    wagon.getResource(RESOURCE, destination, progress);
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertArrayEquals(content, progress.getBytes());
+    assertEquals(failAt, firstAttempt.getBytesRead());
+    assertEquals(content.length - failAt, secondAttempt.getBytesRead());
+    assertFalse(new File(destination.getPath() + ".gcs-partial").exists());
+  }
+
+  @Test
+  public void itContinuesAFailedUploadFromTheLastAcceptedChunk() throws Exception {
+    byte[] content = new byte[3 * ResumableUpload.MIN_CHUNK_SIZE + 20000];
+    new Random(content.length).nextBytes(content);
+    File source = File.createTempFile("wagon", ".jar");
+    Files.write(source.toPath(), content);
+
+    StubWriteChannel writer = new StubWriteChannel(2 * ResumableUpload.MIN_CHUNK_SIZE + 15000);
+    when(storage.writer(any(BlobInfo.class), (BlobWriteOption[]) anyVararg())).thenReturn(writer);
+
+    wagon.setResumableUploadThreshold(0);
+    CollectingTransferProgress progress = new CollectingTransferProgress();
+    try {
+      wagon.putResource(source, RESOURCE, progress);
+    } finally {
+      source.delete();
+    }
+
+    verify(storage, times(1)).writer(any(BlobInfo.class), (BlobWriteOption[]) anyVararg());
+    assertArrayEquals(content, writer.getRestored().getContent());
+    assertArrayEquals(content, progress.getBytes());
+  }
+
+  @Test
+  public void itDoesNotRetryAPermanentFailure() throws Exception {
+    when(storage.reader(eq(BUCKET_NAME), anyString(), (BlobSourceOption[]) anyVararg()))
+        .thenThrow(new StorageException(400, "Bad Request"));
+
+    try {
+      wagon.getResource(RESOURCE, destination, new CollectingTransferProgress());
+      fail();
+    } catch (TransferFailedException e) {
+      assertEquals(400, ((StorageException) e.getCause()).getCode());
+    }
+    verify(storage, times(1)).reader(eq(BUCKET_NAME), anyString(), (BlobSourceOption[]) anyVararg());
+  }
+
+  @Test
+  public void itRetriesAServerErrorUpToTheConfiguredAttempts() throws Exception {
+    when(storage.reader(eq(BUCKET_NAME), anyString(), (BlobSourceOption[]) anyVararg()))
+        .thenThrow(new StorageException(503, "Service Unavailable"));
+
+    wagon.setRetryAttempts(3);
+    try {
+      wagon.getResource(RESOURCE, destination, new CollectingTransferProgress());
+      fail();
+    } catch (TransferFailedException e) {
+      assertEquals(503, ((StorageException) e.getCause()).getCode());
+    }
+    verify(storage, times(3)).reader(eq(BUCKET_NAME), anyString(), (BlobSourceOption[]) anyVararg());
+  }
+
+  @Test
+  public void itStopsRetryingOnceTheSessionBudgetIsSpent() throws Exception {
+    when(storage.reader(eq(BUCKET_NAME), anyString(), (BlobSourceOption[]) anyVararg()))
+        .thenThrow(new StorageException(503, "Service Unavailable"));
+
+    wagon.setRetryBudgetMinimum(2);
+    wagon.setRetryBudgetRatio(0);
+    for (int i = 0; i < 2; i++) {
+      try {
+        wagon.getResource(RESOURCE, destination, new CollectingTransferProgress());
+        fail();
+      } catch (TransferFailedException expected) {
+        // the first transfer spends the budget, the second gets no retries
+      }
+    }
+    verify(storage, times(4)).reader(eq(BUCKET_NAME), anyString(), (BlobSourceOption[]) anyVararg());
+  }
+
+  @Test
+  public void itFailsFastOnceTheBucketIsFailing() throws Exception {
+    when(storage.reader(eq(BUCKET_NAME), anyString(), (BlobSourceOption[]) anyVararg()))
+        .thenThrow(new StorageException(503, "Service Unavailable"));
+    SessionListener sessionListener = mock(SessionListener.class);
+    wagon.addSessionListener(sessionListener);
+
+    wagon.setRetryAttempts(2);
+    wagon.setCircuitWindow(4);
+    wagon.setCircuitMinimumAttempts(4);
+    for (int i = 0; i < 3; i++) {
+      try {
+        wagon.getResource(RESOURCE, destination, new CollectingTransferProgress());
+        fail();
+      } catch (TransferFailedException expected) {
+        // the second transfer opens the circuit, and the third is never attempted
+      }
+    }
+
+    verify(storage, times(4)).reader(eq(BUCKET_NAME), anyString(), (BlobSourceOption[]) anyVararg());
+    ArgumentCaptor<SessionEvent> event = ArgumentCaptor.forClass(SessionEvent.class);
+    verify(sessionListener).sessionError(event.capture());
+    CircuitStateChangeException change = (CircuitStateChangeException) event.getValue().getException();
+    assertEquals(BUCKET_NAME, change.getBucket());
+    assertEquals(CircuitStateChangeException.State.OPEN, change.getTo());
+  }
+}
@@ -0,0 +1,168 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobListOption;
+
+public class ShardedListingTest {
+
+  private static final String BUCKET_NAME = "bucket";
+
+  private static final List<String> OBJECTS = Arrays.asList(
+      "release/com/example/a/1.0/a-1.0.jar",
+      "release/com/example/a/1.0/a-1.0.pom",
+      "release/com/example/a/maven-metadata.xml",
+      "release/com/example/b/2.0/b-2.0.jar",
+      "release/com/other/c/1.0/c-1.0.jar",
+      "release/com-index.txt",
+      "release/org/d/1.0/d-1.0.jar",
+      "release/readme.txt",
+      "snapshot/com/example/e/1.0/e-1.0.jar");
+
+  private final Storage storage = mock(Storage.class);
+  private final ExecutorService executor = Executors.newFixedThreadPool(3);
+  private final GcsMetrics metrics = new GcsMetrics();
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void itListsEveryShardAndMergesThemInOrder() throws Exception {
+    when(storage.list(eq(BUCKET_NAME), (BlobListOption[]) anyVararg())).thenAnswer(new FakeListing(2));
+
+    List<String> single = new ShardedListing(storage, executor, metrics, 1).list(BUCKET_NAME, "release/");
+    // one page of two objects at a time
+    assertEquals(4, metrics.get(GcsMetrics.Counter.LIST_REQUESTS));
+
+    List<String> sharded = new ShardedListing(storage, executor, metrics, 8).list(BUCKET_NAME, "release/");
+
+    assertEquals(Arrays.asList("com-index.txt", "com/", "com/example/", "com/example/a/", "com/example/a/1.0/",
+                               "com/example/a/1.0/a-1.0.jar", "com/example/a/1.0/a-1.0.pom",
+                               "com/example/a/maven-metadata.xml", "com/example/b/", "com/example/b/2.0/",
+                               "com/example/b/2.0/b-2.0.jar", "com/other/", "com/other/c/", "com/other/c/1.0/",
+                               "com/other/c/1.0/c-1.0.jar", "org/", "org/d/", "org/d/1.0/",
+                               "org/d/1.0/d-1.0.jar", "readme.txt"),
+                 single);
+    assertEquals(single, sharded);
+  }
+
+  @Test
+  public void itStopsSplittingAtTheBottomOfTheTree() throws Exception {
+    when(storage.list(eq(BUCKET_NAME), (BlobListOption[]) anyVararg())).thenAnswer(new FakeListing(1000));
+
+    List<String> listing = new ShardedListing(storage, executor, metrics, 100).list(BUCKET_NAME, "snapshot/");
+
+    assertEquals(Arrays.asList("com/", "com/example/", "com/example/e/", "com/example/e/1.0/",
+                               "com/example/e/1.0/e-1.0.jar"),
+                 listing);
+  }
+
+  /**
+   * Answers listings of {@link #OBJECTS}, with or without a delimiter, in pages of the given size. Like the client,
+   * each page holds its objects and then its prefixes, so a delimited listing is not in lexicographic order.
+   */
+  private static final class FakeListing implements Answer<Page<Blob>> {
+
+    private final int pageSize;
+
+    private FakeListing(int pageSize) {
+      this.pageSize = pageSize;
+    }
+
+    @Override
+    public Page<Blob> answer(InvocationOnMock invocation) {
+      List<Object> options = Arrays.asList(invocation.getArguments()).subList(1, invocation.getArguments().length);
+      boolean delimited = options.contains(BlobListOption.currentDirectory());
+      String prefix = null;
+      for (String candidate : prefixes()) {
+        if (options.contains(BlobListOption.prefix(candidate))) {
+          prefix = candidate;
+        }
+      }
+
+      Set<String> names = new LinkedHashSet<>();
+      Set<String> directories = new TreeSet<>();
+      for (String object : OBJECTS) {
+        if (!object.startsWith(prefix)) {
+          continue;
+        }
+        int slash = object.indexOf('/', prefix.length());
+        if (delimited && slash >= 0) {
+          directories.add(object.substring(0, slash + 1));
+        } else {
+          names.add(object);
+        }
+      }
+
+      List<String> sorted = new ArrayList<>(union(names, directories));
+      List<Blob> blobs = new ArrayList<>();
+      for (int from = 0; from < sorted.size(); from += pageSize) {
+        List<String> objects = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        for (String name : sorted.subList(from, Math.min(sorted.size(), from + pageSize))) {
+          (directories.contains(name) ? prefixes : objects).add(name);
+        }
+        objects.addAll(prefixes);
+        for (String name : objects) {
+          Blob blob = mock(Blob.class);
+          when(blob.getName()).thenReturn(name);
+          when(blob.isDirectory()).thenReturn(directories.contains(name));
+          blobs.add(blob);
+        }
+      }
+      return page(blobs, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Page<Blob> page(List<Blob> blobs, int from) {
+      int to = Math.min(blobs.size(), from + pageSize);
+      Page<Blob> next = to < blobs.size() ? page(blobs, to) : null;
+
+      Page<Blob> page = mock(Page.class);
+      when(page.getValues()).thenReturn(blobs.subList(from, to));
+      when(page.hasNextPage()).thenReturn(next != null);
+      when(page.getNextPage()).thenReturn(next);
+      return page;
+    }
+
+    private static Set<String> prefixes() {
+      Set<String> prefixes = new TreeSet<>();
+      for (String object : OBJECTS) {
+        for (int slash = object.indexOf('/'); slash >= 0; slash = object.indexOf('/', slash + 1)) {
+          prefixes.add(object.substring(0, slash + 1));
+        }
+      }
+      return prefixes;
+    }
+
+    private static Set<String> union(Set<String> first, Set<String> second) {
+      Set<String> union = new TreeSet<>(first);
+      union.addAll(second);
+      return Collections.unmodifiableSet(union);
+    }
+  }
+}
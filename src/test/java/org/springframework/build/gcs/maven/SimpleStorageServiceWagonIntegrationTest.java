@@ -20,14 +20,13 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
-import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -38,16 +37,15 @@ import org.apache.maven.wagon.authentication.AuthenticationInfo;
 import org.apache.maven.wagon.repository.Repository;
 import org.junit.Ignore;
 import org.junit.Test;
-import org.mockito.invocation.InvocationOnMock;
-import org.mockito.stubbing.Answer;
 
 import com.google.api.gax.paging.Page;
+import com.google.cloud.ReadChannel;
 import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.Storage;
-import com.google.cloud.storage.Storage.BlobField;
 import com.google.cloud.storage.Storage.BlobGetOption;
 import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.StorageException;
 
 @Ignore
 public final class SimpleStorageServiceWagonIntegrationTest {
@@ -104,7 +102,7 @@ public final class SimpleStorageServiceWagonIntegrationTest {
         when(this.storage.get(
             BUCKET_NAME,
             BASE_DIRECTORY + FILE_NAME,
-            BlobGetOption.fields()
+            BlobGetOption.fields(SimpleStorageServiceWagon.CACHED_FIELDS)
         )).thenReturn(this.blob);
         assertTrue(this.wagon.doesRemoteResourceExist(FILE_NAME));
     }
@@ -114,7 +112,7 @@ public final class SimpleStorageServiceWagonIntegrationTest {
         when(this.storage.get(
             BUCKET_NAME,
             BASE_DIRECTORY + FILE_NAME,
-            BlobGetOption.fields()
+            BlobGetOption.fields(SimpleStorageServiceWagon.CACHED_FIELDS)
         )).thenReturn(null);
         assertFalse(this.wagon.doesRemoteResourceExist(FILE_NAME));
     }
@@ -125,7 +123,7 @@ public final class SimpleStorageServiceWagonIntegrationTest {
         when(this.storage.get(
             BUCKET_NAME,
             BASE_DIRECTORY + FILE_NAME,
-            BlobGetOption.fields(BlobField.UPDATED)
+            BlobGetOption.fields(SimpleStorageServiceWagon.CACHED_FIELDS)
         )).thenReturn(this.blob);
 
         assertTrue(this.wagon.isRemoteResourceNewer(FILE_NAME, 0));
@@ -137,7 +135,7 @@ public final class SimpleStorageServiceWagonIntegrationTest {
         when(this.storage.get(
             BUCKET_NAME,
             BASE_DIRECTORY + FILE_NAME,
-            BlobGetOption.fields(BlobField.UPDATED)
+            BlobGetOption.fields(SimpleStorageServiceWagon.CACHED_FIELDS)
         )).thenReturn(this.blob);
 
         assertFalse(this.wagon.isRemoteResourceNewer(FILE_NAME, Long.MAX_VALUE));
@@ -148,7 +146,7 @@ public final class SimpleStorageServiceWagonIntegrationTest {
         when(this.storage.get(
             BUCKET_NAME,
             BASE_DIRECTORY + FILE_NAME,
-            BlobGetOption.fields(BlobField.UPDATED)
+            BlobGetOption.fields(SimpleStorageServiceWagon.CACHED_FIELDS)
         )).thenReturn(this.blob);
 
         assertTrue(this.wagon.isRemoteResourceNewer(FILE_NAME, 0));
@@ -159,7 +157,7 @@ public final class SimpleStorageServiceWagonIntegrationTest {
         when(this.storage.get(
             BUCKET_NAME,
             BASE_DIRECTORY + FILE_NAME,
-            BlobGetOption.fields(BlobField.UPDATED)
+            BlobGetOption.fields(SimpleStorageServiceWagon.CACHED_FIELDS)
         )).thenReturn(null);
 
         this.wagon.isRemoteResourceNewer(FILE_NAME, 0);
@@ -197,23 +195,9 @@ public final class SimpleStorageServiceWagonIntegrationTest {
 
     @Test
     public void getResource() throws Exception {
-        when(this.storage.get(
-            BUCKET_NAME,
-            BASE_DIRECTORY + FILE_NAME,
-            BlobGetOption.fields()
-        )).thenReturn(blob);
-
-        doAnswer(new Answer() {
-
-          @Override
-          public Object answer(InvocationOnMock invocation) throws Throwable {
-              try (InputStream inputStream = new FileInputStream("src/test/resources/test.txt")) {
-                  OutputStream outputStream = (OutputStream) invocation.getArguments()[0];
-                  IoUtils.copy(inputStream, outputStream);
-              }
-              return null;
-          }
-        }).when(this.blob).downloadTo(any(OutputStream.class));
+        byte[] content = Files.readAllBytes(Paths.get("src/test/resources/test.txt"));
+        when(this.storage.reader(BUCKET_NAME, BASE_DIRECTORY + FILE_NAME))
+            .thenReturn(new StubReadChannel(content, content.length));
 
         File target = new File("target/robots.txt");
         target.delete();
@@ -226,11 +210,9 @@ public final class SimpleStorageServiceWagonIntegrationTest {
 
     @Test(expected = ResourceDoesNotExistException.class)
     public void getResourceSourceDoesNotExist() throws Exception {
-        when(this.storage.get(
-            BUCKET_NAME,
-            BASE_DIRECTORY + FILE_NAME,
-            BlobGetOption.fields()
-        )).thenReturn(null);
+        ReadChannel reader = mock(ReadChannel.class);
+        when(reader.read(any(ByteBuffer.class))).thenThrow(new StorageException(404, "Not Found"));
+        when(this.storage.reader(BUCKET_NAME, BASE_DIRECTORY + FILE_NAME)).thenReturn(reader);
 
         File target = new File("target/robots.txt");
         this.wagon.getResource(FILE_NAME, target, this.transferProgress);
@@ -0,0 +1,491 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.maven.wagon.ResourceDoesNotExistException;
+import org.apache.maven.wagon.TransferFailedException;
+import org.apache.maven.wagon.events.TransferEvent;
+import org.apache.maven.wagon.events.TransferListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobGetOption;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import com.google.cloud.storage.Storage.BlobWriteOption;
+import com.google.cloud.storage.StorageException;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class SimpleStorageServiceWagonTest {
+
+  private static final String BUCKET_NAME = "bucket";
+  private static final String BASE_DIRECTORY = "release/";
+
+  private final Storage storage = mock(Storage.class);
+  private final SimpleStorageServiceWagon wagon = new SimpleStorageServiceWagon(storage, BUCKET_NAME, BASE_DIRECTORY);
+
+  private File destination;
+
+  @Before
+  public void setup() throws Exception {
+    destination = File.createTempFile("wagon", ".jar");
+    destination.delete();
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    destination.delete();
+    wagon.disconnectFromRepository();
+  }
+
+  @Test
+  public void itMakesOneRequestPerSmallResource() throws Exception {
+    final byte[] content = randomBytes(4096);
+    Answer<ReadChannel> reader = new Answer<ReadChannel>() {
+
+      @Override
+      public ReadChannel answer(InvocationOnMock invocation) {
+        return new StubReadChannel(content, 1000);
+      }
+    };
+    when(storage.reader(anyString(), anyString(), (BlobSourceOption[]) anyVararg())).thenAnswer(reader);
+
+    int resources = 5;
+    for (int i = 0; i < resources; i++) {
+      wagon.getResource("com/example/example/1.0/example-1.0.pom", destination, new StubTransferProgress());
+      assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    }
+
+    assertEquals(resources, wagon.getMetrics().get(GcsMetrics.Counter.READ_REQUESTS));
+    assertEquals(0, wagon.getMetrics().get(GcsMetrics.Counter.METADATA_REQUESTS));
+    assertEquals(resources, wagon.getMetrics().getTotalRequests());
+  }
+
+  @Test
+  public void itMapsAMissingObjectToResourceDoesNotExist() throws Exception {
+    ReadChannel reader = mock(ReadChannel.class);
+    when(reader.read(any(ByteBuffer.class))).thenThrow(new StorageException(404, "Not Found"));
+    when(storage.reader(BUCKET_NAME, BASE_DIRECTORY + "missing.pom")).thenReturn(reader);
+
+    try {
+      wagon.getResource("missing.pom", destination, new StubTransferProgress());
+      fail("Expected a ResourceDoesNotExistException");
+    } catch (ResourceDoesNotExistException e) {
+      assertFalse(destination.exists());
+    }
+    assertEquals(1, wagon.getMetrics().getTotalRequests());
+  }
+
+  @Test
+  public void itSlicesLargeResources() throws Exception {
+    final byte[] content = randomBytes(3 * SlicedDownload.READ_CHUNK_SIZE + 5000);
+    Answer<ReadChannel> reader = new Answer<ReadChannel>() {
+
+      @Override
+      public ReadChannel answer(InvocationOnMock invocation) {
+        return new StubReadChannel(content, 64 * 1024);
+      }
+    };
+    when(storage.reader(anyString(), anyString(), (BlobSourceOption[]) anyVararg())).thenAnswer(reader);
+    when(storage.reader(any(BlobId.class), (BlobSourceOption[]) anyVararg())).thenAnswer(reader);
+
+    Blob blob = mock(Blob.class);
+    when(blob.getSize()).thenReturn((long) content.length);
+    when(blob.getBlobId()).thenReturn(BlobId.of(BUCKET_NAME, BASE_DIRECTORY + "big.tar.gz", 7L));
+    when(storage.get(anyString(), anyString(), (BlobGetOption[]) anyVararg())).thenReturn(blob);
+
+    wagon.setSlicedDownloadThreshold(1024);
+    wagon.setDownloadSliceSize(1024 * 1024);
+    wagon.getResource("big.tar.gz", destination, new StubTransferProgress());
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertEquals(1, wagon.getMetrics().get(GcsMetrics.Counter.METADATA_REQUESTS));
+    // the first two chunks through one reader, then three slices of what is left
+    assertEquals(4, wagon.getMetrics().get(GcsMetrics.Counter.READ_REQUESTS));
+  }
+
+  @Test
+  public void itReadsEachByteOfALargeResourceOnce() throws Exception {
+    byte[] content = randomBytes(3 * SlicedDownload.READ_CHUNK_SIZE + 5000);
+    StubReadChannel reader = new StubReadChannel(content, 64 * 1024);
+    when(storage.reader(anyString(), anyString(), (BlobSourceOption[]) anyVararg())).thenReturn(reader);
+
+    Blob blob = mock(Blob.class);
+    when(blob.getSize()).thenReturn((long) content.length);
+    when(blob.getGeneration()).thenReturn(7L);
+    when(storage.get(anyString(), anyString(), (BlobGetOption[]) anyVararg())).thenReturn(blob);
+
+    CollectingTransferProgress progress = new CollectingTransferProgress();
+    wagon.getResource("big.tar.gz", destination, progress);
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertArrayEquals(content, progress.getBytes());
+    assertEquals(content.length, reader.getBytesRead());
+    assertEquals(1, wagon.getMetrics().get(GcsMetrics.Counter.METADATA_REQUESTS));
+    assertEquals(1, wagon.getMetrics().get(GcsMetrics.Counter.READ_REQUESTS));
+  }
+
+  @Test
+  public void itUploadsSmallFilesInASingleRequest() throws Exception {
+    byte[] content = randomBytes(300);
+    File source = File.createTempFile("wagon", ".sha1");
+    Files.write(source.toPath(), content);
+
+    CollectingTransferProgress progress = new CollectingTransferProgress();
+    try {
+      wagon.putResource(source, "com/example/example/1.0/maven-metadata.xml", progress);
+    } finally {
+      source.delete();
+    }
+
+    ArgumentCaptor<BlobInfo> blobInfo = ArgumentCaptor.forClass(BlobInfo.class);
+    verify(storage).create(blobInfo.capture(), eq(content));
+    verify(storage, never()).writer(any(BlobInfo.class), (BlobWriteOption[]) anyVararg());
+    assertEquals(BASE_DIRECTORY + "com/example/example/1.0/maven-metadata.xml", blobInfo.getValue().getName());
+    assertEquals("application/xml", blobInfo.getValue().getContentType());
+    assertArrayEquals(content, progress.getBytes());
+    assertEquals(1, wagon.getMetrics().getTotalRequests());
+  }
+
+  @Test
+  public void itUploadsFilesAtTheThresholdThroughAResumableSession() throws Exception {
+    byte[] content = randomBytes(300);
+    File source = File.createTempFile("wagon", ".jar");
+    Files.write(source.toPath(), content);
+
+    StubWriteChannel writer = new StubWriteChannel();
+    when(storage.writer(any(BlobInfo.class), (BlobWriteOption[]) anyVararg())).thenReturn(writer);
+
+    wagon.setResumableUploadThreshold(content.length);
+    try {
+      wagon.putResource(source, "com/example/example/1.0/example-1.0.jar", new StubTransferProgress());
+    } finally {
+      source.delete();
+    }
+
+    verify(storage, never()).create(any(BlobInfo.class), any(byte[].class));
+    assertArrayEquals(content, writer.getContent());
+  }
+
+  @Test
+  public void itChecksEachResourceOnceUntilItIsUploaded() throws Exception {
+    Blob blob = mock(Blob.class);
+    when(blob.getUpdateTime()).thenReturn(1000L);
+    when(storage.get(BUCKET_NAME, BASE_DIRECTORY + "maven-metadata.xml",
+                     BlobGetOption.fields(SimpleStorageServiceWagon.CACHED_FIELDS))).thenReturn(blob);
+
+    assertTrue(wagon.doesRemoteResourceExist("maven-metadata.xml"));
+    assertTrue(wagon.isRemoteResourceNewer("maven-metadata.xml", 0));
+    assertFalse(wagon.isRemoteResourceNewer("maven-metadata.xml", 1000));
+    assertEquals(1, wagon.getMetrics().get(GcsMetrics.Counter.METADATA_REQUESTS));
+
+    File source = File.createTempFile("wagon", ".xml");
+    try {
+      wagon.putResource(source, "maven-metadata.xml", new StubTransferProgress());
+    } finally {
+      source.delete();
+    }
+    assertTrue(wagon.doesRemoteResourceExist("maven-metadata.xml"));
+    assertEquals(2, wagon.getMetrics().get(GcsMetrics.Counter.METADATA_REQUESTS));
+  }
+
+  @Test
+  public void itChecksEveryTimeWithTheMetadataCacheDisabled() throws Exception {
+    when(storage.get(BUCKET_NAME, BASE_DIRECTORY + "maven-metadata.xml", BlobGetOption.fields()))
+        .thenReturn(mock(Blob.class));
+    wagon.setMetadataCacheTtl(0);
+
+    assertTrue(wagon.doesRemoteResourceExist("maven-metadata.xml"));
+    assertTrue(wagon.doesRemoteResourceExist("maven-metadata.xml"));
+    assertEquals(2, wagon.getMetrics().get(GcsMetrics.Counter.METADATA_REQUESTS));
+  }
+
+  @Test
+  public void itRemembersResourcesThatWereNotFound() throws Exception {
+    ReadChannel reader = mock(ReadChannel.class);
+    when(reader.read(any(ByteBuffer.class))).thenThrow(new StorageException(404, "Not Found"));
+    when(storage.reader(BUCKET_NAME, BASE_DIRECTORY + "missing.pom")).thenReturn(reader);
+
+    assertFalse(wagon.doesRemoteResourceExist("missing.jar"));
+    assertFalse(wagon.doesRemoteResourceExist("missing.jar"));
+    for (int i = 0; i < 2; i++) {
+      try {
+        wagon.getResource("missing.pom", destination, new StubTransferProgress());
+        fail("Expected a ResourceDoesNotExistException");
+      } catch (ResourceDoesNotExistException expected) {
+      }
+    }
+
+    assertEquals(2, wagon.getMetrics().getTotalRequests());
+    assertEquals(2, wagon.getMetrics().get(GcsMetrics.Counter.MISSING_CACHE_HITS));
+    assertEquals(0.5, wagon.getMetrics().getLookupHitRatio(), 0);
+  }
+
+  @Test
+  public void itAnswersForResourcesMissingFromAListedDirectory() throws Exception {
+    Page<Blob> listing = page(null, "release/com/example/1.0/example-1.0.pom");
+    when(storage.list(eq(BUCKET_NAME), (BlobListOption[]) anyVararg())).thenReturn(listing);
+    when(storage.get(eq(BUCKET_NAME), eq("release/com/example/1.0/example-1.0.pom"),
+                     (BlobGetOption[]) anyVararg())).thenReturn(mock(Blob.class));
+    wagon.setListingFilters(true);
+
+    assertFalse(wagon.doesRemoteResourceExist("com/example/1.0/example-1.0.jar"));
+    assertFalse(wagon.doesRemoteResourceExist("com/example/1.0/example-1.0-sources.jar"));
+    assertTrue(wagon.doesRemoteResourceExist("com/example/1.0/example-1.0.pom"));
+
+    assertEquals(1, wagon.getMetrics().get(GcsMetrics.Counter.LIST_REQUESTS));
+    assertEquals(1, wagon.getMetrics().get(GcsMetrics.Counter.METADATA_REQUESTS));
+    assertEquals(2, wagon.getMetrics().get(GcsMetrics.Counter.FILTER_HITS));
+  }
+
+  @Test
+  public void itRevalidatesCachedResourcesInsteadOfDownloadingThemAgain() throws Exception {
+    final byte[] content = randomBytes(4096);
+    Answer<ReadChannel> reader = new Answer<ReadChannel>() {
+
+      @Override
+      public ReadChannel answer(InvocationOnMock invocation) {
+        return new StubReadChannel(content, 1000);
+      }
+    };
+    when(storage.reader(anyString(), anyString(), (BlobSourceOption[]) anyVararg())).thenAnswer(reader);
+    Blob blob = mock(Blob.class);
+    when(blob.getGeneration()).thenReturn(7L);
+    when(blob.getSize()).thenReturn((long) content.length);
+    BlobGetOption fields = BlobGetOption.fields(BlobField.GENERATION, BlobField.METAGENERATION, BlobField.SIZE);
+    String key = BASE_DIRECTORY + "maven-metadata.xml";
+    when(storage.get(BUCKET_NAME, key, fields)).thenReturn(blob);
+    when(storage.get(BUCKET_NAME, key, fields, BlobGetOption.generationNotMatch(7)))
+        .thenThrow(new StorageException(304, "Not Modified"));
+
+    Path cache = Files.createTempDirectory("gcs-cache");
+    wagon.setCacheDirectory(cache.toString());
+    try {
+      for (int i = 0; i < 3; i++) {
+        CollectingTransferProgress progress = new CollectingTransferProgress();
+        wagon.getResource("maven-metadata.xml", destination, progress);
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+        assertArrayEquals(content, progress.getBytes());
+      }
+    } finally {
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(cache)) {
+        for (Path entry : entries) {
+          Files.delete(entry);
+        }
+      }
+      Files.delete(cache);
+    }
+
+    assertEquals(1, wagon.getMetrics().get(GcsMetrics.Counter.READ_REQUESTS));
+    assertEquals(3, wagon.getMetrics().get(GcsMetrics.Counter.METADATA_REQUESTS));
+    assertEquals(2, wagon.getMetrics().get(GcsMetrics.Counter.DISK_CACHE_HITS));
+  }
+
+  @Test
+  public void itDownloadsTheSameContentOnceIntoEveryLocalRepository() throws Exception {
+    final byte[] content = randomBytes(4096);
+    Answer<ReadChannel> reader = new Answer<ReadChannel>() {
+
+      @Override
+      public ReadChannel answer(InvocationOnMock invocation) {
+        return new StubReadChannel(content, 1000);
+      }
+    };
+    when(storage.reader(anyString(), anyString(), (BlobSourceOption[]) anyVararg())).thenAnswer(reader);
+    Blob blob = mock(Blob.class);
+    when(blob.getSize()).thenReturn((long) content.length);
+    when(blob.getCrc32c()).thenReturn(BlobStoreTest.crc32c(content));
+    when(blob.getMd5()).thenReturn(BlobStoreTest.md5(content));
+    when(storage.get(eq(BUCKET_NAME), anyString(), (BlobGetOption[]) anyVararg())).thenReturn(blob);
+
+    Path store = Files.createTempDirectory("gcs-blobs");
+    wagon.setBlobStoreDirectory(store.toString());
+    List<File> repositories = new ArrayList<>();
+    try {
+      for (int i = 0; i < 3; i++) {
+        File repository = File.createTempFile("wagon", ".jar");
+        repositories.add(repository);
+        wagon.getResource("com/example/example/1.0/example-1.0.jar", repository, new StubTransferProgress());
+        assertArrayEquals(content, Files.readAllBytes(repository.toPath()));
+      }
+    } finally {
+      for (File repository : repositories) {
+        repository.delete();
+      }
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(store)) {
+        for (Path entry : entries) {
+          Files.delete(entry);
+        }
+      }
+      Files.delete(store);
+    }
+
+    assertEquals(1, wagon.getMetrics().get(GcsMetrics.Counter.READ_REQUESTS));
+    assertEquals(2, wagon.getMetrics().get(GcsMetrics.Counter.BLOB_STORE_HITS));
+  }
+
+  @Test
+  public void itListsADirectoryInOnePassOverEveryPage() throws Exception {
+    Page<Blob> second = page(null, "release/com/example/b/1.0/b-1.0.jar", "release/com/example/maven-metadata.xml");
+    Page<Blob> first = page(second, "release/com/", "release/com/example/a/1.0/a-1.0.jar",
+                            "release/com/example/a/1.0/a-1.0.pom");
+    when(storage.list(eq(BUCKET_NAME), (BlobListOption[]) anyVararg())).thenReturn(first);
+
+    List<String> contents = wagon.listDirectory("com/");
+
+    assertEquals(Arrays.asList("example/", "example/a/", "example/a/1.0/", "example/a/1.0/a-1.0.jar",
+                               "example/a/1.0/a-1.0.pom", "example/b/", "example/b/1.0/",
+                               "example/b/1.0/b-1.0.jar", "example/maven-metadata.xml"), contents);
+    verify(storage).list(BUCKET_NAME, BlobListOption.prefix("release/com/"), BlobListOption.pageSize(1000),
+                         BlobListOption.fields(BlobField.NAME));
+    assertEquals(2, wagon.getMetrics().get(GcsMetrics.Counter.LIST_REQUESTS));
+  }
+
+  @Test
+  public void itListsTheSamePathsOneDirectoryAtATime() throws Exception {
+    Page<Blob> top = page(null, "release/com/", "release/maven-metadata.xml");
+    Page<Blob> nested = page(null, "release/com/a-1.0.jar");
+    when(storage.list(BUCKET_NAME, BlobListOption.currentDirectory(), BlobListOption.prefix("release/")))
+        .thenReturn(top);
+    when(storage.list(BUCKET_NAME, BlobListOption.currentDirectory(), BlobListOption.prefix("release/com/")))
+        .thenReturn(nested);
+
+    wagon.setFlatListing(false);
+    List<String> contents = wagon.listDirectory("");
+
+    assertEquals(Arrays.asList("com/", "com/a-1.0.jar", "maven-metadata.xml"), contents);
+  }
+
+  @Test
+  public void itTransfersAsynchronouslyWithTheSameEvents() throws Exception {
+    final byte[] content = randomBytes(4096);
+    when(storage.reader(BUCKET_NAME, BASE_DIRECTORY + "async/example-1.0.jar"))
+        .thenReturn(new StubReadChannel(content, 1000));
+    TransferListener listener = mock(TransferListener.class);
+    wagon.addTransferListener(listener);
+
+    wagon.getAsync("async/example-1.0.jar", destination).get();
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    InOrder events = inOrder(listener);
+    events.verify(listener).transferInitiated(any(TransferEvent.class));
+    events.verify(listener).transferStarted(any(TransferEvent.class));
+    events.verify(listener, atLeastOnce()).transferProgress(any(TransferEvent.class), any(byte[].class), anyInt());
+    events.verify(listener).transferCompleted(any(TransferEvent.class));
+    assertFalse(wagon.existsAsync("async/missing-1.0.jar").get());
+  }
+
+  @Test
+  public void itFailsAsyncTransfersOnceDisconnected() throws Exception {
+    wagon.disconnectFromRepository();
+
+    try {
+      wagon.existsAsync("async/example-1.0.pom").get();
+      fail("Expected an ExecutionException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TransferFailedException);
+    }
+  }
+
+  @Test
+  public void itWaitsForAsyncTransfersInFlightBeforeDisconnecting() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch finish = new CountDownLatch(1);
+    when(storage.get(eq(BUCKET_NAME), eq(BASE_DIRECTORY + "async/slow-1.0.pom"), (BlobGetOption[]) anyVararg()))
+        .thenAnswer(new Answer<Blob>() {
+
+          @Override
+          public Blob answer(InvocationOnMock invocation) throws Exception {
+            started.countDown();
+            finish.await();
+            return mock(Blob.class);
+          }
+        });
+    ListenableFuture<Boolean> exists = wagon.existsAsync("async/slow-1.0.pom");
+    started.await();
+
+    Thread disconnect = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        wagon.disconnectFromRepository();
+      }
+    });
+    disconnect.start();
+    disconnect.join(200);
+    assertTrue("Waiting for the transfer in flight", disconnect.isAlive());
+    try {
+      wagon.existsAsync("async/example-1.0.pom").get();
+      fail("Expected an ExecutionException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TransferFailedException);
+    }
+
+    finish.countDown();
+    disconnect.join();
+    assertTrue(exists.get());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Page<Blob> page(Page<Blob> next, String... names) {
+    List<Blob> blobs = new ArrayList<>();
+    for (String name : names) {
+      Blob blob = mock(Blob.class);
+      when(blob.getName()).thenReturn(name);
+      when(blob.isDirectory()).thenReturn(name.endsWith("/"));
+      blobs.add(blob);
+    }
+
+    Page<Blob> page = mock(Page.class);
+    when(page.getValues()).thenReturn(blobs);
+    when(page.iterateAll()).thenReturn(blobs);
+    when(page.hasNextPage()).thenReturn(next != null);
+    when(page.getNextPage()).thenReturn(next);
+    return page;
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,180 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+  private final SingleFlight<String, String> flights = new SingleFlight<>();
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final CountDownLatch started = new CountDownLatch(1);
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final AtomicInteger calls = new AtomicInteger();
+
+  @After
+  public void cleanup() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void itMakesOneCallForConcurrentCallers() throws Exception {
+    Future<String> leader = submit("key", blockingCall("result"), null);
+    started.await();
+    List<Future<String>> followers = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      followers.add(submit("key", blockingCall("other"), null));
+    }
+    awaitFollowers(4);
+
+    release.countDown();
+
+    assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+    for (Future<String> follower : followers) {
+      assertEquals("result", follower.get(5, TimeUnit.SECONDS));
+    }
+    assertEquals(1, calls.get());
+    assertEquals(0, flights.size());
+  }
+
+  @Test
+  public void itMakesSeparateCallsForDifferentKeys() throws Exception {
+    release.countDown();
+
+    assertEquals("a", flights.execute("a", blockingCall("a")));
+    assertEquals("b", flights.execute("b", blockingCall("b")));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void itMakesANewCallOnceTheLastOneHasCompleted() throws Exception {
+    release.countDown();
+
+    flights.execute("key", blockingCall("first"));
+    assertEquals("second", flights.execute("key", blockingCall("second")));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void itGivesFollowersTheLeadersFailure() throws Exception {
+    final IOException failure = new IOException("Connection reset");
+    Future<String> leader = submit("key", new Callable<String>() {
+
+      @Override
+      public String call() throws Exception {
+        started.countDown();
+        release.await();
+        throw failure;
+      }
+    }, null);
+    started.await();
+    Future<String> follower = submit("key", blockingCall("other"), null);
+    awaitFollowers(2);
+
+    release.countDown();
+
+    assertSame(failure, cause(leader));
+    assertSame(failure, cause(follower));
+  }
+
+  @Test
+  public void theLeaderWaitsForItsFollowersToFinish() throws Exception {
+    final CountDownLatch following = new CountDownLatch(1);
+    final CountDownLatch finish = new CountDownLatch(1);
+    Future<String> leader = submit("key", blockingCall("result"), null);
+    started.await();
+    Future<String> follower = submit("key", blockingCall("other"), new SingleFlight.Follower<String>() {
+
+      @Override
+      public void follow(String result) throws Exception {
+        following.countDown();
+        finish.await();
+      }
+    });
+    awaitFollowers(2);
+
+    release.countDown();
+    assertTrue(following.await(5, TimeUnit.SECONDS));
+    Thread.sleep(50);
+    assertFalse("Still in use by the follower", leader.isDone());
+
+    finish.countDown();
+    assertEquals("result", follower.get(5, TimeUnit.SECONDS));
+    assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+  }
+
+  private Callable<String> blockingCall(final String result) {
+    return new Callable<String>() {
+
+      @Override
+      public String call() throws Exception {
+        calls.incrementAndGet();
+        started.countDown();
+        release.await();
+        return result;
+      }
+    };
+  }
+
+  private Future<String> submit(final String key, final Callable<String> call,
+                                final SingleFlight.Follower<String> follower) {
+    return executor.submit(new Callable<String>() {
+
+      @Override
+      public String call() throws Exception {
+        return flights.execute(key, call, follower);
+      }
+    });
+  }
+
+  // Followers join without any sign of it, so wait for them to be parked on the flight
+  private void awaitFollowers(int threads) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (waitingThreads() < threads && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+  }
+
+  private static int waitingThreads() {
+    int waiting = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getState() != Thread.State.WAITING) {
+        continue;
+      }
+      for (StackTraceElement element : thread.getStackTrace()) {
+        if (element.getClassName().startsWith(SingleFlight.class.getName())) {
+          waiting++;
+          break;
+        }
+      }
+    }
+    return waiting;
+  }
+
+  private static Throwable cause(Future<?> future) throws Exception {
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("Expected a failure");
+      return null;
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+  }
+}
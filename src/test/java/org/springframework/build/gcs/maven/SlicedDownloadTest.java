@@ -0,0 +1,136 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import com.google.cloud.storage.StorageException;
+
+public class SlicedDownloadTest {
+
+  private static final BlobId BLOB_ID = BlobId.of("bucket", "foo/bar.jar", 42L);
+
+  private final Storage storage = mock(Storage.class);
+  private final ExecutorService executor = Executors.newFixedThreadPool(3);
+  private final SlicedDownload slicedDownload = new SlicedDownload(storage, executor, new GcsMetrics(), 1024);
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void itWritesEverySliceAndReportsProgressInOrder() throws Exception {
+    final byte[] content = randomBytes(10000);
+    when(storage.reader(any(BlobId.class), (BlobSourceOption[]) anyVararg())).thenAnswer(new Answer<ReadChannel>() {
+
+      @Override
+      public ReadChannel answer(InvocationOnMock invocation) {
+        return new StubReadChannel(content, 333);
+      }
+    });
+
+    File destination = File.createTempFile("sliced", ".jar");
+    CollectingTransferProgress progress = new CollectingTransferProgress();
+    try {
+      slicedDownload.download(BLOB_ID, 0, content.length, destination, progress);
+
+      assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+      assertArrayEquals(content, progress.getBytes());
+      verify(storage, times(10)).reader(BLOB_ID);
+    } finally {
+      destination.delete();
+    }
+  }
+
+  @Test
+  public void itContinuesFromAStartPosition() throws Exception {
+    final byte[] content = randomBytes(10000);
+    when(storage.reader(any(BlobId.class), (BlobSourceOption[]) anyVararg())).thenAnswer(new Answer<ReadChannel>() {
+
+      @Override
+      public ReadChannel answer(InvocationOnMock invocation) {
+        return new StubReadChannel(content, 333);
+      }
+    });
+
+    File destination = File.createTempFile("sliced", ".jar");
+    byte[] partial = Arrays.copyOf(content, 5000);
+    Arrays.fill(partial, 3000, 5000, (byte) 0);
+    Files.write(destination.toPath(), partial);
+
+    CollectingTransferProgress progress = new CollectingTransferProgress();
+    try {
+      slicedDownload.download(BLOB_ID, 3000, content.length, destination, progress);
+
+      assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+      assertArrayEquals(Arrays.copyOfRange(content, 3000, content.length), progress.getBytes());
+    } finally {
+      destination.delete();
+    }
+  }
+
+  @Test
+  public void itPropagatesStorageExceptionsFromSlices() throws Exception {
+    when(storage.reader(any(BlobId.class), (BlobSourceOption[]) anyVararg()))
+        .thenThrow(new StorageException(503, "Backend Error"));
+
+    File destination = File.createTempFile("sliced", ".jar");
+    try {
+      slicedDownload.download(BLOB_ID, 0, 4096, destination, new StubTransferProgress());
+    } catch (StorageException e) {
+      assertEquals(503, e.getCode());
+      return;
+    } finally {
+      destination.delete();
+    }
+    throw new AssertionError("Expected a StorageException");
+  }
+
+  @Test(expected = IOException.class)
+  public void itFailsWhenTheBlobIsShorterThanExpected() throws Exception {
+    final byte[] content = randomBytes(1000);
+    when(storage.reader(any(BlobId.class), (BlobSourceOption[]) anyVararg())).thenAnswer(new Answer<ReadChannel>() {
+
+      @Override
+      public ReadChannel answer(InvocationOnMock invocation) {
+        return new StubReadChannel(content, 333);
+      }
+    });
+
+    File destination = File.createTempFile("sliced", ".jar");
+    try {
+      slicedDownload.download(BLOB_ID, 0, 2000, destination, new StubTransferProgress());
+    } finally {
+      destination.delete();
+    }
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,134 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.Test;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.http.HttpTransportOptions;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+
+public class StorageClientPoolTest {
+
+  private static final TransportSettings SETTINGS = new TransportSettings(60000, 60000, 200, 20, 0, 0, false);
+
+  private static final StorageClientPool.Key KEY =
+      new StorageClientPool.Key("/home/ci/.gcs/credentials.json", 1000L, null, SETTINGS);
+
+  private final StorageClientPool pool = new StorageClientPool(1000);
+  private final CountingFactory factory = new CountingFactory();
+
+  @Test
+  public void itSharesAClientBetweenLeasesOfTheSameKey() throws Exception {
+    StorageClientPool.Lease first = pool.acquire(KEY, factory);
+    StorageClientPool.Lease second =
+        pool.acquire(new StorageClientPool.Key("/home/ci/.gcs/credentials.json", 1000L, null, SETTINGS), factory);
+
+    assertSame(first.getStorage(), second.getStorage());
+    assertEquals(1, factory.created);
+  }
+
+  @Test
+  public void itKeepsClientsForDifferentEndpointsApart() throws Exception {
+    StorageClientPool.Lease first = pool.acquire(KEY, factory);
+    StorageClientPool.Lease second =
+        pool.acquire(new StorageClientPool.Key("/home/ci/.gcs/credentials.json", 1000L, "http://localhost:4443", SETTINGS),
+                     factory);
+
+    assertNotSame(first.getStorage(), second.getStorage());
+    assertEquals(2, pool.size());
+  }
+
+  @Test
+  public void itKeepsClientsWithDifferentTransportSettingsApart() throws Exception {
+    StorageClientPool.Lease first = pool.acquire(KEY, factory);
+    StorageClientPool.Lease second = pool.acquire(
+        new StorageClientPool.Key("/home/ci/.gcs/credentials.json", 1000L, null,
+                                  new TransportSettings(60000, 60000, 200, 64, 0, 0, false)),
+        factory);
+
+    assertNotSame(first.getStorage(), second.getStorage());
+  }
+
+  @Test
+  public void itBuildsANewClientWhenTheCredentialsFileChanges() throws Exception {
+    StorageClientPool.Lease first = pool.acquire(KEY, factory);
+    StorageClientPool.Lease second =
+        pool.acquire(new StorageClientPool.Key("/home/ci/.gcs/credentials.json", 2000L, null, SETTINGS), factory);
+
+    assertNotSame(first.getStorage(), second.getStorage());
+  }
+
+  @Test
+  public void itOnlyEvictsClientsThatHaveBeenIdleLongEnough() throws Exception {
+    StorageClientPool.Lease first = pool.acquire(KEY, factory);
+    StorageClientPool.Lease second = pool.acquire(KEY, factory);
+
+    first.release();
+    first.release();
+    pool.evictIdle(System.currentTimeMillis() + 10000);
+    assertEquals("Still held by the second lease", 1, pool.size());
+
+    second.release();
+    pool.evictIdle(System.currentTimeMillis());
+    assertEquals("Not idle for long enough", 1, pool.size());
+
+    pool.evictIdle(System.currentTimeMillis() + 10000);
+    assertEquals(0, pool.size());
+
+    pool.acquire(KEY, factory);
+    assertEquals(2, factory.created);
+  }
+
+  @Test
+  public void itClosesTheConnectionsOfAnEvictedClient() throws Exception {
+    final TransportSettings settings = new TransportSettings(60000, 60000, 200, 20, 0, 0, true);
+    final StorageOptions options = StorageOptions.newBuilder()
+        .setProjectId("project")
+        .setCredentials(NoCredentials.getInstance())
+        .setTransportOptions(settings.toTransportOptions())
+        .build();
+    StorageClientPool.Lease lease = pool.acquire(
+        new StorageClientPool.Key("/home/ci/.gcs/credentials.json", 1000L, null, settings),
+        new StorageClientPool.ClientFactory() {
+
+          @Override
+          public Storage create() {
+            Storage storage = mock(Storage.class);
+            when(storage.getOptions()).thenReturn(options);
+            return storage;
+          }
+        });
+    PooledHttpTransport transport = (PooledHttpTransport)
+        ((HttpTransportOptions) options.getTransportOptions()).getHttpTransportFactory().create();
+
+    lease.release();
+    pool.evictIdle(System.currentTimeMillis() + 10000);
+
+    try {
+      transport.getConnectionManager().requestConnection(new HttpRoute(new HttpHost("storage.googleapis.com")), null);
+      fail("Expected the connection pool to be shut down");
+    } catch (IllegalStateException e) {
+      assertEquals("Connection pool shut down", e.getMessage());
+    }
+  }
+
+  private static final class CountingFactory implements StorageClientPool.ClientFactory {
+
+    private int created;
+
+    @Override
+    public Storage create() {
+      created++;
+      return mock(Storage.class);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package org.springframework.build.gcs.maven;
+
+import java.nio.ByteBuffer;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.RestorableState;
+import com.google.cloud.storage.StorageException;
+
+/**
+ * A {@link ReadChannel} over an in-memory blob that hands out at most {@code maxReadSize} bytes per read, and that can
+ * be made to fail with a 503 once it reaches a given position
+ */
+final class StubReadChannel implements ReadChannel {
+
+  private final byte[] content;
+  private final int maxReadSize;
+  private final int failAt;
+
+  private volatile int position;
+  private volatile int bytesRead;
+  private volatile boolean open = true;
+
+  StubReadChannel(byte[] content, int maxReadSize) {
+    this(content, maxReadSize, -1);
+  }
+
+  StubReadChannel(byte[] content, int maxReadSize, int failAt) {
+    this.content = content;
+    this.maxReadSize = maxReadSize;
+    this.failAt = failAt;
+  }
+
+  @Override
+  public int read(ByteBuffer dst) {
+    if (position == failAt) {
+      throw new StorageException(503, "Backend Error");
+    }
+    if (position >= content.length) {
+      return -1;
+    }
+
+    int end = failAt > position ? failAt : content.length;
+    int length = Math.min(Math.min(dst.remaining(), maxReadSize), end - position);
+    dst.put(content, position, length);
+    position += length;
+    bytesRead += length;
+    return length;
+  }
+
+  int getBytesRead() {
+    return bytesRead;
+  }
+
+  @Override
+  public void seek(long position) {
+    this.position = (int) position;
+  }
+
+  @Override
+  public void setChunkSize(int chunkSize) {}
+
+  @Override
+  public RestorableState<ReadChannel> capture() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public void close() {
+    open = false;
+  }
+}
@@ -40,4 +40,7 @@ final class StubTransferProgress implements TransferProgress {
 
     @Override
     public void startTransferAttempt() {}
+
+    @Override
+    public void resumeTransferAttempt(long position) {}
 }
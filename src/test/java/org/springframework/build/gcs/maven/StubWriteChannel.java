@@ -0,0 +1,81 @@
+package org.springframework.build.gcs.maven;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.StorageException;
+
+/**
+ * A {@link WriteChannel} that collects everything written to it in memory, and that can be made to fail with a 503 once
+ * a write would take it past a given length. A captured channel restores to a new channel holding what had been written
+ * at the time of the capture.
+ */
+final class StubWriteChannel implements WriteChannel {
+
+  private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+  private final int failAt;
+
+  private volatile boolean open = true;
+  private volatile StubWriteChannel restored;
+
+  StubWriteChannel() {
+    this(-1);
+  }
+
+  StubWriteChannel(int failAt) {
+    this.failAt = failAt;
+  }
+
+  @Override
+  public synchronized int write(ByteBuffer src) {
+    int length = src.remaining();
+    if (failAt >= 0 && content.size() + length > failAt) {
+      throw new StorageException(503, "Backend Error");
+    }
+
+    byte[] bytes = new byte[length];
+    src.get(bytes);
+    content.write(bytes, 0, length);
+    return length;
+  }
+
+  @Override
+  public void setChunkSize(int chunkSize) {}
+
+  @Override
+  public synchronized RestorableState<WriteChannel> capture() {
+    final byte[] captured = content.toByteArray();
+    return new RestorableState<WriteChannel>() {
+
+      @Override
+      public WriteChannel restore() {
+        restored = new StubWriteChannel();
+        restored.content.write(captured, 0, captured.length);
+        return restored;
+      }
+    };
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public void close() {
+    open = false;
+  }
+
+  /**
+   * Returns the channel most recently restored from a capture of this one
+   */
+  StubWriteChannel getRestored() {
+    return restored;
+  }
+
+  synchronized byte[] getContent() {
+    return content.toByteArray();
+  }
+}
@@ -56,6 +56,7 @@ public final class TransferProgressTest {
                     output.write(buffer, 0, length);
                 }
                 @Override public void startTransferAttempt() {}
+                @Override public void resumeTransferAttempt(long position) {}
         });
 
         String inputString = "abcdefghijklmnopqrstuvwxyz";
@@ -77,4 +78,30 @@ public final class TransferProgressTest {
 
         assertEquals(inputString, output.toString());
     }
+
+    @Test
+    public void retryableTransferProgressResumed() {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TransferProgress retyableTransferProgess = new RetryableTransferProgress(
+            new TransferProgress() {
+                @Override
+                public void notify(byte[] buffer, int length) {
+                    output.write(buffer, 0, length);
+                }
+                @Override public void startTransferAttempt() {}
+                @Override public void resumeTransferAttempt(long position) {}
+        });
+
+        String inputString = "abcdefghijklmnopqrstuvwxyz";
+        byte[] firstThird = inputString.substring(0, 9).getBytes();
+        byte[] rest = inputString.substring(9).getBytes();
+
+        retyableTransferProgess.startTransferAttempt();
+        retyableTransferProgess.notify(firstThird, firstThird.length);
+
+        retyableTransferProgess.resumeTransferAttempt(firstThird.length);
+        retyableTransferProgess.notify(rest, rest.length);
+
+        assertEquals(inputString, output.toString());
+    }
 }
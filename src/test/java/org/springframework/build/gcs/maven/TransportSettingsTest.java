@@ -0,0 +1,90 @@
+package org.springframework.build.gcs.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.Test;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.cloud.http.HttpTransportOptions;
+
+public class TransportSettingsTest {
+
+  private final TransportSettings settings = new TransportSettings(5000, 30000, 64, 32, 10000, 65536, true);
+
+  @Test
+  public void itComparesByValue() {
+    assertEquals(new TransportSettings(5000, 30000, 64, 32, 10000, 65536, true), settings);
+    assertEquals(new TransportSettings(5000, 30000, 64, 32, 10000, 65536, true).hashCode(), settings.hashCode());
+    assertNotEquals(new TransportSettings(5000, 30000, 64, 16, 10000, 65536, true), settings);
+    assertNotEquals(new TransportSettings(5000, 30000, 64, 32, 10000, 65536, false), settings);
+  }
+
+  @Test
+  public void itKeepsConnectionsPerRouteWithinTheTotal() {
+    TransportSettings settings = new TransportSettings(5000, 30000, 8, 32, 0, 0, true);
+
+    assertEquals(8, settings.getMaxConnectionsPerRoute());
+  }
+
+  @Test
+  public void itAppliesTheTimeoutsToTheTransportOptions() {
+    HttpTransportOptions options = settings.toTransportOptions();
+
+    assertEquals(5000, options.getConnectTimeout());
+    assertEquals(30000, options.getReadTimeout());
+  }
+
+  @Test
+  public void itBuildsOneTransportPerClient() throws Exception {
+    HttpTransportOptions options = settings.toTransportOptions();
+
+    assertSame(options.getHttpTransportFactory().create(), options.getHttpTransportFactory().create());
+  }
+
+  @Test
+  public void itSizesTheConnectionPool() throws Exception {
+    PooledHttpTransport transport = (PooledHttpTransport) settings.newTransport();
+    try {
+      PoolingHttpClientConnectionManager connections = transport.getConnectionManager();
+      assertEquals(64, connections.getMaxTotal());
+      assertEquals(32, connections.getDefaultMaxPerRoute());
+      assertEquals(65536, connections.getDefaultConnectionConfig().getBufferSize());
+      assertEquals(30000, connections.getDefaultSocketConfig().getSoTimeout());
+      assertTrue(connections.getDefaultSocketConfig().isTcpNoDelay());
+    } finally {
+      transport.shutdown();
+    }
+  }
+
+  @Test
+  public void itLeavesConnectionsToTheJdkByDefault() {
+    TransportSettings settings = new TransportSettings(5000, 30000, 64, 32, 10000, 65536, false);
+
+    assertTrue(settings.newTransport() instanceof NetHttpTransport);
+  }
+
+  @Test
+  public void itBoundsTheKeepAliveTheServerAsksFor() {
+    TransportSettings.BoundedKeepAliveStrategy strategy = new TransportSettings.BoundedKeepAliveStrategy(10000);
+
+    assertEquals(10000, strategy.getKeepAliveDuration(response(null), new BasicHttpContext()));
+    assertEquals(5000, strategy.getKeepAliveDuration(response("timeout=5"), new BasicHttpContext()));
+    assertEquals(10000, strategy.getKeepAliveDuration(response("timeout=300"), new BasicHttpContext()));
+  }
+
+  private static HttpResponse response(String keepAlive) {
+    HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+    if (keepAlive != null) {
+      response.addHeader("Keep-Alive", keepAlive);
+    }
+    return response;
+  }
+}
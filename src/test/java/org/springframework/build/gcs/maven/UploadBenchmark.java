@@ -0,0 +1,136 @@
+package org.springframework.build.gcs.maven;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobWriteOption;
+
+/**
+ * Compares the time taken to push a local file into a {@link WriteChannel} through the stream copy that uploads used
+ * to go through, and through {@link ResumableUpload} with and without mapping the file. The channel copies what it is
+ * given into a buffer and discards it, the way the GCS client does before sending a chunk, so the numbers are for the
+ * local side of an upload only.
+ * <p/>
+ * Run with {@code java ... UploadBenchmark [sizeInMiB] [iterations]}
+ */
+public final class UploadBenchmark {
+
+  private static final BlobInfo TARGET = BlobInfo.newBuilder("bucket", "benchmark.jar").build();
+
+  public static void main(String[] args) throws Exception {
+    int sizeInMiB = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    File source = File.createTempFile("upload-benchmark", ".jar");
+    try {
+      writeRandom(source, sizeInMiB * 1024L * 1024L);
+
+      for (int i = 0; i < iterations; i++) {
+        report("stream copy", source, timeStreamCopy(source));
+        report("buffered", source, timeResumableUpload(source, false));
+        report("mapped", source, timeResumableUpload(source, true));
+      }
+    } finally {
+      source.delete();
+    }
+  }
+
+  private static long timeStreamCopy(File source) throws IOException {
+    long start = System.nanoTime();
+    try (InputStream in = new TransferProgressFileInputStream(source, new StubTransferProgress());
+         OutputStream out = Channels.newOutputStream(new DiscardingWriteChannel())) {
+      IoUtils.copy(in, out);
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static long timeResumableUpload(File source, boolean mapped) throws IOException {
+    Storage storage = mock(Storage.class);
+    when(storage.writer(any(BlobInfo.class), (BlobWriteOption[]) anyVararg())).thenAnswer(new Answer<WriteChannel>() {
+
+      @Override
+      public WriteChannel answer(InvocationOnMock invocation) {
+        return new DiscardingWriteChannel();
+      }
+    });
+
+    long start = System.nanoTime();
+    new ResumableUpload(source, mapped).upload(storage, TARGET, new GcsMetrics(), new StubTransferProgress());
+    return System.nanoTime() - start;
+  }
+
+  private static void report(String name, File source, long nanos) {
+    double seconds = nanos / 1e9;
+    System.out.printf("%-12s %8.1f ms %10.1f MiB/s%n", name, nanos / 1e6,
+                      source.length() / (1024.0 * 1024.0) / seconds);
+  }
+
+  private static void writeRandom(File file, long size) throws IOException {
+    byte[] block = new byte[1024 * 1024];
+    new Random(size).nextBytes(block);
+    try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+      for (long written = 0; written < size; written += block.length) {
+        out.write(block, 0, (int) Math.min(block.length, size - written));
+      }
+    }
+    // warm the page cache so that every path reads from memory
+    try (InputStream in = new FileInputStream(file)) {
+      while (in.read(block) >= 0) {
+        // read through
+      }
+    }
+  }
+
+  private static final class DiscardingWriteChannel implements WriteChannel {
+
+    private final byte[] chunk = new byte[ResumableUpload.MAX_CHUNK_SIZE];
+
+    private int limit;
+
+    @Override
+    public int write(ByteBuffer src) {
+      int length = src.remaining();
+      while (src.hasRemaining()) {
+        int count = Math.min(src.remaining(), chunk.length - limit);
+        src.get(chunk, limit, count);
+        limit = (limit + count) % chunk.length;
+      }
+      return length;
+    }
+
+    @Override
+    public void setChunkSize(int chunkSize) {}
+
+    @Override
+    public RestorableState<WriteChannel> capture() {
+      return null;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {}
+  }
+}